@@ -5,6 +5,9 @@ import java.util.regex.Pattern;
 
 public class Adduct {
 
+    private static final Pattern CHARGE_PATTERN = Pattern.compile("([2-9])([+\\-\u2212])"); // the negative adducts use the unicode minus
+    private static final Pattern MULTIMER_PATTERN = Pattern.compile("\\[([2-9])M");
+
     /**
      * Calculate the mass to search depending on the adduct hypothesis
      *
@@ -19,31 +22,43 @@ public class Adduct {
             return null;
         }
 
-        Double adductMass = AdductList.MAPMZPOSITIVEADDUCTS.getOrDefault(adduct, AdductList.MAPMZNEGATIVEADDUCTS.get(adduct));
-        if (adductMass == null) {
+        AdductTable adducts = AdductCatalogue.current().tableOf(adduct);
+        if (adducts == null) {
             return null;
         }
 
-        int charge = 1;
-        Matcher chargeMatcher = Pattern.compile("([2-9])([+-])").matcher(adduct);
+        return adducts.getMonoisotopicMass(adducts.indexOf(adduct), mz);
+    }
+
+    /**
+     * @param adduct adduct name ([M+H]+, [2M+H]+, [M+2H]2+, etc..)
+     * @return charge of the adduct used by {@link #getMonoisotopicMassFromMZ(Double, String)}
+     */
+    public static int getCharge(String adduct) {
+        Matcher chargeMatcher = CHARGE_PATTERN.matcher(adduct);
         if (chargeMatcher.find()) {
-            charge = Integer.parseInt(chargeMatcher.group(1));
+            return Integer.parseInt(chargeMatcher.group(1));
         }
+        return 1;
+    }
 
-        int multimer = 1;
-        Matcher multimerMatcher = Pattern.compile("\\[([2-9])M").matcher(adduct);
+    /**
+     * @param adduct adduct name ([M+H]+, [2M+H]+, [M+2H]2+, etc..)
+     * @return number of molecules of the adduct used by {@link #getMonoisotopicMassFromMZ(Double, String)}
+     */
+    public static int getMultimer(String adduct) {
+        Matcher multimerMatcher = MULTIMER_PATTERN.matcher(adduct);
         if (multimerMatcher.find()) {
-            multimer = Integer.parseInt(multimerMatcher.group(1));
+            return Integer.parseInt(multimerMatcher.group(1));
         }
-
-        double numerator = (mz * charge) + adductMass;
-
-        return numerator / multimer;
+        return 1;
     }
 
 
     /**
-     * Calculate the mz of a monoisotopic mass with the corresponding adduct
+     * Calculate the mz of a monoisotopic mass with the corresponding adduct, the inverse of
+     * {@link #getMonoisotopicMassFromMZ(Double, String)}. The mass delta, charge and multimer are the ones of the
+     * adduct in the current {@link AdductCatalogue}
      *
      * @param monoisotopicMass
      * @param adduct           adduct name ([M+H]+, [2M+H]+, [M+2H]2+, etc..)
@@ -54,31 +69,11 @@ public class Adduct {
             return null;
         }
 
-        Double adductMass = AdductList.MAPMZPOSITIVEADDUCTS.get(adduct);
-        if (adductMass == null) {
-            adductMass = AdductList.MAPMZNEGATIVEADDUCTS.get(adduct);
-        }
-
-        if (adductMass == null) {
+        AdductTable adducts = AdductCatalogue.current().tableOf(adduct);
+        if (adducts == null) {
             return null;
         }
-
-        int multimer = 1;
-        Matcher multimerMatcher = Pattern.compile("\\[(\\d*)M").matcher(adduct);
-        if (multimerMatcher.find()) {
-            String num = multimerMatcher.group(1);
-            if (!num.isEmpty()) multimer = Integer.parseInt(num);
-        }
-
-        int charge = 1;
-        Matcher chargeMatcher = Pattern.compile("(\\d*)([+-])\\]").matcher(adduct);
-        if (chargeMatcher.find()) {
-            String chargeStr = chargeMatcher.group(1);
-            if (!chargeStr.isEmpty()) charge = Integer.parseInt(chargeStr);
-        }
-
-        double totalMass = monoisotopicMass * multimer;
-        return (totalMass + adductMass) / charge;
+        return adducts.getMz(adducts.indexOf(adduct), monoisotopicMass);
     }
 
         /*
@@ -0,0 +1,161 @@
+package adduct;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Immutable adducts of both ionization modes, compiled into one {@link AdductTable} per mode. The catalogue used by the
+ * detectors is {@link #current()}: it starts with the adducts of {@link AdductList} and can be replaced at any time
+ * with {@link #install(AdductCatalogue)}, e.g. by an {@link AdductCatalogueWatcher}. Readers take the catalogue once
+ * per batch, so a batch never mixes the adducts of two catalogues.
+ * <p>
+ * Catalogue files have one adduct per line with five tab or comma separated columns: name, mass delta, charge,
+ * multimer and polarity (+ or -). The mass delta follows {@link AdductList}: it is added to mz * charge to get the
+ * mass of the multimer, e.g. -1.007276 for [M+H]+. Blank lines and lines starting with # are ignored, and the adducts
+ * are tried in the order of the file.
+ * <pre>
+ * # name        mass delta   charge  multimer  polarity
+ * [M+H]+        -1.007276    1       1         +
+ * [M+CH3COO]−   -59.013851   1       1         -
+ * </pre>
+ */
+public final class AdductCatalogue {
+
+    public static final AdductCatalogue DEFAULT = new AdductCatalogue(AdductTable.POSITIVE, AdductTable.NEGATIVE, "AdductList");
+
+    private static final AtomicReference<AdductCatalogue> CURRENT = new AtomicReference<>(DEFAULT);
+
+    private final AdductTable positive;
+    private final AdductTable negative;
+    private final String source;
+
+    public AdductCatalogue(AdductTable positive, AdductTable negative, String source) {
+        this.positive = Objects.requireNonNull(positive);
+        this.negative = Objects.requireNonNull(negative);
+        this.source = source;
+    }
+
+    /**
+     * @return the catalogue used by the detectors
+     */
+    public static AdductCatalogue current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Atomically replace the catalogue used by the detectors. Batches already running finish with the previous one
+     *
+     * @return the previous catalogue
+     */
+    public static AdductCatalogue install(AdductCatalogue catalogue) {
+        return CURRENT.getAndSet(Objects.requireNonNull(catalogue));
+    }
+
+    public static AdductCatalogue load(Path file) throws IOException {
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return parse(reader, file.toString());
+        }
+    }
+
+    /**
+     * @param source name of the catalogue in the error messages, e.g. the file name
+     * @throws IllegalArgumentException if a line is not a valid adduct, with its line number, or there are no adducts
+     */
+    public static AdductCatalogue parse(Reader reader, String source) throws IOException {
+        Columns positive = new Columns();
+        Columns negative = new Columns();
+        BufferedReader lines = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        int lineNumber = 0;
+        for (String line = lines.readLine(); line != null; line = lines.readLine()) {
+            lineNumber++;
+            line = line.strip();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] columns = line.split("\\s*[\t,]\\s*");
+            if (columns.length != 5) {
+                throw new IllegalArgumentException(source + ":" + lineNumber + ": expected 5 columns but found " + columns.length);
+            }
+            try {
+                Columns mode;
+                switch (columns[4]) {
+                    case "+": mode = positive; break;
+                    case "-": mode = negative; break;
+                    default: throw new IllegalArgumentException("unknown polarity " + columns[4]);
+                }
+                mode.add(columns[0], Double.parseDouble(columns[1]), Integer.parseInt(columns[2]), Integer.parseInt(columns[3]));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(source + ":" + lineNumber + ": " + e.getMessage(), e);
+            }
+        }
+        if (positive.names.isEmpty() && negative.names.isEmpty()) {
+            throw new IllegalArgumentException(source + ": no adducts");
+        }
+        return new AdductCatalogue(positive.toTable(), negative.toTable(), source);
+    }
+
+    public AdductTable getPositive() {
+        return positive;
+    }
+
+    public AdductTable getNegative() {
+        return negative;
+    }
+
+    /**
+     * @return table of the ionization mode holding the adduct, null if the adduct is not in the catalogue
+     */
+    public AdductTable tableOf(String adduct) {
+        if (positive.indexOf(adduct) >= 0) {
+            return positive;
+        }
+        return negative.indexOf(adduct) >= 0 ? negative : null;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    @Override
+    public String toString() {
+        return "AdductCatalogue(" + source + ", " + positive.size() + " positive, " + negative.size() + " negative)";
+    }
+
+    /**
+     * Adducts of one ionization mode while the file is parsed
+     */
+    private static final class Columns {
+        private final List<String> names = new ArrayList<>();
+        private final List<Double> massDeltas = new ArrayList<>();
+        private final List<Integer> charges = new ArrayList<>();
+        private final List<Integer> multimers = new ArrayList<>();
+
+        private void add(String name, double massDelta, int charge, int multimer) {
+            if (charge <= 0 || multimer <= 0) {
+                throw new IllegalArgumentException("charge and multimer must be positive: " + name);
+            }
+            if (names.contains(name)) {
+                throw new IllegalArgumentException("duplicated adduct " + name);
+            }
+            names.add(name);
+            massDeltas.add(massDelta);
+            charges.add(charge);
+            multimers.add(multimer);
+        }
+
+        private AdductTable toTable() {
+            return new AdductTable(names.toArray(new String[0]),
+                    massDeltas.stream().mapToDouble(Double::doubleValue).toArray(),
+                    charges.stream().mapToInt(Integer::intValue).toArray(),
+                    multimers.stream().mapToInt(Integer::intValue).toArray());
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package adduct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hot reload of a catalogue file: the catalogue is installed when the watcher is started and installed again every
+ * time the file changes, so long lived scoring services pick up new adducts without restarting. A file that cannot be
+ * parsed (e.g. while it is being written) leaves the previous catalogue installed.
+ */
+public class AdductCatalogueWatcher implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AdductCatalogueWatcher.class);
+    // editors write a file in several steps, so the file is reloaded once it has not changed for this time
+    private static final long QUIET_MILLIS = 200;
+
+    private final Path file;
+    private final WatchService watchService;
+    private final Thread thread;
+    private volatile long reloads;
+    private volatile Exception lastError;
+
+    private AdductCatalogueWatcher(Path file, WatchService watchService) {
+        this.file = file;
+        this.watchService = watchService;
+        this.thread = new Thread(this::watch, "adduct-catalogue-watcher");
+        thread.setDaemon(true);
+    }
+
+    /**
+     * Install the catalogue of the file and watch it
+     *
+     * @throws IOException              if the file cannot be read or watched
+     * @throws IllegalArgumentException if the file is not a valid catalogue
+     */
+    public static AdductCatalogueWatcher start(Path file) throws IOException {
+        Path absolute = file.toAbsolutePath();
+        AdductCatalogue.install(AdductCatalogue.load(absolute));
+        WatchService watchService = FileSystems.getDefault().newWatchService();
+        try {
+            absolute.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException | RuntimeException e) {
+            watchService.close();
+            throw e;
+        }
+        AdductCatalogueWatcher watcher = new AdductCatalogueWatcher(absolute, watchService);
+        watcher.thread.start();
+        return watcher;
+    }
+
+    /**
+     * Load and install the file again
+     *
+     * @return true if the catalogue was replaced, false if the file is not valid and the previous one is kept
+     */
+    public synchronized boolean reload() {
+        try {
+            AdductCatalogue.install(AdductCatalogue.load(file));
+            reloads++;
+            lastError = null;
+            return true;
+        } catch (IOException | IllegalArgumentException e) {
+            lastError = e;
+            LOG.warn("Adduct catalogue not reloaded, keeping the previous one: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * @return number of successful reloads since the watcher was started
+     */
+    public long getReloads() {
+        return reloads;
+    }
+
+    /**
+     * @return error of the last reload, null if it succeeded
+     */
+    public Exception getLastError() {
+        return lastError;
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                boolean changed = false;
+                while (key != null) {
+                    changed |= changed(key);
+                    if (!key.reset()) {
+                        return;
+                    }
+                    key = watchService.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                if (changed) {
+                    reload();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // closed
+        }
+    }
+
+    private boolean changed(WatchKey key) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            changed |= event.kind() == StandardWatchEventKinds.OVERFLOW || file.getFileName().equals(event.context());
+        }
+        return changed;
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+        thread.interrupt();
+    }
+}
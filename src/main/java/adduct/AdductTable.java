@@ -0,0 +1,114 @@
+package adduct;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Adducts of one ionization mode with their mass delta, charge and multimer parsed once, so the monoisotopic mass of a
+ * peak under each adduct is a multiply-add instead of a map lookup and two regular expressions.
+ */
+public final class AdductTable {
+
+    public static final AdductTable POSITIVE = new AdductTable(AdductList.MAPMZPOSITIVEADDUCTS);
+    public static final AdductTable NEGATIVE = new AdductTable(AdductList.MAPMZNEGATIVEADDUCTS);
+
+    private final String[] names;
+    private final double[] massDeltas;
+    private final int[] charges;
+    private final int[] multimers;
+    private final Map<String, Integer> positions;
+
+    /**
+     * @param adducts adduct name to mass delta, in the order the adducts are tried. The charge and multimer are parsed
+     *                from the names
+     */
+    public AdductTable(Map<String, Double> adducts) {
+        this(adducts.keySet().toArray(new String[0]),
+                adducts.values().stream().mapToDouble(Double::doubleValue).toArray(),
+                adducts.keySet().stream().mapToInt(Adduct::getCharge).toArray(),
+                adducts.keySet().stream().mapToInt(Adduct::getMultimer).toArray());
+    }
+
+    /**
+     * @param names      adduct names, in the order the adducts are tried
+     * @param massDeltas mass added to mz * charge to get the mass of the multimer ({@link AdductList} values)
+     * @param charges    absolute charge of every adduct
+     * @param multimers  number of molecules of every adduct
+     */
+    public AdductTable(String[] names, double[] massDeltas, int[] charges, int[] multimers) {
+        int size = names.length;
+        if (massDeltas.length != size || charges.length != size || multimers.length != size) {
+            throw new IllegalArgumentException("Adduct columns of different length");
+        }
+        this.names = names.clone();
+        this.massDeltas = massDeltas.clone();
+        this.charges = charges.clone();
+        this.multimers = multimers.clone();
+        this.positions = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            if (charges[i] <= 0 || multimers[i] <= 0) {
+                throw new IllegalArgumentException("Invalid charge or multimer of adduct " + names[i]);
+            }
+            if (positions.put(names[i], i) != null) {
+                throw new IllegalArgumentException("Duplicated adduct " + names[i]);
+            }
+        }
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public String getName(int adduct) {
+        return names[adduct];
+    }
+
+    public double getMassDelta(int adduct) {
+        return massDeltas[adduct];
+    }
+
+    public int getCharge(int adduct) {
+        return charges[adduct];
+    }
+
+    public int getMultimer(int adduct) {
+        return multimers[adduct];
+    }
+
+    /**
+     * @return position of the adduct in the table, -1 if it is not an adduct of this ionization mode
+     */
+    public int indexOf(String adduct) {
+        Integer position = adduct == null ? null : positions.get(adduct);
+        return position == null ? -1 : position;
+    }
+
+    /**
+     * Same result as {@link Adduct#getMonoisotopicMassFromMZ(Double, String)} for the adduct at the given position
+     */
+    public double getMonoisotopicMass(int adduct, double mz) {
+        return (mz * charges[adduct] + massDeltas[adduct]) / multimers[adduct];
+    }
+
+    /**
+     * Inverse of {@link #getMonoisotopicMass(int, double)}: mz of the adduct of a monoisotopic mass
+     */
+    public double getMz(int adduct, double monoisotopicMass) {
+        return (monoisotopicMass * multimers[adduct] - massDeltas[adduct]) / charges[adduct];
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof AdductTable)) return false;
+        AdductTable that = (AdductTable) o;
+        return Arrays.equals(names, that.names) && Arrays.equals(massDeltas, that.massDeltas)
+                && Arrays.equals(charges, that.charges) && Arrays.equals(multimers, that.multimers);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(names) + Arrays.hashCode(massDeltas);
+    }
+}
@@ -0,0 +1,84 @@
+package adduct;
+
+/**
+ * Batch ppm comparison over primitive arrays, the hot loop of the adduct detection and the candidate search. The ppm
+ * of an experimental mass against a theoretical mass is |experimental - theoretical| * 1e6 / theoretical, as in
+ * {@link Adduct#calculatePPMIncrement(Double, Double)} but without boxing or rounding.
+ * <p>
+ * {@link #get()} returns a SIMD implementation over jdk.incubator.vector when it is available (built with the vector
+ * Maven profile and run with --add-modules jdk.incubator.vector), and a scalar one otherwise. Both give exactly the
+ * same results.
+ */
+public interface PpmKernel {
+
+    /**
+     * @param experimental experimental masses
+     * @param theoretical  theoretical masses, positive
+     * @param ppm          receives the ppm of every experimental mass against the theoretical mass of the same index
+     * @param length       number of masses compared
+     */
+    void ppmIncrements(double[] experimental, double[] theoretical, double[] ppm, int length);
+
+    /**
+     * Compare a range of experimental masses against one theoretical mass
+     *
+     * @param matches receives the indices of the experimental masses within maxPpm, in increasing order
+     * @return number of matches
+     */
+    int withinTolerance(double[] experimental, int from, int to, double theoretical, double maxPpm, int[] matches);
+
+    /**
+     * Compare one experimental mass against a range of theoretical masses
+     *
+     * @param matches receives the indices of the theoretical masses within maxPpm, in increasing order
+     * @return number of matches
+     */
+    int withinTolerance(double experimental, double[] theoretical, int from, int to, double maxPpm, int[] matches);
+
+    /**
+     * @return true if the kernel uses SIMD instructions
+     */
+    boolean isVectorized();
+
+    /**
+     * @return the vectorized kernel if jdk.incubator.vector is available, the scalar one otherwise
+     */
+    static PpmKernel get() {
+        return PpmKernels.VECTOR == null ? ScalarPpmKernel.INSTANCE : PpmKernels.VECTOR;
+    }
+
+    /**
+     * Kernel selected by name, so it can be chosen at runtime (e.g. from a command line option)
+     *
+     * @param name scalar or vector
+     */
+    static PpmKernel byName(String name) {
+        switch (name) {
+            case "scalar": return ScalarPpmKernel.INSTANCE;
+            case "vector":
+                if (PpmKernels.VECTOR == null) {
+                    throw new IllegalStateException("jdk.incubator.vector is not available, build with -Pvector and run with --add-modules jdk.incubator.vector");
+                }
+                return PpmKernels.VECTOR;
+            default: throw new IllegalArgumentException("Unknown ppm kernel: " + name);
+        }
+    }
+
+    /**
+     * Tolerance of the rounded criterion of {@link Adduct#calculatePPMIncrement(Double, Double)}: Math.round(ppm) is
+     * at most ppmTolerance if and only if ppm is at most the returned value
+     */
+    static double roundedTolerance(double ppmTolerance) {
+        return Math.nextDown(Math.floor(ppmTolerance) + 0.5);
+    }
+
+    /**
+     * Rounded criterion of {@link Adduct#calculatePPMIncrement(Double, Double)} for a single pair, without boxing: the
+     * same comparison as the kernels against {@link #roundedTolerance(double)}
+     *
+     * @param theoretical positive
+     */
+    static boolean withinRoundedTolerance(double experimental, double theoretical, double ppmTolerance) {
+        return ScalarPpmKernel.ppm(experimental, theoretical) <= roundedTolerance(ppmTolerance);
+    }
+}
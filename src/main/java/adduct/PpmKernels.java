@@ -0,0 +1,34 @@
+package adduct;
+
+import java.lang.reflect.Constructor;
+
+/**
+ * Holder of the vectorized {@link PpmKernel}. The vector classes are only built with the vector Maven profile and only
+ * loaded if jdk.incubator.vector is in the boot layer, so the scalar kernel keeps working on a build or a JVM without
+ * the module.
+ */
+final class PpmKernels {
+
+    static final PpmKernel VECTOR = (PpmKernel) loadVectorized("adduct.VectorPpmKernel");
+
+    private PpmKernels() {
+    }
+
+    /**
+     * @return a new instance of the vectorized class, null if the module is missing or the class was not built
+     */
+    static Object loadVectorized(String className) {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return null;
+        }
+        try {
+            Constructor<?> constructor = Class.forName(className).getDeclaredConstructor();
+            constructor.setAccessible(true);
+            return constructor.newInstance();
+        } catch (ClassNotFoundException e) {
+            return null;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Vectorized class cannot be created: " + className, e);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package adduct;
+
+/**
+ * Plain loops, used when jdk.incubator.vector is not available and for the tails of the vectorized loops
+ */
+final class ScalarPpmKernel implements PpmKernel {
+
+    static final ScalarPpmKernel INSTANCE = new ScalarPpmKernel();
+
+    private ScalarPpmKernel() {
+    }
+
+    @Override
+    public void ppmIncrements(double[] experimental, double[] theoretical, double[] ppm, int length) {
+        ppmIncrements(experimental, theoretical, ppm, 0, length);
+    }
+
+    @Override
+    public int withinTolerance(double[] experimental, int from, int to, double theoretical, double maxPpm, int[] matches) {
+        return withinTolerance(experimental, from, to, theoretical, maxPpm, matches, 0);
+    }
+
+    @Override
+    public int withinTolerance(double experimental, double[] theoretical, int from, int to, double maxPpm, int[] matches) {
+        return withinTolerance(experimental, theoretical, from, to, maxPpm, matches, 0);
+    }
+
+    @Override
+    public boolean isVectorized() {
+        return false;
+    }
+
+    static double ppm(double experimental, double theoretical) {
+        return Math.abs((experimental - theoretical) * 1e6 / theoretical);
+    }
+
+    static void ppmIncrements(double[] experimental, double[] theoretical, double[] ppm, int from, int to) {
+        for (int i = from; i < to; i++) {
+            ppm[i] = ppm(experimental[i], theoretical[i]);
+        }
+    }
+
+    static int withinTolerance(double[] experimental, int from, int to, double theoretical, double maxPpm,
+                               int[] matches, int count) {
+        for (int i = from; i < to; i++) {
+            if (ppm(experimental[i], theoretical) <= maxPpm) {
+                matches[count++] = i;
+            }
+        }
+        return count;
+    }
+
+    static int withinTolerance(double experimental, double[] theoretical, int from, int to, double maxPpm,
+                               int[] matches, int count) {
+        for (int i = from; i < to; i++) {
+            if (ppm(experimental, theoretical[i]) <= maxPpm) {
+                matches[count++] = i;
+            }
+        }
+        return count;
+    }
+}
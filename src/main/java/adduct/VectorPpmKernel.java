@@ -0,0 +1,65 @@
+package adduct;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD loops over the preferred vector species of the CPU. The operations are done lane by lane in the same order as
+ * {@link ScalarPpmKernel}, so the results are the same bit for bit. Only built with the vector profile and only loaded
+ * when jdk.incubator.vector is in the boot layer, see {@link PpmKernels}.
+ */
+final class VectorPpmKernel implements PpmKernel {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    VectorPpmKernel() {
+    }
+
+    @Override
+    public void ppmIncrements(double[] experimental, double[] theoretical, double[] ppm, int length) {
+        int bound = SPECIES.loopBound(length);
+        for (int i = 0; i < bound; i += SPECIES.length()) {
+            DoubleVector t = DoubleVector.fromArray(SPECIES, theoretical, i);
+            DoubleVector.fromArray(SPECIES, experimental, i).sub(t).mul(1e6).div(t).abs().intoArray(ppm, i);
+        }
+        ScalarPpmKernel.ppmIncrements(experimental, theoretical, ppm, bound, length);
+    }
+
+    @Override
+    public int withinTolerance(double[] experimental, int from, int to, double theoretical, double maxPpm, int[] matches) {
+        int bound = from + SPECIES.loopBound(to - from);
+        int count = 0;
+        for (int i = from; i < bound; i += SPECIES.length()) {
+            VectorMask<Double> mask = DoubleVector.fromArray(SPECIES, experimental, i).sub(theoretical).mul(1e6)
+                    .div(theoretical).abs().compare(VectorOperators.LE, maxPpm);
+            count = collect(mask, i, matches, count);
+        }
+        return ScalarPpmKernel.withinTolerance(experimental, bound, to, theoretical, maxPpm, matches, count);
+    }
+
+    @Override
+    public int withinTolerance(double experimental, double[] theoretical, int from, int to, double maxPpm, int[] matches) {
+        int bound = from + SPECIES.loopBound(to - from);
+        int count = 0;
+        DoubleVector e = DoubleVector.broadcast(SPECIES, experimental);
+        for (int i = from; i < bound; i += SPECIES.length()) {
+            DoubleVector t = DoubleVector.fromArray(SPECIES, theoretical, i);
+            count = collect(e.sub(t).mul(1e6).div(t).abs().compare(VectorOperators.LE, maxPpm), i, matches, count);
+        }
+        return ScalarPpmKernel.withinTolerance(experimental, theoretical, bound, to, maxPpm, matches, count);
+    }
+
+    @Override
+    public boolean isVectorized() {
+        return true;
+    }
+
+    private static int collect(VectorMask<Double> mask, int offset, int[] matches, int count) {
+        for (long lanes = mask.toLong(); lanes != 0; lanes &= lanes - 1) {
+            matches[count++] = offset + Long.numberOfTrailingZeros(lanes);
+        }
+        return count;
+    }
+}
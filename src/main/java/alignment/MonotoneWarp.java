@@ -0,0 +1,91 @@
+package alignment;
+
+import java.util.Arrays;
+
+/**
+ * Non decreasing mapping of the RTs of one run onto the RTs of the reference run. It is fitted with isotonic
+ * regression (pool adjacent violators) over the anchor features, interpolated linearly between the fitted knots and
+ * extended with a constant shift beyond the first and last anchors.
+ */
+public class MonotoneWarp {
+
+    public static final MonotoneWarp IDENTITY = new MonotoneWarp(new double[0], new double[0]);
+
+    private final double[] knotRt;
+    private final double[] knotReferenceRt;
+
+    private MonotoneWarp(double[] knotRt, double[] knotReferenceRt) {
+        this.knotRt = knotRt;
+        this.knotReferenceRt = knotReferenceRt;
+    }
+
+    /**
+     * @param rt          RTs of the anchors in the run, in increasing order
+     * @param referenceRt RTs of the same anchors in the reference run
+     * @param size        number of anchors
+     */
+    public static MonotoneWarp fit(double[] rt, double[] referenceRt, int size) {
+        if (size == 0) {
+            return IDENTITY;
+        }
+        // pool adjacent violators: blocks of anchors whose mean reference RT is non decreasing
+        double[] sumRt = new double[size];
+        double[] sumReference = new double[size];
+        int[] weight = new int[size];
+        int blocks = 0;
+        for (int i = 0; i < size; i++) {
+            sumRt[blocks] = rt[i];
+            sumReference[blocks] = referenceRt[i];
+            weight[blocks] = 1;
+            blocks++;
+            while (blocks > 1 && sumReference[blocks - 1] * weight[blocks - 2] < sumReference[blocks - 2] * weight[blocks - 1]) {
+                sumRt[blocks - 2] += sumRt[blocks - 1];
+                sumReference[blocks - 2] += sumReference[blocks - 1];
+                weight[blocks - 2] += weight[blocks - 1];
+                blocks--;
+            }
+        }
+        double[] knotRt = new double[blocks];
+        double[] knotReferenceRt = new double[blocks];
+        for (int b = 0; b < blocks; b++) {
+            knotRt[b] = sumRt[b] / weight[b];
+            knotReferenceRt[b] = sumReference[b] / weight[b];
+        }
+        return new MonotoneWarp(knotRt, knotReferenceRt);
+    }
+
+    /**
+     * @return RT of the run mapped onto the reference run
+     */
+    public double apply(double rt) {
+        int knots = knotRt.length;
+        if (knots == 0) {
+            return rt;
+        }
+        if (rt <= knotRt[0]) {
+            return rt + knotReferenceRt[0] - knotRt[0];
+        }
+        if (rt >= knotRt[knots - 1]) {
+            return rt + knotReferenceRt[knots - 1] - knotRt[knots - 1];
+        }
+        int position = Arrays.binarySearch(knotRt, rt);
+        if (position >= 0) {
+            return knotReferenceRt[position];
+        }
+        int right = -position - 1;
+        int left = right - 1;
+        double width = knotRt[right] - knotRt[left];
+        if (width <= 0) {
+            return knotReferenceRt[left];
+        }
+        double fraction = (rt - knotRt[left]) / width;
+        return knotReferenceRt[left] + fraction * (knotReferenceRt[right] - knotReferenceRt[left]);
+    }
+
+    /**
+     * @return number of knots of the fitted warp, 0 for the identity
+     */
+    public int getKnots() {
+        return knotRt.length;
+    }
+}
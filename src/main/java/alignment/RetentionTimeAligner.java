@@ -0,0 +1,180 @@
+package alignment;
+
+import lipid.Annotation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Cross run RT alignment, needed before scoring the elution order of merged cohorts. The features of every run are
+ * matched by mz and RT against the reference run; the features with a single match are the anchors of a
+ * {@link MonotoneWarp} of the run, which rewrites the RTs of its annotations. Runs are aligned in parallel, each one
+ * over primitive arrays.
+ */
+public class RetentionTimeAligner {
+
+    private static final long INDEX_MASK = (1L << 24) - 1;
+
+    private final double ppmTolerance;
+    private final double maxRtShift;
+
+    /**
+     * @param ppmTolerance tolerance to match the mz of a feature in the run and in the reference run
+     * @param maxRtShift   maximum RT drift, in minutes, between the runs
+     */
+    public RetentionTimeAligner(double ppmTolerance, double maxRtShift) {
+        if (ppmTolerance <= 0 || maxRtShift <= 0) {
+            throw new IllegalArgumentException("Invalid tolerances: " + ppmTolerance + " ppm, " + maxRtShift + " min");
+        }
+        this.ppmTolerance = ppmTolerance;
+        this.maxRtShift = maxRtShift;
+    }
+
+    /**
+     * Align every run onto the run with most annotations
+     *
+     * @param runs annotations of every run
+     * @return annotations of every run with the aligned RTs, in the same order
+     */
+    public List<List<Annotation>> align(List<? extends List<Annotation>> runs) {
+        int reference = 0;
+        for (int r = 1; r < runs.size(); r++) {
+            if (runs.get(r).size() > runs.get(reference).size()) {
+                reference = r;
+            }
+        }
+        int referenceRun = reference;
+        List<MonotoneWarp> warps = fit(runs, referenceRun);
+        return IntStream.range(0, runs.size()).parallel()
+                .mapToObj(r -> {
+                    if (r == referenceRun) {
+                        return new ArrayList<>(runs.get(r));
+                    }
+                    List<Annotation> aligned = new ArrayList<>(runs.get(r).size());
+                    for (Annotation annotation : runs.get(r)) {
+                        aligned.add(annotation.withRtMin(warps.get(r).apply(annotation.getRtMin())));
+                    }
+                    return aligned;
+                })
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * @param runs      annotations of every run
+     * @param reference index of the reference run
+     * @return warp of every run onto the reference run (the identity for the reference run itself)
+     */
+    public List<MonotoneWarp> fit(List<? extends List<Annotation>> runs, int reference) {
+        Features referenceFeatures = new Features(runs.get(reference));
+        return IntStream.range(0, runs.size()).parallel()
+                .mapToObj(r -> r == reference ? MonotoneWarp.IDENTITY : fit(new Features(runs.get(r)), referenceFeatures))
+                .collect(Collectors.toList());
+    }
+
+    private MonotoneWarp fit(Features run, Features reference) {
+        double[] anchorRt = new double[run.size];
+        double[] anchorReferenceRt = new double[run.size];
+        int anchors = 0;
+        for (int i = 0; i < run.size; i++) {
+            double referenceRt = reference.uniqueMatch(run.mz[i], run.rt[i], ppmTolerance, maxRtShift);
+            if (!Double.isNaN(referenceRt)) {
+                anchorRt[anchors] = run.rt[i];
+                anchorReferenceRt[anchors] = referenceRt;
+                anchors++;
+            }
+        }
+        sortByFirst(anchorRt, anchorReferenceRt, anchors);
+        return MonotoneWarp.fit(anchorRt, anchorReferenceRt, anchors);
+    }
+
+    /**
+     * In place heap sort of both arrays by the first one
+     */
+    private static void sortByFirst(double[] keys, double[] values, int size) {
+        for (int start = size / 2 - 1; start >= 0; start--) {
+            siftDown(keys, values, start, size);
+        }
+        for (int end = size - 1; end > 0; end--) {
+            swap(keys, values, 0, end);
+            siftDown(keys, values, 0, end);
+        }
+    }
+
+    private static void siftDown(double[] keys, double[] values, int root, int size) {
+        while (2 * root + 1 < size) {
+            int child = 2 * root + 1;
+            if (child + 1 < size && keys[child + 1] > keys[child]) {
+                child++;
+            }
+            if (keys[root] >= keys[child]) {
+                return;
+            }
+            swap(keys, values, root, child);
+            root = child;
+        }
+    }
+
+    private static void swap(double[] keys, double[] values, int i, int j) {
+        double key = keys[i];
+        keys[i] = keys[j];
+        keys[j] = key;
+        double value = values[i];
+        values[i] = values[j];
+        values[j] = value;
+    }
+
+    /**
+     * mz and RT of the annotations of one run, sorted by mz
+     */
+    private static final class Features {
+        private final double[] mz;
+        private final double[] rt;
+        private final int size;
+
+        private Features(List<Annotation> annotations) {
+            this.size = annotations.size();
+            if (size > INDEX_MASK + 1) {
+                throw new IllegalArgumentException("Too many annotations in one run: " + size);
+            }
+            // mz are positive, so sorting their bits sorts the values. The low mantissa bits (below 0.01 ppm) hold the
+            // index of the annotation
+            long[] keys = new long[size];
+            for (int i = 0; i < size; i++) {
+                keys[i] = (Double.doubleToLongBits(annotations.get(i).getMz()) & ~INDEX_MASK) | i;
+            }
+            Arrays.sort(keys);
+            this.mz = new double[size];
+            this.rt = new double[size];
+            for (int i = 0; i < size; i++) {
+                Annotation annotation = annotations.get((int) (keys[i] & INDEX_MASK));
+                mz[i] = annotation.getMz();
+                rt[i] = annotation.getRtMin();
+            }
+        }
+
+        /**
+         * @return RT of the only feature matching the mz and RT, NaN if there is none or the match is ambiguous
+         */
+        private double uniqueMatch(double queryMz, double queryRt, double ppmTolerance, double maxRtShift) {
+            double delta = queryMz * ppmTolerance * 1e-6;
+            int position = Arrays.binarySearch(mz, queryMz - delta);
+            if (position < 0) {
+                position = -position - 1;
+            }
+            double match = Double.NaN;
+            for (; position < size && mz[position] <= queryMz + delta; position++) {
+                if (Math.abs(rt[position] - queryRt) > maxRtShift) {
+                    continue;
+                }
+                if (!Double.isNaN(match) && match != rt[position]) {
+                    return Double.NaN; // several features. The same feature annotated with other lipids is not ambiguous
+                }
+                match = rt[position];
+            }
+            return match;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package lipid;
+
+import org.drools.ruleunits.api.DataSource;
+import org.drools.ruleunits.api.DataStore;
+import org.drools.ruleunits.api.RuleUnitData;
+
+public class AdductDetectionUnit implements RuleUnitData {
+
+    private final DataStore<AdductHypothesis> hypotheses;
+
+    public AdductDetectionUnit() {
+        this(DataSource.createStore());
+    }
+
+    public AdductDetectionUnit(DataStore<AdductHypothesis> hypotheses) {
+        this.hypotheses = hypotheses;
+    }
+
+    public DataStore<AdductHypothesis> getHypotheses() {
+        return hypotheses;
+    }
+
+}
@@ -0,0 +1,64 @@
+package lipid;
+
+import adduct.AdductCatalogue;
+import adduct.AdductTable;
+
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * Strategy to detect the adduct of a signal from the peaks grouped with it
+ */
+public interface AdductDetector {
+
+    /**
+     * @param mz             mz of the signal whose adduct is detected
+     * @param groupedSignals peaks grouped with the signal
+     * @param ionization     ionization mode of the acquisition
+     * @return the adduct of the signal, or null if no valid adduct is found
+     */
+    String detectAdduct(double mz, Set<Peak> groupedSignals, Ionization ionization);
+
+    /**
+     * Detect and set the adduct of all the annotations of a run
+     */
+    default void detectAdducts(Collection<Annotation> annotations) {
+        for (Annotation annotation : annotations) {
+            annotation.setAdduct(detectAdduct(annotation.getMz(), annotation.getGroupedSignals(), annotation.getIonization()));
+        }
+    }
+
+    /**
+     * Detector selected by name, so it can be chosen at runtime (e.g. from a command line option)
+     *
+     * @param name loop (pairwise comparison of {@link Annotation#detectAdduct}), native or rules
+     */
+    static AdductDetector byName(String name) {
+        switch (name) {
+            case "loop": return Annotation::detectAdduct;
+            case "native": return new NativeAdductDetector();
+            case "rules": return new RuleAdductDetector();
+            default: throw new IllegalArgumentException("Unknown adduct detector: " + name);
+        }
+    }
+
+    /**
+     * @return adducts of the ionization mode in the {@link AdductCatalogue#current() current catalogue}, null if the
+     * ionization is unknown
+     */
+    static AdductTable adductTable(Ionization ionization) {
+        return adductTable(AdductCatalogue.current(), ionization);
+    }
+
+    /**
+     * @return adducts of the ionization mode in the catalogue, null if the ionization is unknown
+     */
+    static AdductTable adductTable(AdductCatalogue catalogue, Ionization ionization) {
+        if (ionization == Ionization.POSITVE) {
+            return catalogue.getPositive();
+        } else if (ionization == Ionization.NEGATIVE) {
+            return catalogue.getNegative();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,93 @@
+package lipid;
+
+import adduct.PpmKernel;
+
+/**
+ * Fact of the {@link AdductDetectionUnit}: one grouped peak of a signal explained by one adduct
+ */
+public class AdductHypothesis {
+
+    private final int signal;
+    private final double peakMz;
+    private final int adductRank;
+    private final String adduct;
+    private final double monoisotopicMass;
+    private final boolean annotatedPeak;
+    private final double ppmTolerance;
+    private int partnerRank = Integer.MAX_VALUE;
+
+    /**
+     * @param signal           index of the signal (annotation) in the run
+     * @param peakMz           mz of the grouped peak
+     * @param adductRank       position of the adduct in the adducts of the ionization mode
+     * @param adduct           adduct name
+     * @param monoisotopicMass monoisotopic mass of the peak under the adduct
+     * @param annotatedPeak    whether the peak matches the mz of the signal
+     * @param ppmTolerance     tolerance to match monoisotopic masses
+     */
+    public AdductHypothesis(int signal, double peakMz, int adductRank, String adduct, double monoisotopicMass,
+                            boolean annotatedPeak, double ppmTolerance) {
+        this.signal = signal;
+        this.peakMz = peakMz;
+        this.adductRank = adductRank;
+        this.adduct = adduct;
+        this.monoisotopicMass = monoisotopicMass;
+        this.annotatedPeak = annotatedPeak;
+        this.ppmTolerance = ppmTolerance;
+    }
+
+    public int getSignal() {
+        return signal;
+    }
+
+    public double getPeakMz() {
+        return peakMz;
+    }
+
+    public int getAdductRank() {
+        return adductRank;
+    }
+
+    public String getAdduct() {
+        return adduct;
+    }
+
+    public double getMonoisotopicMass() {
+        return monoisotopicMass;
+    }
+
+    public boolean isAnnotatedPeak() {
+        return annotatedPeak;
+    }
+
+    /**
+     * @return whether another peak of the signal has the same monoisotopic mass under another adduct
+     */
+    public boolean hasPartner() {
+        return partnerRank != Integer.MAX_VALUE;
+    }
+
+    /**
+     * @return first adduct (in the adducts order) under which another peak has the same monoisotopic mass
+     */
+    public int getPartnerRank() {
+        return partnerRank;
+    }
+
+    public void addPartner(int adductRank) {
+        this.partnerRank = Math.min(this.partnerRank, adductRank);
+    }
+
+    /**
+     * @return whether the other hypothesis gives the same monoisotopic mass within the ppm tolerance
+     */
+    public boolean matchesMass(AdductHypothesis other) {
+        return PpmKernel.withinRoundedTolerance(other.monoisotopicMass, monoisotopicMass, ppmTolerance);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("AdductHypothesis(signal=%d, peak=%.4f, adduct=%s, mass=%.4f)",
+                signal, peakMz, adduct, monoisotopicMass);
+    }
+}
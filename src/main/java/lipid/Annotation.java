@@ -15,8 +15,12 @@ public class Annotation {
     private final Set<Peak> groupedSignals;
     private int score;
     private int totalScoresApplied;
+    private boolean restored;
+    private volatile EvidenceLog.Slot evidenceSlot;
     private Ionization ionization;
     private static final double PPMTOLERANCE = 10;
+    // indexed, so the detection cost does not grow with the square of the adducts and peaks of large catalogues
+    private static volatile AdductDetector adductDetector = new NativeAdductDetector();
 
     /**
      * @param lipid
@@ -49,6 +53,29 @@ public class Annotation {
 
     }
 
+    /**
+     * Annotation whose adduct has already been detected upstream (e.g. by the pipeline), so it is not detected again.
+     *
+     * @param lipid
+     * @param mz
+     * @param intensity
+     * @param retentionTime
+     * @param groupedSignals
+     * @param ionization
+     * @param adduct         detected adduct, null if none was found
+     */
+    public Annotation(Lipid lipid, double mz, double intensity, double retentionTime, Set<Peak> groupedSignals, Ionization ionization, String adduct) {
+        this.lipid = lipid;
+        this.mz = mz;
+        this.rtMin = retentionTime;
+        this.intensity = intensity;
+        this.ionization = ionization;
+        this.groupedSignals = new TreeSet<>(groupedSignals);
+        this.score = 0;
+        this.totalScoresApplied = 0;
+        this.adduct = adduct;
+    }
+
     public Lipid getLipid() {
         return lipid;
     }
@@ -73,6 +100,14 @@ public class Annotation {
         return intensity;
     }
 
+    /**
+     * Copy of this annotation at another retention time (e.g. after aligning the runs). The adduct is kept and the
+     * score starts again from 0, since the elution order may have changed.
+     */
+    public Annotation withRtMin(double retentionTime) {
+        return new Annotation(lipid, mz, intensity, retentionTime, groupedSignals, ionization, adduct);
+    }
+
     public Set<Peak> getGroupedSignals() {
         return Collections.unmodifiableSet(groupedSignals);
     }
@@ -104,6 +139,55 @@ public class Annotation {
         return (double) this.score / this.totalScoresApplied;
     }
 
+    /**
+     * @return number of scores added with {@link #addScore(int)}
+     */
+    public int getTotalScoresApplied() {
+        return totalScoresApplied;
+    }
+
+    /**
+     * Add scores computed for this annotation elsewhere, e.g. by a scoring worker process
+     *
+     * @param delta              sum of the scores added
+     * @param totalScoresApplied number of scores added
+     */
+    public void addScores(int delta, int totalScoresApplied) {
+        this.score += delta;
+        this.totalScoresApplied += totalScoresApplied;
+    }
+
+    /**
+     * Restore the score of an annotation read back from disk
+     */
+    void restoreScore(int score, int totalScoresApplied) {
+        this.score = score;
+        this.totalScoresApplied = totalScoresApplied;
+    }
+
+    /**
+     * @return true if the annotation was restored from a {@link ScoringSession} snapshot, so its pairs with the other
+     * restored annotations are already scored
+     */
+    public boolean isRestored() {
+        return restored;
+    }
+
+    void markRestored() {
+        this.restored = true;
+    }
+
+    /**
+     * @return index of the annotation in the {@link EvidenceLog} it was last logged in, null if it was never logged
+     */
+    EvidenceLog.Slot getEvidenceSlot() {
+        return evidenceSlot;
+    }
+
+    void setEvidenceSlot(EvidenceLog.Slot evidenceSlot) {
+        this.evidenceSlot = evidenceSlot;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -195,89 +279,65 @@ public class Annotation {
         this.adduct = finalAdduct; // Fallback por si no se cumple ninguna condición
     }*/
    public void detectAdductFromPeaks() {
-       String finalAdduct = null;
-
-       System.out.println("Detecting adduct... Ionization mode: " + ionization);
-
-       if (ionization == Ionization.POSITVE) {
-           for (String adduct1 : AdductList.MAPMZPOSITIVEADDUCTS.keySet()) {
-               for (String adduct2 : AdductList.MAPMZPOSITIVEADDUCTS.keySet()) {
-                   if (adduct1.equals(adduct2)) continue;
-
-                   System.out.println("Trying adduct pair: " + adduct1 + " vs " + adduct2);
-
-                   for (Peak p1 : groupedSignals) {
-                       for (Peak p2 : groupedSignals) {
-                           if (p1.equals(p2)) continue;
-
-                           System.out.println("  Comparing peaks: " + p1.getMz() + " vs " + p2.getMz());
-
-                           Double mass1 = Adduct.getMonoisotopicMassFromMZ(p1.getMz(), adduct1);
-                           Double mass2 = Adduct.getMonoisotopicMassFromMZ(p2.getMz(), adduct2);
-
-                           System.out.println("    Monoisotopic masses: " + mass1 + " vs " + mass2);
-
-                           if (mass1 != null && mass2 != null &&
-                                   Adduct.calculatePPMIncrement(mass1, mass2) <= PPMTOLERANCE) {
-
-                               System.out.println("    --> Masses match within tolerance!");
-
-                               if (Adduct.calculatePPMIncrement(p1.getMz(), this.mz) <= PPMTOLERANCE) {
-                                   System.out.println("    ==> Match with current peak mz! Assigning: " + adduct1);
-                                   this.adduct = adduct1;
-                                   return;
-                               } else if (Adduct.calculatePPMIncrement(p2.getMz(), this.mz) <= PPMTOLERANCE) {
-                                   System.out.println("    ==> Match with current peak mz! Assigning: " + adduct2);
-                                   this.adduct = adduct2;
-                                   return;
-                               }
-                           }
-                       }
-                   }
-               }
-           }
-       } else if (ionization == Ionization.NEGATIVE) {
-           for (String adduct1 : AdductList.MAPMZNEGATIVEADDUCTS.keySet()) {
-               for (String adduct2 : AdductList.MAPMZNEGATIVEADDUCTS.keySet()) {
-                   if (adduct1.equals(adduct2)) continue;
-
-                   System.out.println("Trying adduct pair: " + adduct1 + " vs " + adduct2);
+       this.adduct = adductDetector.detectAdduct(this.mz, this.groupedSignals, this.ionization);
+   }
 
-                   for (Peak p1 : groupedSignals) {
-                       for (Peak p2 : groupedSignals) {
-                           if (p1.equals(p2)) continue;
+    /**
+     * @return detector used when an annotation is created without an adduct
+     */
+    public static AdductDetector getAdductDetector() {
+        return adductDetector;
+    }
 
-                           System.out.println("  Comparing peaks: " + p1.getMz() + " vs " + p2.getMz());
+    /**
+     * Select the detector used when an annotation is created without an adduct, e.g. {@link AdductDetector#byName}
+     */
+    public static void setAdductDetector(AdductDetector adductDetector) {
+        Annotation.adductDetector = Objects.requireNonNull(adductDetector);
+    }
 
-                           Double mass1 = Adduct.getMonoisotopicMassFromMZ(p1.getMz(), adduct1);
-                           Double mass2 = Adduct.getMonoisotopicMassFromMZ(p2.getMz(), adduct2);
+    /**
+     * Detect the adduct of a signal by comparing the monoisotopic masses of every pair of grouped peaks under every
+     * pair of adducts of the ionization mode. It does not depend on the lipid, so it can run before the candidates
+     * are matched.
+     *
+     * @param mz             mz of the signal whose adduct is detected
+     * @param groupedSignals peaks grouped with the signal
+     * @param ionization     ionization mode of the acquisition
+     * @return the adduct of the grouped peak matching mz, or null if no valid adduct is found
+     */
+   public static String detectAdduct(double mz, Set<Peak> groupedSignals, Ionization ionization) {
+       AdductTable adducts = AdductDetector.adductTable(ionization);
+       if (adducts == null) {
+           return null;
+       }
 
-                           System.out.println("    Monoisotopic masses: " + mass1 + " vs " + mass2);
+       for (int a1 = 0; a1 < adducts.size(); a1++) {
+           for (int a2 = 0; a2 < adducts.size(); a2++) {
+               if (a1 == a2) continue;
+               String adduct1 = adducts.getName(a1);
+               String adduct2 = adducts.getName(a2);
 
-                           if (mass1 != null && mass2 != null &&
-                                   Adduct.calculatePPMIncrement(mass1, mass2) <= PPMTOLERANCE) {
+               for (Peak p1 : groupedSignals) {
+                   for (Peak p2 : groupedSignals) {
+                       if (p1.equals(p2)) continue;
 
-                               System.out.println("    --> Masses match within tolerance!");
+                       double mass1 = adducts.getMonoisotopicMass(a1, p1.getMz());
+                       double mass2 = adducts.getMonoisotopicMass(a2, p2.getMz());
 
-                               if (Adduct.calculatePPMIncrement(p1.getMz(), this.mz) <= PPMTOLERANCE) {
-                                   System.out.println("    ==> Match with current peak mz! Assigning: " + adduct1);
-                                   this.adduct = adduct1;
-                                   return;
-                               } else if (Adduct.calculatePPMIncrement(p2.getMz(), this.mz) <= PPMTOLERANCE) {
-                                   System.out.println("    ==> Match with current peak mz! Assigning: " + adduct2);
-                                   this.adduct = adduct2;
-                                   return;
-                               }
+                       if (Adduct.calculatePPMIncrement(mass1, mass2) <= PPMTOLERANCE) {
+                           if (Adduct.calculatePPMIncrement(p1.getMz(), mz) <= PPMTOLERANCE) {
+                               return adduct1;
+                           } else if (Adduct.calculatePPMIncrement(p2.getMz(), mz) <= PPMTOLERANCE) {
+                               return adduct2;
                            }
-
                        }
                    }
                }
            }
        }
 
-       System.out.println("⚠️ No valid adduct found.");
-       this.adduct = finalAdduct; // fallback
+       return null; // fallback
    }
 
 
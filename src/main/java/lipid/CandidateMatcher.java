@@ -0,0 +1,146 @@
+package lipid;
+
+import adduct.AdductCatalogue;
+import adduct.AdductTable;
+import adduct.PpmKernel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Lipid candidates of a feature: the lipids of the library whose monoisotopic mass matches the neutral mass of the
+ * feature under its detected adduct, or under any adduct of its ionization mode if no adduct was detected. The masses
+ * of the {@link LipidLibrary} are sorted, so every neutral mass is a binary search. The masses of the
+ * window found are compared in a {@link PpmKernel}, in ppm of the library mass. With a {@link KendrickClassFilter},
+ * the neutral masses without plausible classes skip the search and only the lipids of the plausible classes are
+ * candidates.
+ */
+public class CandidateMatcher implements Function<Feature, List<Lipid>> {
+
+    private final Lipid[] lipids;
+    private final double[] masses;
+    private final double ppmTolerance;
+    private final PpmKernel kernel;
+    private final KendrickClassFilter classFilter;
+
+    /**
+     * @param library      lipids the features are matched against. Their formulas must be valid
+     * @param ppmTolerance tolerance to match the neutral mass of a feature and the mass of a lipid
+     */
+    public CandidateMatcher(Collection<Lipid> library, double ppmTolerance) {
+        this(library, ppmTolerance, PpmKernel.get());
+    }
+
+    /**
+     * @param library      lipids the features are matched against. Their formulas must be valid
+     * @param ppmTolerance tolerance to match the neutral mass of a feature and the mass of a lipid
+     * @param kernel       ppm comparisons of the library masses
+     */
+    public CandidateMatcher(Collection<Lipid> library, double ppmTolerance, PpmKernel kernel) {
+        this(LipidLibrary.of(library), ppmTolerance, kernel);
+    }
+
+    /**
+     * @param library      mass sorted library the features are matched against
+     * @param ppmTolerance tolerance to match the neutral mass of a feature and the mass of a lipid
+     * @param kernel       ppm comparisons of the library masses
+     */
+    public CandidateMatcher(LipidLibrary library, double ppmTolerance, PpmKernel kernel) {
+        this(library, ppmTolerance, kernel, null);
+    }
+
+    /**
+     * @param library      mass sorted library the features are matched against
+     * @param ppmTolerance tolerance to match the neutral mass of a feature and the mass of a lipid
+     * @param kernel       ppm comparisons of the library masses
+     * @param classFilter  plausible classes of the neutral masses, null to consider every class
+     */
+    public CandidateMatcher(LipidLibrary library, double ppmTolerance, PpmKernel kernel, KendrickClassFilter classFilter) {
+        if (ppmTolerance <= 0) {
+            throw new IllegalArgumentException("Invalid tolerance: " + ppmTolerance + " ppm");
+        }
+        this.ppmTolerance = ppmTolerance;
+        this.kernel = kernel;
+        this.classFilter = classFilter;
+        this.lipids = library.lipids();
+        this.masses = library.masses();
+    }
+
+    @Override
+    public List<Lipid> apply(Feature feature) {
+        return apply(feature, AdductCatalogue.current());
+    }
+
+    /**
+     * @param catalogue adducts the mz of the feature is converted to neutral masses with
+     */
+    public List<Lipid> apply(Feature feature, AdductCatalogue catalogue) {
+        AdductTable adducts = AdductDetector.adductTable(catalogue, feature.getIonization());
+        if (adducts == null) {
+            return List.of();
+        }
+        List<Lipid> candidates = new ArrayList<>();
+        Set<Lipid> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        int[] matches = new int[16];
+        int detected = adducts.indexOf(feature.getAdduct());
+        if (detected >= 0) {
+            matches = addCandidates(adducts.getMonoisotopicMass(detected, feature.getMz()), candidates, seen, matches);
+        } else {
+            for (int a = 0; a < adducts.size(); a++) {
+                matches = addCandidates(adducts.getMonoisotopicMass(a, feature.getMz()), candidates, seen, matches);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * @return number of lipids in the library
+     */
+    public int size() {
+        return lipids.length;
+    }
+
+    /**
+     * @param seen    lipids already in the candidates, matched under another adduct
+     * @param matches buffer of the matched positions
+     * @return the buffer, grown if the window was larger
+     */
+    private int[] addCandidates(double mass, List<Lipid> candidates, Set<Lipid> seen, int[] matches) {
+        if (mass <= 0) {
+            return matches;
+        }
+        int classes = classFilter == null ? -1 : classFilter.classes(mass);
+        if (classes == 0) {
+            return matches;
+        }
+        // the window in ppm of the feature mass covers the tolerance in ppm of any library mass inside it
+        double delta = mass * ppmTolerance * 2e-6;
+        int from = insertionPoint(mass - delta);
+        int to = insertionPoint(mass + delta);
+        if (to - from > matches.length) {
+            matches = new int[to - from];
+        }
+        int count = kernel.withinTolerance(mass, masses, from, to, ppmTolerance, matches);
+        for (int m = 0; m < count; m++) {
+            Lipid lipid = lipids[matches[m]];
+            if (!KendrickClassFilter.contains(classes, lipid)) {
+                continue;
+            }
+            if (seen.add(lipid)) {
+                candidates.add(lipid);
+            }
+        }
+        return matches;
+    }
+
+    private int insertionPoint(double mass) {
+        int position = Arrays.binarySearch(masses, mass);
+        return position < 0 ? -position - 1 : position;
+    }
+}
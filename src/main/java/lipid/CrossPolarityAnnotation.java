@@ -0,0 +1,84 @@
+package lipid;
+
+import java.util.Objects;
+
+/**
+ * Annotation of one compound detected in the positive and the negative ionization runs of the same sample. Annotations
+ * without a counterpart in the other polarity are kept with the other side null.
+ */
+public class CrossPolarityAnnotation {
+
+    private final Annotation positive;
+    private final Annotation negative;
+    private final double neutralMass;
+
+    /**
+     * @param positive    annotation of the positive run, null if the compound was only detected in the negative run
+     * @param negative    annotation of the negative run, null if the compound was only detected in the positive run
+     * @param neutralMass monoisotopic mass of the compound, NaN if it is unknown
+     */
+    public CrossPolarityAnnotation(Annotation positive, Annotation negative, double neutralMass) {
+        if (positive == null && negative == null) {
+            throw new IllegalArgumentException("At least one annotation is needed");
+        }
+        this.positive = positive;
+        this.negative = negative;
+        this.neutralMass = neutralMass;
+    }
+
+    public Annotation getPositive() {
+        return positive;
+    }
+
+    public Annotation getNegative() {
+        return negative;
+    }
+
+    public double getNeutralMass() {
+        return neutralMass;
+    }
+
+    /**
+     * @return true if the compound was detected in both polarities
+     */
+    public boolean isMatched() {
+        return positive != null && negative != null;
+    }
+
+    /**
+     * @return lipid of the positive annotation, or of the negative one if there is no positive annotation
+     */
+    public Lipid getLipid() {
+        return positive != null ? positive.getLipid() : negative.getLipid();
+    }
+
+    /**
+     * @return mean RT of both annotations
+     */
+    public double getRtMin() {
+        if (!isMatched()) {
+            return positive != null ? positive.getRtMin() : negative.getRtMin();
+        }
+        return (positive.getRtMin() + negative.getRtMin()) / 2;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof CrossPolarityAnnotation)) return false;
+        CrossPolarityAnnotation that = (CrossPolarityAnnotation) o;
+        return Objects.equals(positive, that.positive) && Objects.equals(negative, that.negative);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(positive, negative);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CrossPolarityAnnotation(%s, mass=%.4f, RT=%.2f, positive=%s, negative=%s)",
+                getLipid().getName(), neutralMass, getRtMin(),
+                positive == null ? null : positive.getAdduct(), negative == null ? null : negative.getAdduct());
+    }
+}
@@ -0,0 +1,217 @@
+package lipid;
+
+import java.util.function.Consumer;
+
+/**
+ * Linear time alternative to the pairwise elution rules of lipids.drl, for classes with tens of thousands of
+ * annotations. The rules check one model pair by pair: within a lipid type the RT rises with the carbons and falls with
+ * the double bonds. This scorer fits that model directly, one regression of RT on carbons and double bonds per
+ * {@link LipidType}, updated as annotations arrive, and scores every annotation by its residual.
+ * <p>
+ * Each class keeps only the weighted sums of its normal equations, so adding an annotation and scoring one are O(1) and
+ * the memory does not grow with the run. The regression is robust: once a class has {@link #MIN_ANNOTATIONS}
+ * annotations, each new one is weighted with the Huber weight of its residual against the current fit, so a few
+ * misannotations do not pull the slopes. The scale of the residuals is robust too: it is estimated from the residuals
+ * clipped at the same Huber limit, so misannotations do not inflate it either. Scores are computed against the current
+ * fit, so they refine as the class grows. Not thread safe.
+ */
+public class ElutionRegressionScorer implements Consumer<Annotation> {
+
+    /**
+     * Annotations of a class needed before it is fitted and its annotations are scored
+     */
+    public static final int MIN_ANNOTATIONS = 5;
+    /**
+     * Residual, in robust standard deviations, at which the score reaches -1
+     */
+    public static final double OUTLIER_DEVIATIONS = 3;
+
+    private static final double HUBER_K = 1.345;
+    // keeps the fit defined when every annotation of a class has the same carbons or double bonds
+    private static final double RIDGE = 1e-6;
+    // RT resolution, the scale of a perfect fit
+    private static final double MIN_SCALE = 1e-3;
+    // E[min(|z|, HUBER_K)^2] for a standard normal z, so the clipped residuals estimate the variance
+    private static final double CLIPPED_VARIANCE = 0.71016;
+
+    private final ClassModel[] models = new ClassModel[LipidType.values().length];
+
+    /**
+     * Add an annotation to the regression of its lipid type. Annotations without a lipid type are ignored
+     */
+    @Override
+    public void accept(Annotation annotation) {
+        LipidType type = annotation.getLipid().getLipidType();
+        if (type == null) {
+            return;
+        }
+        if (models[type.ordinal()] == null) {
+            models[type.ordinal()] = new ClassModel();
+        }
+        models[type.ordinal()].add(annotation.getLipid().getCarbonCount(), annotation.getLipid().getDoubleBondsCount(),
+                annotation.getRtMin());
+    }
+
+    /**
+     * @return observed minus predicted RT of the annotation, in minutes, or NaN if its class is not fitted yet
+     */
+    public double residual(Annotation annotation) {
+        ClassModel model = fitted(annotation.getLipid().getLipidType());
+        if (model == null) {
+            return Double.NaN;
+        }
+        return annotation.getRtMin() - model.predict(annotation.getLipid().getCarbonCount(),
+                annotation.getLipid().getDoubleBondsCount());
+    }
+
+    /**
+     * @return 1 for an annotation on the regression of its class, decreasing linearly to -1 at
+     * {@link #OUTLIER_DEVIATIONS} robust standard deviations, the range of {@link Annotation#getNormalizedScore()}.
+     * NaN if its class is not fitted yet
+     */
+    public double score(Annotation annotation) {
+        double residual = residual(annotation);
+        if (Double.isNaN(residual)) {
+            return Double.NaN;
+        }
+        double deviations = Math.abs(residual) / fitted(annotation.getLipid().getLipidType()).scale();
+        return 1 - 2 * Math.min(1, deviations / OUTLIER_DEVIATIONS);
+    }
+
+    /**
+     * @return intercept, minutes per carbon and minutes per double bond of the class, or null if it is not fitted yet.
+     * A fit agreeing with the elution rules has a positive carbon slope and a negative double bond slope
+     */
+    public double[] getCoefficients(LipidType type) {
+        ClassModel model = fitted(type);
+        return model == null ? null : model.coefficients().clone();
+    }
+
+    /**
+     * @return robust standard deviation of the residuals of the class, in minutes, or NaN if it is not fitted yet
+     */
+    public double getScale(LipidType type) {
+        ClassModel model = fitted(type);
+        return model == null ? Double.NaN : model.scale();
+    }
+
+    /**
+     * @return number of annotations added to the class
+     */
+    public int size(LipidType type) {
+        ClassModel model = type == null ? null : models[type.ordinal()];
+        return model == null ? 0 : model.size;
+    }
+
+    private ClassModel fitted(LipidType type) {
+        ClassModel model = type == null ? null : models[type.ordinal()];
+        return model == null || model.size < MIN_ANNOTATIONS ? null : model;
+    }
+
+    /**
+     * Weighted normal equations of RT = b0 + b1 * carbons + b2 * doubleBonds for one lipid type
+     */
+    private static final class ClassModel {
+        private double sw, swc, swd, swcc, swcd, swdd, swy, swcy, swdy, swyy;
+        private int size;
+        private double[] coefficients;
+        // clipped squared residuals against the fit when each annotation was added, and their count
+        private double clippedSquares;
+        private int clipped;
+
+        private void add(int carbons, int doubleBonds, double rt) {
+            double weight = 1;
+            if (size >= MIN_ANNOTATIONS) {
+                double residual = Math.abs(rt - predict(carbons, doubleBonds));
+                double limit = HUBER_K * scale();
+                if (residual > limit) {
+                    weight = limit / residual;
+                }
+                double clippedResidual = Math.min(residual, limit);
+                clippedSquares += clippedResidual * clippedResidual;
+                clipped++;
+            }
+            sw += weight;
+            swc += weight * carbons;
+            swd += weight * doubleBonds;
+            swcc += weight * carbons * carbons;
+            swcd += weight * carbons * doubleBonds;
+            swdd += weight * doubleBonds * doubleBonds;
+            swy += weight * rt;
+            swcy += weight * carbons * rt;
+            swdy += weight * doubleBonds * rt;
+            swyy += weight * rt * rt;
+            size++;
+            coefficients = null;
+            if (size == MIN_ANNOTATIONS) {
+                // the first annotations are not scored yet, they count as residuals at the scale of their own fit
+                double scale = fitScale();
+                clippedSquares = MIN_ANNOTATIONS * CLIPPED_VARIANCE * scale * scale;
+                clipped = MIN_ANNOTATIONS;
+            }
+        }
+
+        private double predict(int carbons, int doubleBonds) {
+            double[] b = coefficients();
+            return b[0] + b[1] * carbons + b[2] * doubleBonds;
+        }
+
+        /**
+         * Huber's proposal 2: the root mean clipped squared residual, corrected to a standard deviation for normal
+         * residuals. An outlier adds at most the square of the limit, so a fraction of them barely moves the scale
+         */
+        private double scale() {
+            return Math.max(MIN_SCALE, Math.sqrt(clippedSquares / clipped / CLIPPED_VARIANCE));
+        }
+
+        /**
+         * @return standard deviation of the residuals of the weighted least squares fit, from the same sums
+         */
+        private double fitScale() {
+            double[] b = coefficients();
+            double rss = swyy - b[0] * swy - b[1] * swcy - b[2] * swdy;
+            return Math.max(MIN_SCALE, Math.sqrt(Math.max(0, rss) / Math.max(1, sw - 3)));
+        }
+
+        /**
+         * Solve the normal equations, only once after every change, by Gaussian elimination with partial pivoting
+         */
+        private double[] coefficients() {
+            if (coefficients != null) {
+                return coefficients;
+            }
+            double ridge = RIDGE * sw;
+            double[][] a = {
+                    {sw, swc, swd, swy},
+                    {swc, swcc + ridge, swcd, swcy},
+                    {swd, swcd, swdd + ridge, swdy}};
+            for (int col = 0; col < 3; col++) {
+                int pivot = col;
+                for (int row = col + 1; row < 3; row++) {
+                    if (Math.abs(a[row][col]) > Math.abs(a[pivot][col])) {
+                        pivot = row;
+                    }
+                }
+                double[] swap = a[col];
+                a[col] = a[pivot];
+                a[pivot] = swap;
+                for (int row = col + 1; row < 3; row++) {
+                    double factor = a[row][col] / a[col][col];
+                    for (int k = col; k < 4; k++) {
+                        a[row][k] -= factor * a[col][k];
+                    }
+                }
+            }
+            double[] b = new double[3];
+            for (int row = 2; row >= 0; row--) {
+                double sum = a[row][3];
+                for (int k = row + 1; k < 3; k++) {
+                    sum -= a[row][k] * b[k];
+                }
+                b[row] = sum / a[row][row];
+            }
+            coefficients = b;
+            return b;
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package lipid;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Log of the pairwise evidence behind the scores: which rule scored an annotation, against which partner and by how
+ * much. Each entry is three ints (annotation, partner, then the rule and the delta packed), appended without locks from
+ * the rule consequences of {@link LipidScoreUnit} or from native scorers, into chunks allocated on demand. Entries
+ * beyond the capacity are counted as dropped, so the memory stays bounded.
+ * <p>
+ * Annotations are referred to by the index they get when first logged in each log. {@link #snapshot()} groups the
+ * entries by annotation, so the evidence of an annotation is a {@link View} over primitive arrays. The same annotations
+ * can be logged in several logs: the annotation remembers its index in the last one, the others look it up.
+ */
+public class EvidenceLog {
+
+    public static final int CARBON_RULE = 0;
+    public static final int DOUBLE_BOND_RULE = 1;
+    public static final int LIPID_TYPE_RULE = 2;
+
+    /**
+     * Log of the units created without one, which records nothing
+     */
+    public static final EvidenceLog DISABLED = new EvidenceLog(0);
+
+    private static final VarHandle INTS = MethodHandles.arrayElementVarHandle(int[].class);
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_ENTRIES = 1 << CHUNK_BITS;
+    private static final int ENTRY_INTS = 3;
+    // the packed int of a written entry is never 0
+    private static final int WRITTEN = 1 << 31;
+    private static final int RULE_SHIFT = 24;
+    private static final int RULE_MASK = 0x7F;
+    private static final int DELTA_MASK = 0xFFFFFF;
+
+    private final long capacity;
+    private final AtomicReferenceArray<int[]> chunks;
+    private final AtomicLong reserved = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final Map<Annotation, Integer> indices = new IdentityHashMap<>();
+    private Annotation[] annotations = new Annotation[1024];
+    private int annotationCount;
+
+    /**
+     * @param capacity maximum number of entries kept
+     */
+    public EvidenceLog(long capacity) {
+        if (capacity < 0 || (capacity + CHUNK_ENTRIES - 1) >>> CHUNK_BITS > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        this.capacity = capacity;
+        this.chunks = new AtomicReferenceArray<>((int) ((capacity + CHUNK_ENTRIES - 1) >>> CHUNK_BITS));
+    }
+
+    /**
+     * Log that a rule added delta to the scores of both annotations
+     *
+     * @return false if the log is full and the entry was dropped
+     */
+    public boolean record(Annotation annotation, Annotation partner, int rule, int delta) {
+        if (capacity == 0) {
+            return false;
+        }
+        return record(indexOf(annotation), indexOf(partner), rule, delta);
+    }
+
+    /**
+     * @param annotation index of the annotation, see {@link #indexOf(Annotation)}
+     * @param partner    index of the partner
+     * @param rule       rule id, 0 to 127
+     * @param delta      score added, in 24 bits
+     * @return false if the log is full and the entry was dropped
+     */
+    public boolean record(int annotation, int partner, int rule, int delta) {
+        if (rule < 0 || rule > RULE_MASK || delta != (delta << 8) >> 8) {
+            throw new IllegalArgumentException("Invalid evidence: rule " + rule + ", delta " + delta);
+        }
+        long entry = reserved.getAndIncrement();
+        if (entry >= capacity) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        int[] chunk = chunk((int) (entry >>> CHUNK_BITS));
+        int offset = (int) (entry & (CHUNK_ENTRIES - 1)) * ENTRY_INTS;
+        chunk[offset] = annotation;
+        chunk[offset + 1] = partner;
+        // published last, so a reader seeing the packed int sees the whole entry
+        INTS.setRelease(chunk, offset + 2, WRITTEN | (rule << RULE_SHIFT) | (delta & DELTA_MASK));
+        return true;
+    }
+
+    /**
+     * @return index of the annotation in this log, given the first time it is logged
+     */
+    public int indexOf(Annotation annotation) {
+        Slot slot = annotation.getEvidenceSlot();
+        return slot != null && slot.log == this ? slot.index : register(annotation);
+    }
+
+    /**
+     * @return annotation of the index
+     */
+    public synchronized Annotation getAnnotation(int index) {
+        if (index < 0 || index >= annotationCount) {
+            throw new IndexOutOfBoundsException("No annotation " + index + " in the log");
+        }
+        return annotations[index];
+    }
+
+    /**
+     * @return number of entries kept
+     */
+    public long size() {
+        return Math.min(reserved.get(), capacity);
+    }
+
+    /**
+     * @return number of entries dropped because the log was full
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Group the entries written so far by annotation. Every entry is evidence of both its annotations
+     */
+    public Snapshot snapshot() {
+        // the annotations of an entry are registered before it is reserved, so counted after it they are all in range
+        long entries = size();
+        int annotationsLogged;
+        synchronized (this) {
+            annotationsLogged = annotationCount;
+        }
+        // copied once, so an entry completed meanwhile is not grouped without having been counted
+        int[] copied = copyEntries(entries, annotationsLogged);
+        int[] offsets = new int[annotationsLogged + 1];
+        for (int e = 0; e < copied.length; e += ENTRY_INTS) {
+            offsets[copied[e] + 1]++;
+            offsets[copied[e + 1] + 1]++;
+        }
+        for (int a = 0; a < annotationsLogged; a++) {
+            offsets[a + 1] += offsets[a];
+        }
+        int[] partners = new int[offsets[annotationsLogged]];
+        int[] packedEntries = new int[partners.length];
+        int[] next = Arrays.copyOf(offsets, annotationsLogged);
+        for (int e = 0; e < copied.length; e += ENTRY_INTS) {
+            int annotation = copied[e];
+            int partner = copied[e + 1];
+            partners[next[annotation]] = partner;
+            packedEntries[next[annotation]++] = copied[e + 2];
+            partners[next[partner]] = annotation;
+            packedEntries[next[partner]++] = copied[e + 2];
+        }
+        return new Snapshot(this, offsets, partners, packedEntries);
+    }
+
+    private synchronized int register(Annotation annotation) {
+        Integer index = indices.get(annotation);
+        if (index == null) {
+            if (annotationCount == annotations.length) {
+                annotations = Arrays.copyOf(annotations, annotationCount * 2);
+            }
+            index = annotationCount++;
+            annotations[index] = annotation;
+            indices.put(annotation, index);
+        }
+        annotation.setEvidenceSlot(new Slot(this, index));
+        return index;
+    }
+
+    /**
+     * @return index of the annotation in this log, -1 if it was never logged
+     */
+    private synchronized int lookup(Annotation annotation) {
+        Integer index = indices.get(annotation);
+        return index == null ? -1 : index;
+    }
+
+    private int[] chunk(int index) {
+        int[] chunk = chunks.get(index);
+        if (chunk == null) {
+            chunks.compareAndSet(index, null, new int[CHUNK_ENTRIES * ENTRY_INTS]);
+            chunk = chunks.get(index);
+        }
+        return chunk;
+    }
+
+    /**
+     * Copy the complete entries among the first ones, skipping the ones still being written or referring to
+     * annotations registered after the count
+     */
+    private int[] copyEntries(long entries, int annotationsLogged) {
+        int[] copied = new int[(int) Math.min(entries, CHUNK_ENTRIES) * ENTRY_INTS];
+        int length = 0;
+        for (long entry = 0; entry < entries; entry++) {
+            int[] chunk = chunks.get((int) (entry >>> CHUNK_BITS));
+            if (chunk == null) {
+                entry |= CHUNK_ENTRIES - 1;
+                continue;
+            }
+            int offset = (int) (entry & (CHUNK_ENTRIES - 1)) * ENTRY_INTS;
+            int packed = (int) INTS.getAcquire(chunk, offset + 2);
+            int annotation = chunk[offset];
+            int partner = chunk[offset + 1];
+            if (packed != 0 && annotation < annotationsLogged && partner < annotationsLogged) {
+                if (length == copied.length) {
+                    copied = Arrays.copyOf(copied, length * 2);
+                }
+                copied[length++] = annotation;
+                copied[length++] = partner;
+                copied[length++] = packed;
+            }
+        }
+        return Arrays.copyOf(copied, length);
+    }
+
+    private static int rule(int packed) {
+        return (packed >>> RULE_SHIFT) & RULE_MASK;
+    }
+
+    private static int delta(int packed) {
+        return (packed << 8) >> 8;
+    }
+
+    /**
+     * Index of an annotation in the log it was last logged in
+     */
+    static final class Slot {
+        private final EvidenceLog log;
+        private final int index;
+
+        private Slot(EvidenceLog log, int index) {
+            this.log = log;
+            this.index = index;
+        }
+    }
+
+    /**
+     * Entries of the log grouped by annotation
+     */
+    public static final class Snapshot {
+        private final EvidenceLog log;
+        private final int[] offsets;
+        private final int[] partners;
+        private final int[] packed;
+
+        private Snapshot(EvidenceLog log, int[] offsets, int[] partners, int[] packed) {
+            this.log = log;
+            this.offsets = offsets;
+            this.partners = partners;
+            this.packed = packed;
+        }
+
+        /**
+         * @return evidence of the annotation, empty if it was never logged
+         */
+        public View of(Annotation annotation) {
+            int index = log.lookup(annotation);
+            return index >= 0 && index < offsets.length - 1 ? of(index) : new View(this, 0, 0);
+        }
+
+        /**
+         * @return evidence of the annotation with the index
+         */
+        public View of(int annotation) {
+            return new View(this, offsets[annotation], offsets[annotation + 1]);
+        }
+
+        /**
+         * @return number of annotations logged
+         */
+        public int annotations() {
+            return offsets.length - 1;
+        }
+    }
+
+    /**
+     * Evidence of one annotation, one item per rule firing with a partner
+     */
+    public static final class View {
+        private final Snapshot snapshot;
+        private final int from;
+        private final int to;
+
+        private View(Snapshot snapshot, int from, int to) {
+            this.snapshot = snapshot;
+            this.from = from;
+            this.to = to;
+        }
+
+        public int size() {
+            return to - from;
+        }
+
+        /**
+         * @return index of the partner of the item
+         */
+        public int partner(int item) {
+            return snapshot.partners[position(item)];
+        }
+
+        public Annotation getPartner(int item) {
+            return snapshot.log.getAnnotation(partner(item));
+        }
+
+        public int rule(int item) {
+            return EvidenceLog.rule(snapshot.packed[position(item)]);
+        }
+
+        public int delta(int item) {
+            return EvidenceLog.delta(snapshot.packed[position(item)]);
+        }
+
+        /**
+         * @return sum of the deltas, the score the logged rules gave to the annotation
+         */
+        public int score() {
+            int score = 0;
+            for (int p = from; p < to; p++) {
+                score += EvidenceLog.delta(snapshot.packed[p]);
+            }
+            return score;
+        }
+
+        private int position(int item) {
+            if (item < 0 || item >= size()) {
+                throw new IndexOutOfBoundsException("No evidence " + item + " of " + size());
+            }
+            return from + item;
+        }
+    }
+}
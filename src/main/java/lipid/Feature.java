@@ -0,0 +1,93 @@
+package lipid;
+
+import java.util.Collections;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Class to represent an LC-MS feature (a signal and its grouped peaks) before it is annotated with any lipid
+ */
+public class Feature {
+
+    private final double mz;
+    private final double intensity;
+    private final double rtMin;
+    private final Set<Peak> groupedSignals;
+    private final Ionization ionization;
+    private String adduct; // detected from the groupedSignals, null until detection runs or if none matches
+
+    /**
+     * @param mz
+     * @param intensity
+     * @param retentionTime
+     * @param groupedSignals
+     * @param ionization
+     */
+    public Feature(double mz, double intensity, double retentionTime, Set<Peak> groupedSignals, Ionization ionization) {
+        this.mz = mz;
+        this.intensity = intensity;
+        this.rtMin = retentionTime;
+        this.groupedSignals = new TreeSet<>(groupedSignals);
+        this.ionization = ionization;
+    }
+
+    public double getMz() {
+        return mz;
+    }
+
+    public double getIntensity() {
+        return intensity;
+    }
+
+    public double getRtMin() {
+        return rtMin;
+    }
+
+    public Set<Peak> getGroupedSignals() {
+        return Collections.unmodifiableSet(groupedSignals);
+    }
+
+    public Ionization getIonization() {
+        return ionization;
+    }
+
+    public String getAdduct() {
+        return adduct;
+    }
+
+    public void setAdduct(String adduct) {
+        this.adduct = adduct;
+    }
+
+    /**
+     * Annotate this feature with a lipid candidate, reusing the adduct already detected for the feature.
+     *
+     * @param lipid candidate lipid
+     * @return the annotation of the feature as the lipid
+     */
+    public Annotation annotate(Lipid lipid) {
+        return new Annotation(lipid, mz, intensity, rtMin, groupedSignals, ionization, adduct);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Feature)) return false;
+        Feature that = (Feature) o;
+        return Double.compare(that.mz, mz) == 0 &&
+                Double.compare(that.rtMin, rtMin) == 0 &&
+                ionization == that.ionization;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(mz, rtMin, ionization);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Feature(mz=%.4f, RT=%.2f, adduct=%s, intensity=%.1f, %s)",
+                mz, rtMin, adduct, intensity, ionization);
+    }
+}
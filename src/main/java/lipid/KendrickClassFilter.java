@@ -0,0 +1,278 @@
+package lipid;
+
+import adduct.AdductCatalogue;
+import adduct.AdductTable;
+import adduct.PpmKernel;
+
+import java.lang.reflect.Constructor;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Lipid class prefilter on the Kendrick mass defect (CH2 base) of the neutral masses. Adding CH2 to a lipid keeps its
+ * Kendrick mass defect, so the lipids of a class lie on a narrow arc of defects, shifted by the heteroatoms of the head
+ * group and the double bonds. The arc and the mass range of every {@link LipidType} of the library are computed once;
+ * a neutral mass is assigned the classes whose arc and range contain it, widened by the ppm tolerance.
+ * <p>
+ * Classes are bit masks of {@link LipidType#ordinal()}, plus {@link #UNTYPED} for the lipids without a type, which
+ * get an arc of their own. The filter has no false negatives: a mass matching a lipid of the library within the
+ * tolerance (as in {@link CandidateMatcher}) is always assigned its class. Masses are assigned
+ * in batches over primitive arrays, with SIMD instructions when the {@link PpmKernel} is vectorized.
+ */
+public class KendrickClassFilter {
+
+    /**
+     * Nominal over exact mass of CH2, the Kendrick mass of a mass is the mass times this factor
+     */
+    public static final double KENDRICK_FACTOR = 14 / MolecularFormula.monoisotopicMass("CH2");
+    /**
+     * Class of the lipids without a {@link LipidType}, above the bits of the types
+     */
+    public static final int UNTYPED = 1 << 31;
+    // adding and subtracting 2^52 + 2^51 rounds to the nearest integer below 2^51, with add and sub only
+    private static final double ROUNDING = 0x1.8p52;
+    private static final double EPSILON = 1e-9;
+    private static final Batch VECTOR_BATCH = vectorBatch();
+
+    private final double[] centers;
+    private final double[] halfWidths;
+    private final double[] minMasses;
+    private final double[] maxMasses;
+    private final int[] bits;
+    private final boolean vectorized;
+
+    /**
+     * @param library      lipids the features are matched against
+     * @param ppmTolerance tolerance to match the neutral mass of a feature and the mass of a lipid
+     */
+    public KendrickClassFilter(LipidLibrary library, double ppmTolerance) {
+        this(library, ppmTolerance, PpmKernel.get());
+    }
+
+    /**
+     * @param library      lipids the features are matched against
+     * @param ppmTolerance tolerance to match the neutral mass of a feature and the mass of a lipid
+     * @param kernel       the batches are vectorized if the kernel is
+     */
+    public KendrickClassFilter(LipidLibrary library, double ppmTolerance, PpmKernel kernel) {
+        if (ppmTolerance <= 0) {
+            throw new IllegalArgumentException("Invalid tolerance: " + ppmTolerance + " ppm");
+        }
+        this.vectorized = kernel.isVectorized() && VECTOR_BATCH != null;
+        LipidType[] types = LipidType.values();
+        // the last class is the untyped one
+        int untyped = types.length;
+        double[][] defects = new double[untyped + 1][];
+        int[] counts = new int[untyped + 1];
+        double[] minMass = new double[untyped + 1];
+        double[] maxMass = new double[untyped + 1];
+        Arrays.fill(minMass, Double.MAX_VALUE);
+        Lipid[] lipids = library.lipids();
+        double[] masses = library.masses();
+        for (int l = 0; l < lipids.length; l++) {
+            LipidType type = lipids[l].getLipidType();
+            if (masses[l] <= 0) {
+                continue;
+            }
+            int t = type == null ? untyped : type.ordinal();
+            if (defects[t] == null) {
+                defects[t] = new double[16];
+            } else if (counts[t] == defects[t].length) {
+                defects[t] = Arrays.copyOf(defects[t], counts[t] * 2);
+            }
+            // on [0, 1), so sorting the defects sorts them around the circle
+            double defect = defect(masses[l]);
+            defects[t][counts[t]++] = defect < 0 ? defect + 1 : defect;
+            minMass[t] = Math.min(minMass[t], masses[l]);
+            maxMass[t] = Math.max(maxMass[t], masses[l]);
+        }
+
+        int classes = 0;
+        for (int count : counts) {
+            classes += count > 0 ? 1 : 0;
+        }
+        this.centers = new double[classes];
+        this.halfWidths = new double[classes];
+        this.minMasses = new double[classes];
+        this.maxMasses = new double[classes];
+        this.bits = new int[classes];
+        int c = 0;
+        for (int t = 0; t < counts.length; t++) {
+            if (counts[t] == 0) {
+                continue;
+            }
+            double[] sorted = Arrays.copyOf(defects[t], counts[t]);
+            Arrays.sort(sorted);
+            // the arc covering the defects is the circle without the largest gap between consecutive defects
+            int start = 0;
+            double largestGap = sorted[0] + 1 - sorted[sorted.length - 1];
+            for (int d = 1; d < sorted.length; d++) {
+                if (sorted[d] - sorted[d - 1] > largestGap) {
+                    largestGap = sorted[d] - sorted[d - 1];
+                    start = d;
+                }
+            }
+            double width = 1 - largestGap;
+            // a mass within the tolerance of a lipid mass m has a Kendrick mass within m * ppm * factor of its one
+            double tolerance = maxMass[t] * ppmTolerance * 1e-6;
+            centers[c] = sorted[start] + width / 2;
+            halfWidths[c] = width / 2 + tolerance * KENDRICK_FACTOR + EPSILON;
+            minMasses[c] = minMass[t] * (1 - ppmTolerance * 1e-6) - EPSILON;
+            maxMasses[c] = maxMass[t] * (1 + ppmTolerance * 1e-6) + EPSILON;
+            bits[c] = t == untyped ? UNTYPED : 1 << t;
+            c++;
+        }
+    }
+
+    /**
+     * @return classes plausible for the neutral mass, 0 if none
+     */
+    public int classes(double neutralMass) {
+        return classes(neutralMass, centers, halfWidths, minMasses, maxMasses, bits);
+    }
+
+    /**
+     * @param neutralMasses neutral masses of the features
+     * @param classes       receives the classes plausible for every mass of the range, at the same index
+     */
+    public void classes(double[] neutralMasses, int from, int to, int[] classes) {
+        int bound = from;
+        if (vectorized) {
+            bound = VECTOR_BATCH.classes(neutralMasses, from, to, classes, centers, halfWidths, minMasses, maxMasses, bits);
+        }
+        classes(neutralMasses, bound, to, classes, centers, halfWidths, minMasses, maxMasses, bits);
+    }
+
+    /**
+     * Classes of the features under their detected adduct, or under any adduct of their ionization mode if no adduct
+     * was detected
+     *
+     * @return classes plausible for every feature, in the same order
+     */
+    public int[] classes(List<Feature> features) {
+        AdductCatalogue catalogue = AdductCatalogue.current();
+        int entries = 0;
+        for (Feature feature : features) {
+            AdductTable adducts = AdductDetector.adductTable(catalogue, feature.getIonization());
+            entries += adducts == null ? 0 : adducts.indexOf(feature.getAdduct()) >= 0 ? 1 : adducts.size();
+        }
+        double[] masses = new double[entries];
+        int[] owners = new int[entries];
+        int entry = 0;
+        for (int f = 0; f < features.size(); f++) {
+            Feature feature = features.get(f);
+            AdductTable adducts = AdductDetector.adductTable(catalogue, feature.getIonization());
+            if (adducts == null) {
+                continue;
+            }
+            int detected = adducts.indexOf(feature.getAdduct());
+            for (int a = detected >= 0 ? detected : 0; a < (detected >= 0 ? detected + 1 : adducts.size()); a++) {
+                masses[entry] = adducts.getMonoisotopicMass(a, feature.getMz());
+                owners[entry++] = f;
+            }
+        }
+        int[] entryClasses = new int[entries];
+        classes(masses, 0, entries, entryClasses);
+        int[] classes = new int[features.size()];
+        for (int e = 0; e < entries; e++) {
+            classes[owners[e]] |= entryClasses[e];
+        }
+        return classes;
+    }
+
+    /**
+     * @return number of classes of the library, the untyped one included
+     */
+    public int size() {
+        return bits.length;
+    }
+
+    public static boolean contains(int classes, LipidType type) {
+        return (classes & 1 << type.ordinal()) != 0;
+    }
+
+    /**
+     * @return whether the classes include the one of the lipid, {@link #UNTYPED} if it has no type
+     */
+    public static boolean contains(int classes, Lipid lipid) {
+        return lipid.getLipidType() == null ? (classes & UNTYPED) != 0 : contains(classes, lipid.getLipidType());
+    }
+
+    public static Set<LipidType> types(int classes) {
+        Set<LipidType> types = EnumSet.noneOf(LipidType.class);
+        for (LipidType type : LipidType.values()) {
+            if (contains(classes, type)) {
+                types.add(type);
+            }
+        }
+        return types;
+    }
+
+    /**
+     * @return Kendrick mass defect of the mass, the Kendrick mass minus its nearest integer, in [-0.5, 0.5]
+     */
+    public static double defect(double mass) {
+        double kendrickMass = mass * KENDRICK_FACTOR;
+        return kendrickMass - rint(kendrickMass);
+    }
+
+    static double rint(double value) {
+        return value + ROUNDING - ROUNDING;
+    }
+
+    /**
+     * @return the SIMD loop, null if jdk.incubator.vector is missing or the loop was not built (vector Maven profile)
+     */
+    private static Batch vectorBatch() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return null;
+        }
+        try {
+            Constructor<?> constructor = Class.forName("lipid.VectorKendrickClasses").getDeclaredConstructor();
+            constructor.setAccessible(true);
+            return (Batch) constructor.newInstance();
+        } catch (ClassNotFoundException e) {
+            return null;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Vectorized Kendrick classes cannot be created", e);
+        }
+    }
+
+    /**
+     * Scalar loop, the same operations in the same order as the SIMD loop (VectorKendrickClasses)
+     */
+    static void classes(double[] neutralMasses, int from, int to, int[] classes, double[] centers, double[] halfWidths,
+                        double[] minMasses, double[] maxMasses, int[] bits) {
+        for (int i = from; i < to; i++) {
+            classes[i] = classes(neutralMasses[i], centers, halfWidths, minMasses, maxMasses, bits);
+        }
+    }
+
+    private static int classes(double mass, double[] centers, double[] halfWidths, double[] minMasses,
+                               double[] maxMasses, int[] bits) {
+        double kendrickMass = mass * KENDRICK_FACTOR;
+        double defect = kendrickMass - rint(kendrickMass);
+        int assigned = 0;
+        for (int c = 0; c < bits.length; c++) {
+            double distance = defect - centers[c];
+            distance = Math.abs(distance - rint(distance));
+            if (distance <= halfWidths[c] && mass >= minMasses[c] && mass <= maxMasses[c]) {
+                assigned |= bits[c];
+            }
+        }
+        return assigned;
+    }
+
+    /**
+     * Batch assignment of the classes of a range of masses, up to the last full vector
+     */
+    interface Batch {
+        /**
+         * @return index of the first mass not assigned, for the scalar loop
+         */
+        int classes(double[] neutralMasses, int from, int to, int[] classes, double[] centers, double[] halfWidths,
+                    double[] minMasses, double[] maxMasses, int[] bits);
+    }
+}
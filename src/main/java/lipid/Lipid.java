@@ -9,6 +9,8 @@ public class Lipid {
     private final LipidType lipidType; // !! OPTIONAL TODO -> TRANSFORM INTO AN ENUMERATION
     private final int carbonCount;
     private final int doubleBondsCount;
+    private final int lipidTypeRank;
+    private final long key;
 
 
     /**
@@ -26,6 +28,8 @@ public class Lipid {
         this.lipidType = lipidType;
         this.carbonCount = carbonCount;
         this.doubleBondsCount = doubleBondCount;
+        this.lipidTypeRank = rankOf(lipidType);
+        this.key = LipidKey.pack(lipidType, lipidTypeRank, carbonCount, doubleBondCount);
     }
 
     public int getCompoundId() {
@@ -52,6 +56,20 @@ public class Lipid {
         return doubleBondsCount;
     }
 
+    /**
+     * @return type rank, type, carbons and double bonds packed by {@link LipidKey}
+     */
+    public long getKey() {
+        return key;
+    }
+
+    /**
+     * @return type and double bonds of the lipid, see {@link LipidKey#series(long)}
+     */
+    public long getSeriesKey() {
+        return LipidKey.series(key);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (!(o instanceof Lipid)) return false;
@@ -77,6 +95,13 @@ public class Lipid {
     }
 
     public int getLipidTypeRank() {
+        return lipidTypeRank;
+    }
+
+    static int rankOf(LipidType lipidType) {
+        if (lipidType == null) {
+            return 0;
+        }
         switch (lipidType) {
             case PG: return 1;
             case PE: return 2;
@@ -0,0 +1,82 @@
+package lipid;
+
+import java.util.List;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * Packed primitive key of a lipid: elution rank of its type, type, carbon count and double bond count in one long, so
+ * annotations are hashed and grouped by a single long comparison instead of dereferencing the lipid of each one.
+ * <pre>
+ * bits 40-47 type rank | bits 32-39 type ordinal + 1 (0 without type) | bits 16-31 carbons | bits 0-15 double bonds
+ * </pre>
+ * The series key (type and double bonds) groups the lipids compared by the carbon count elution rule, the type and
+ * carbons key the ones compared by the double bond rule, and the carbons and double bonds key the ones compared by the
+ * lipid type rule.
+ */
+public final class LipidKey {
+
+    private static final long COUNT_MASK = 0xFFFF;
+    private static final long BYTE_MASK = 0xFF;
+    private static final long SERIES_MASK = (BYTE_MASK << 32) | COUNT_MASK;
+    private static final long TYPE_CARBONS_MASK = (BYTE_MASK << 32) | (COUNT_MASK << 16);
+    private static final long CARBONS_DOUBLE_BONDS_MASK = (COUNT_MASK << 16) | COUNT_MASK;
+
+    /**
+     * Partition keys of the elution rules. Every pair scored by a rule has the same key under exactly one of them, so
+     * scoring the partitions of each key in turn scores every pair once
+     */
+    public static final List<LongUnaryOperator> RULE_JOINS = List.of(
+            LipidKey::series, LipidKey::typeAndCarbons, LipidKey::carbonsAndDoubleBonds);
+
+    private LipidKey() {
+    }
+
+    /**
+     * @throws IllegalArgumentException if a count does not fit in 16 bits
+     */
+    public static long pack(LipidType lipidType, int rank, int carbonCount, int doubleBondCount) {
+        if (carbonCount < 0 || carbonCount > COUNT_MASK || doubleBondCount < 0 || doubleBondCount > COUNT_MASK) {
+            throw new IllegalArgumentException("Invalid counts: " + carbonCount + ":" + doubleBondCount);
+        }
+        long type = lipidType == null ? 0 : lipidType.ordinal() + 1;
+        return ((rank & BYTE_MASK) << 40) | (type << 32) | ((long) carbonCount << 16) | doubleBondCount;
+    }
+
+    public static LipidType lipidType(long key) {
+        int type = (int) ((key >>> 32) & BYTE_MASK);
+        return type == 0 ? null : LipidType.values()[type - 1];
+    }
+
+    public static int rank(long key) {
+        return (int) ((key >>> 40) & BYTE_MASK);
+    }
+
+    public static int carbonCount(long key) {
+        return (int) ((key >>> 16) & COUNT_MASK);
+    }
+
+    public static int doubleBondCount(long key) {
+        return (int) (key & COUNT_MASK);
+    }
+
+    /**
+     * @return type and double bonds of the key, equal for the lipids of the same series
+     */
+    public static long series(long key) {
+        return key & SERIES_MASK;
+    }
+
+    /**
+     * @return type and carbons of the key
+     */
+    public static long typeAndCarbons(long key) {
+        return key & TYPE_CARBONS_MASK;
+    }
+
+    /**
+     * @return carbons and double bonds of the key
+     */
+    public static long carbonsAndDoubleBonds(long key) {
+        return key & CARBONS_DOUBLE_BONDS_MASK;
+    }
+}
@@ -0,0 +1,426 @@
+package lipid;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Immutable lipid library sorted by monoisotopic mass, so the candidates of a neutral mass are a binary search.
+ * <p>
+ * {@link #load(Path, LipidRegistry)} reads CSV or TSV library exports with one lipid per line: compound id, shorthand
+ * name (e.g. TG 54:3 or PC 16:0_18:1), formula and optionally lipid type, carbons and double bonds. Blank lines, lines
+ * starting with # and a header line are skipped; the delimiter is a tab if the first line has one and a comma
+ * otherwise, and CSV fields may be double quoted. The file is split in chunks of lines parsed in parallel: names are
+ * parsed with a character scan ({@link #parseName(String)}) and checked against the formula, so a library of a million
+ * lipids loads in seconds.
+ */
+public final class LipidLibrary {
+
+    private static final int CHUNK_BYTES = 1 << 20;
+    private static final int INDEX_BITS = 24;
+    private static final long INDEX_MASK = (1L << INDEX_BITS) - 1;
+    private static final int COLUMNS = 6;
+
+    private final Lipid[] lipids;
+    private final double[] masses;
+
+    private LipidLibrary(Lipid[] lipids, double[] masses) {
+        this.lipids = lipids;
+        this.masses = masses;
+        sortByMass();
+    }
+
+    /**
+     * @param lipids lipids of the library. Their formulas must be valid
+     * @throws IllegalArgumentException if a formula is not valid
+     */
+    public static LipidLibrary of(Collection<Lipid> lipids) {
+        Lipid[] array = lipids.toArray(new Lipid[0]);
+        double[] masses = new double[array.length];
+        for (int i = 0; i < array.length; i++) {
+            masses[i] = MolecularFormula.monoisotopicMass(array[i].getFormula());
+        }
+        return new LipidLibrary(array, masses);
+    }
+
+    /**
+     * Load a library export with a registry of its own
+     */
+    public static LipidLibrary load(Path file) throws IOException {
+        return load(file, new LipidRegistry());
+    }
+
+    /**
+     * @param file     CSV or TSV library export
+     * @param registry registry the lipids are interned into
+     * @throws IllegalArgumentException with the file and line of the first invalid lipid, or if a compound id is
+     *                                  repeated
+     */
+    public static LipidLibrary load(Path file, LipidRegistry registry) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        // the first data line decides the delimiter and whether it is a header
+        int start = 0;
+        int line = 1;
+        char delimiter = ',';
+        while (start < bytes.length) {
+            int end = lineEnd(bytes, start);
+            String first = new String(bytes, start, end - start, StandardCharsets.UTF_8).strip();
+            if (!first.isEmpty() && first.charAt(0) != '#') {
+                delimiter = first.indexOf('\t') >= 0 ? '\t' : ',';
+                String[] fields = new String[COLUMNS];
+                split(first, delimiter, fields);
+                if (!isInteger(fields[0])) {
+                    start = Math.min(end + 1, bytes.length);
+                    line++;
+                }
+                break;
+            }
+            start = Math.min(end + 1, bytes.length);
+            line++;
+        }
+
+        List<int[]> chunks = new ArrayList<>(); // start, end
+        while (start < bytes.length) {
+            int end = Math.min(lineEnd(bytes, Math.min(start + CHUNK_BYTES, bytes.length - 1)) + 1, bytes.length);
+            chunks.add(new int[]{start, end});
+            start = end;
+        }
+        char separator = delimiter;
+        Chunk[] parsed = IntStream.range(0, chunks.size()).parallel()
+                .mapToObj(c -> new Chunk(bytes, chunks.get(c)[0], chunks.get(c)[1], separator, registry))
+                .toArray(Chunk[]::new);
+
+        int size = 0;
+        for (Chunk chunk : parsed) {
+            if (chunk.error != null) {
+                throw new IllegalArgumentException(file + ":" + (line + chunk.errorLine) + ": " + chunk.error.getMessage(),
+                        chunk.error);
+            }
+            line += chunk.lines;
+            size += chunk.size;
+        }
+        Lipid[] lipids = new Lipid[size];
+        double[] masses = new double[size];
+        int offset = 0;
+        for (Chunk chunk : parsed) {
+            System.arraycopy(chunk.lipids, 0, lipids, offset, chunk.size);
+            System.arraycopy(chunk.masses, 0, masses, offset, chunk.size);
+            offset += chunk.size;
+        }
+        checkUniqueIds(file, lipids);
+        return new LipidLibrary(lipids, masses);
+    }
+
+    /**
+     * Parse a shorthand lipid name: the lipid type, a space and the carbons and double bonds of the species (34:1) or
+     * of every chain (16:0_18:1 or 16:0/18:1), which are added. Ether (O-, P-) and sphingoid base (d, t) prefixes and
+     * anything after ; or ( are ignored.
+     *
+     * @return the {@link LipidKey} of the lipid
+     * @throws IllegalArgumentException if the name is not valid
+     */
+    public static long parseName(String name) {
+        int space = name.indexOf(' ');
+        LipidType type = space > 0 ? lipidType(name, space) : null;
+        if (type == null) {
+            throw new IllegalArgumentException("Invalid lipid name, unknown lipid type: " + name);
+        }
+        int carbons = 0;
+        int doubleBonds = 0;
+        int position = space + 1;
+        int end = name.length();
+        while (position < end) {
+            char c = name.charAt(position);
+            if (c == ';' || c == '(') {
+                break;
+            }
+            if (c == 'O' || c == 'P') {
+                if (position + 1 >= end || name.charAt(position + 1) != '-') {
+                    throw new IllegalArgumentException("Invalid lipid name: " + name);
+                }
+                position += 2;
+            } else if (c == 'd' || c == 't') {
+                position++;
+            }
+            int chainCarbons = 0;
+            int digits = 0;
+            for (; position < end && Character.isDigit(name.charAt(position)); position++, digits++) {
+                chainCarbons = chainCarbons * 10 + name.charAt(position) - '0';
+            }
+            if (digits == 0 || position >= end || name.charAt(position) != ':') {
+                throw new IllegalArgumentException("Invalid lipid name: " + name);
+            }
+            position++;
+            int chainDoubleBonds = 0;
+            digits = 0;
+            for (; position < end && Character.isDigit(name.charAt(position)); position++, digits++) {
+                chainDoubleBonds = chainDoubleBonds * 10 + name.charAt(position) - '0';
+            }
+            if (digits == 0 || digits > 4 || chainCarbons > 9999) {
+                throw new IllegalArgumentException("Invalid lipid name: " + name);
+            }
+            carbons += chainCarbons;
+            doubleBonds += chainDoubleBonds;
+            if (position < end && (name.charAt(position) == '_' || name.charAt(position) == '/')) {
+                position++;
+                if (position >= end || name.charAt(position) == ';' || name.charAt(position) == '(') {
+                    throw new IllegalArgumentException("Invalid lipid name, no chain after the separator: " + name);
+                }
+            } else if (position < end && name.charAt(position) != ';' && name.charAt(position) != '(') {
+                throw new IllegalArgumentException("Invalid lipid name: " + name);
+            }
+        }
+        if (position == space + 1) {
+            throw new IllegalArgumentException("Invalid lipid name: " + name);
+        }
+        return LipidKey.pack(type, Lipid.rankOf(type), carbons, doubleBonds);
+    }
+
+    public int size() {
+        return lipids.length;
+    }
+
+    /**
+     * @return lipid in mass order
+     */
+    public Lipid get(int index) {
+        return lipids[index];
+    }
+
+    /**
+     * @return monoisotopic mass of the lipid in mass order
+     */
+    public double getMass(int index) {
+        return masses[index];
+    }
+
+    /**
+     * @return position of the first lipid with a mass of at least the given one, size() if there is none
+     */
+    public int lowerBound(double mass) {
+        int low = 0;
+        int high = masses.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (masses[middle] < mass) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return unmodifiable view of the lipids in mass order
+     */
+    public List<Lipid> asList() {
+        return Collections.unmodifiableList(Arrays.asList(lipids));
+    }
+
+    double[] masses() {
+        return masses;
+    }
+
+    Lipid[] lipids() {
+        return lipids;
+    }
+
+    /**
+     * Sort both arrays by mass. Positive masses sort as their bits: dropping the low mantissa bits for the index leaves
+     * the keys almost sorted, and an insertion pass restores the exact order of the few masses closer than 1e-2 ppm.
+     */
+    private void sortByMass() {
+        if (lipids.length > INDEX_MASK + 1) {
+            throw new IllegalArgumentException("Too many lipids in one library: " + lipids.length);
+        }
+        long[] keys = new long[lipids.length];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = (Double.doubleToLongBits(masses[i]) & ~INDEX_MASK) | i;
+        }
+        Arrays.parallelSort(keys);
+        Lipid[] unsorted = lipids.clone();
+        double[] unsortedMasses = masses.clone();
+        for (int i = 0; i < keys.length; i++) {
+            int index = (int) (keys[i] & INDEX_MASK);
+            lipids[i] = unsorted[index];
+            masses[i] = unsortedMasses[index];
+        }
+        for (int i = 1; i < masses.length; i++) {
+            double mass = masses[i];
+            Lipid lipid = lipids[i];
+            int j = i - 1;
+            for (; j >= 0 && masses[j] > mass; j--) {
+                masses[j + 1] = masses[j];
+                lipids[j + 1] = lipids[j];
+            }
+            masses[j + 1] = mass;
+            lipids[j + 1] = lipid;
+        }
+    }
+
+    private static void checkUniqueIds(Path file, Lipid[] lipids) {
+        int[] ids = new int[lipids.length];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = lipids[i].getCompoundId();
+        }
+        Arrays.parallelSort(ids);
+        for (int i = 1; i < ids.length; i++) {
+            if (ids[i] == ids[i - 1]) {
+                throw new IllegalArgumentException(file + ": compound " + ids[i] + " is repeated");
+            }
+        }
+    }
+
+    private static LipidType lipidType(String name, int length) {
+        for (LipidType type : LipidType.values()) {
+            if (type.name().length() == length && name.startsWith(type.name())) {
+                return type;
+            }
+        }
+        return null;
+    }
+
+    private static int lineEnd(byte[] bytes, int from) {
+        int end = from;
+        while (end < bytes.length && bytes[end] != '\n') {
+            end++;
+        }
+        return end;
+    }
+
+    private static boolean isInteger(String field) {
+        if (field == null || field.isEmpty()) {
+            return false;
+        }
+        for (int i = field.charAt(0) == '-' ? 1 : 0; i < field.length(); i++) {
+            if (!Character.isDigit(field.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Split a line in at most fields.length trimmed fields, unquoting CSV fields
+     *
+     * @return number of fields
+     */
+    private static int split(String line, char delimiter, String[] fields) {
+        int count = 0;
+        int position = 0;
+        while (position <= line.length() && count < fields.length) {
+            if (delimiter == ',' && position < line.length() && line.charAt(position) == '"') {
+                StringBuilder field = new StringBuilder();
+                position++;
+                while (position < line.length()) {
+                    char c = line.charAt(position++);
+                    if (c != '"') {
+                        field.append(c);
+                    } else if (position < line.length() && line.charAt(position) == '"') {
+                        field.append('"');
+                        position++;
+                    } else {
+                        break;
+                    }
+                }
+                fields[count++] = field.toString().strip();
+                int next = line.indexOf(delimiter, position);
+                position = next < 0 ? line.length() + 1 : next + 1;
+            } else {
+                int next = line.indexOf(delimiter, position);
+                int end = next < 0 ? line.length() : next;
+                fields[count++] = line.substring(position, end).strip();
+                position = end + 1;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Lipids of a chunk of lines, or the first error found in them
+     */
+    private static final class Chunk {
+        private Lipid[] lipids = new Lipid[256];
+        private double[] masses = new double[256];
+        private int size;
+        private int lines;
+        private RuntimeException error;
+        private int errorLine;
+
+        private Chunk(byte[] bytes, int start, int end, char delimiter, LipidRegistry registry) {
+            String text = new String(bytes, start, end - start, StandardCharsets.UTF_8);
+            String[] fields = new String[COLUMNS];
+            int[] composition = new int[MolecularFormula.elements()];
+            int position = 0;
+            while (position < text.length()) {
+                int next = text.indexOf('\n', position);
+                int lineEnd = next < 0 ? text.length() : next;
+                String line = text.substring(position, lineEnd).strip();
+                position = lineEnd + 1;
+                if (!line.isEmpty() && line.charAt(0) != '#' && error == null) {
+                    try {
+                        add(parse(line, delimiter, fields, composition, registry));
+                    } catch (RuntimeException e) {
+                        error = e;
+                        errorLine = lines;
+                    }
+                }
+                lines++;
+            }
+        }
+
+        private Lipid parse(String line, char delimiter, String[] fields, int[] composition, LipidRegistry registry) {
+            int count = split(line, delimiter, fields);
+            if (count < 3) {
+                throw new IllegalArgumentException("Expected compound id, name and formula: " + line);
+            }
+            int compoundId = Integer.parseInt(fields[0]);
+            String name = fields[1];
+            String formula = fields[2];
+            long key = parseName(name);
+            LipidType type = LipidKey.lipidType(key);
+            int carbons = LipidKey.carbonCount(key);
+            int doubleBonds = LipidKey.doubleBondCount(key);
+            if (count >= COLUMNS && (LipidType.valueOf(fields[3]) != type || Integer.parseInt(fields[4]) != carbons
+                    || Integer.parseInt(fields[5]) != doubleBonds)) {
+                throw new IllegalArgumentException(name + " does not match " + fields[3] + " " + fields[4] + ":" + fields[5]);
+            }
+            Arrays.fill(composition, 0);
+            double mass = MolecularFormula.monoisotopicMass(formula, composition);
+            if (composition[MolecularFormula.C] < carbons) {
+                throw new IllegalArgumentException(formula + " has fewer carbons than " + name);
+            }
+            // twice the rings plus double bonds the formula can hold, with trivalent N and P
+            int monovalent = composition[MolecularFormula.H] + composition[MolecularFormula.D] + composition[MolecularFormula.F]
+                    + composition[MolecularFormula.CL] + composition[MolecularFormula.BR] + composition[MolecularFormula.I]
+                    + composition[MolecularFormula.NA] + composition[MolecularFormula.K];
+            int unsaturation = 2 * composition[MolecularFormula.C] + 2 + composition[MolecularFormula.N]
+                    + composition[MolecularFormula.P] - monovalent;
+            if (unsaturation < 2 * doubleBonds) {
+                throw new IllegalArgumentException(formula + " cannot hold the double bonds of " + name);
+            }
+            masses = grow(masses, size);
+            masses[size] = mass;
+            return registry.intern(compoundId, name, formula, type, carbons, doubleBonds);
+        }
+
+        private void add(Lipid lipid) {
+            if (size == lipids.length) {
+                lipids = Arrays.copyOf(lipids, size * 2);
+            }
+            lipids[size++] = lipid;
+        }
+
+        private static double[] grow(double[] array, int size) {
+            return size == array.length ? Arrays.copyOf(array, size * 2) : array;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package lipid;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interned lipids keyed by compound id, so every annotation of the same compound shares one {@link Lipid} instance
+ * (and libraries with millions of candidate assignments hold each lipid once). Formulas are interned as well, since
+ * isomers of different classes share them. Thread safe.
+ */
+public class LipidRegistry {
+
+    private final ConcurrentHashMap<Integer, Lipid> lipids = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, String> formulas = new ConcurrentHashMap<>();
+
+    /**
+     * @return the registered lipid with the compound id, creating it with the other fields if it is not registered
+     * @throws IllegalArgumentException if the compound id is registered with other fields
+     */
+    public Lipid intern(int compoundId, String name, String formula, LipidType lipidType, int carbonCount, int doubleBondCount) {
+        Lipid registered = lipids.get(compoundId);
+        if (registered == null) {
+            String sharedFormula = formula == null ? null : formulas.computeIfAbsent(formula, f -> f);
+            registered = lipids.computeIfAbsent(compoundId,
+                    id -> new Lipid(id, name, sharedFormula, lipidType, carbonCount, doubleBondCount));
+        }
+        return check(registered, name, formula, lipidType, carbonCount, doubleBondCount);
+    }
+
+    /**
+     * @return the registered lipid with the same compound id, registering this one if there is none
+     * @throws IllegalArgumentException if the compound id is registered with other fields
+     */
+    public Lipid intern(Lipid lipid) {
+        Lipid registered = lipids.putIfAbsent(lipid.getCompoundId(), lipid);
+        if (registered == null) {
+            return lipid;
+        }
+        return check(registered, lipid.getName(), lipid.getFormula(), lipid.getLipidType(), lipid.getCarbonCount(),
+                lipid.getDoubleBondsCount());
+    }
+
+    /**
+     * @return the registered lipid, null if the compound id is not registered
+     */
+    public Lipid get(int compoundId) {
+        return lipids.get(compoundId);
+    }
+
+    public int size() {
+        return lipids.size();
+    }
+
+    private static Lipid check(Lipid registered, String name, String formula, LipidType lipidType, int carbonCount,
+                               int doubleBondCount) {
+        if (!Objects.equals(registered.getName(), name) || !Objects.equals(registered.getFormula(), formula)
+                || registered.getKey() != LipidKey.pack(lipidType, registered.getLipidTypeRank(), carbonCount, doubleBondCount)) {
+            throw new IllegalArgumentException("Compound " + registered.getCompoundId() + " already registered as "
+                    + registered + ", not as " + name);
+        }
+        return registered;
+    }
+}
@@ -12,18 +12,34 @@ public class LipidScoreUnit implements RuleUnitData {
 
 
     private final DataStore<Annotation> annotations;
+    private final EvidenceLog evidence;
 
     public LipidScoreUnit() {
         this(DataSource.createStore());
     }
 
     public LipidScoreUnit(DataStore<Annotation> annotations) {
-        this.annotations = annotations;
+        this(annotations, EvidenceLog.DISABLED);
+    }
 
+    /**
+     * @param evidence log where the rules record every score they give
+     */
+    public LipidScoreUnit(EvidenceLog evidence) {
+        this(DataSource.createStore(), evidence);
+    }
+
+    public LipidScoreUnit(DataStore<Annotation> annotations, EvidenceLog evidence) {
+        this.annotations = annotations;
+        this.evidence = evidence;
     }
 
     public DataStore<Annotation> getAnnotations() {
         return annotations;
     }
 
+    public EvidenceLog getEvidence() {
+        return evidence;
+    }
+
 }
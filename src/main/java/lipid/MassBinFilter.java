@@ -0,0 +1,220 @@
+package lipid;
+
+import adduct.AdductCatalogue;
+import adduct.AdductTable;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Bloom filter over the mz bins where a lipid of the library can appear under an adduct of the catalogue. Bins are
+ * logarithmic and one ppm tolerance wide; every library mz sets its bin and both neighbours, so an mz within the
+ * tolerance of a library mz always passes and a query is a single bin with a few bit probes. Peaks and features that
+ * do not pass have no candidate in the library, so the adduct detection and the matching can skip them.
+ * <p>
+ * The filter has no false negatives. Its false positive rate is the configured one unless the memory budget is too
+ * small for the library, see {@link #getExpectedFalsePositiveRate()}. It is built with the adducts of one
+ * {@link AdductCatalogue} (see {@link #getCatalogue()}) and must be built again if the catalogue is replaced.
+ */
+public class MassBinFilter {
+
+    public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+    public static final long DEFAULT_MAX_BYTES = 1 << 20;
+    private static final int MAX_HASHES = 16;
+
+    private final double logBinWidth;
+    private final long[] bits;
+    private final long mask;
+    private final int hashes;
+    private final double expectedFalsePositiveRate;
+    private final AdductCatalogue catalogue;
+
+    public MassBinFilter(Collection<Lipid> library, double ppmTolerance) {
+        this(library, ppmTolerance, AdductCatalogue.current());
+    }
+
+    /**
+     * @param catalogue adducts the library masses are converted to mz with
+     */
+    public MassBinFilter(Collection<Lipid> library, double ppmTolerance, AdductCatalogue catalogue) {
+        this(library, ppmTolerance, DEFAULT_FALSE_POSITIVE_RATE, DEFAULT_MAX_BYTES, catalogue);
+    }
+
+    public MassBinFilter(Collection<Lipid> library, double ppmTolerance, double falsePositiveRate, long maxBytes) {
+        this(library, ppmTolerance, falsePositiveRate, maxBytes, AdductCatalogue.current());
+    }
+
+    /**
+     * @param library           lipids the features are matched against. Their formulas must be valid
+     * @param ppmTolerance      tolerance used to match the mz of a feature with a lipid
+     * @param falsePositiveRate target probability that an mz without candidates passes the filter
+     * @param maxBytes          memory budget of the filter
+     * @param catalogue         adducts the library masses are converted to mz with
+     */
+    public MassBinFilter(Collection<Lipid> library, double ppmTolerance, double falsePositiveRate, long maxBytes,
+                         AdductCatalogue catalogue) {
+        this(masses(library), ppmTolerance, falsePositiveRate, maxBytes, catalogue);
+    }
+
+    /**
+     * Filter of a library whose masses are already computed
+     */
+    public MassBinFilter(LipidLibrary library, double ppmTolerance) {
+        this(library, ppmTolerance, AdductCatalogue.current());
+    }
+
+    /**
+     * @param catalogue adducts the library masses are converted to mz with
+     */
+    public MassBinFilter(LipidLibrary library, double ppmTolerance, AdductCatalogue catalogue) {
+        this(library.masses(), ppmTolerance, DEFAULT_FALSE_POSITIVE_RATE, DEFAULT_MAX_BYTES, catalogue);
+    }
+
+    private MassBinFilter(double[] masses, double ppmTolerance, double falsePositiveRate, long maxBytes,
+                          AdductCatalogue catalogue) {
+        if (ppmTolerance <= 0 || falsePositiveRate <= 0 || falsePositiveRate >= 1 || maxBytes < Long.BYTES) {
+            throw new IllegalArgumentException("Invalid filter: " + ppmTolerance + " ppm, false positive rate "
+                    + falsePositiveRate + ", " + maxBytes + " bytes");
+        }
+        this.logBinWidth = Math.log1p(ppmTolerance * 1e-6);
+        this.catalogue = catalogue;
+        AdductTable[] tables = {catalogue.getPositive(), catalogue.getNegative()};
+        long entries = 3L * masses.length * (tables[0].size() + tables[1].size());
+
+        // smallest power of two reaching the rate, within the budget
+        double optimalBits = -entries * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+        long budgetBits = Math.min(maxBytes, 1L << 30) * 8;
+        long size = 64;
+        while (size < optimalBits && size * 2 <= budgetBits) {
+            size *= 2;
+        }
+        this.bits = new long[(int) (size / 64)];
+        this.mask = bits.length * 64L - 1;
+        this.hashes = (int) Math.max(1, Math.min(MAX_HASHES, Math.round((double) (mask + 1) / Math.max(1, entries) * Math.log(2))));
+
+        for (double mass : masses) {
+            for (int polarity = 0; polarity < tables.length; polarity++) {
+                AdductTable adducts = tables[polarity];
+                for (int a = 0; a < adducts.size(); a++) {
+                    double mz = adducts.getMz(a, mass);
+                    if (mz <= 0) {
+                        continue;
+                    }
+                    long bin = bin(mz);
+                    for (long neighbour = bin - 1; neighbour <= bin + 1; neighbour++) {
+                        add(key(neighbour, polarity));
+                    }
+                }
+            }
+        }
+        this.expectedFalsePositiveRate = Math.pow(1 - Math.exp(-(double) hashes * entries / (mask + 1)), hashes);
+    }
+
+    /**
+     * @return false if no lipid of the library has the mz under any adduct of the ionization mode (of both modes if the
+     * ionization is unknown). True does not guarantee a candidate
+     */
+    public boolean mightMatch(double mz, Ionization ionization) {
+        if (mz <= 0) {
+            return false;
+        }
+        if (ionization == null) {
+            return mightMatch(mz, Ionization.POSITVE) || mightMatch(mz, Ionization.NEGATIVE);
+        }
+        long hash = mix(key(bin(mz), ionization == Ionization.POSITVE ? 0 : 1));
+        long h1 = hash;
+        long h2 = (hash >>> 32) | 1;
+        for (int i = 0; i < hashes; i++) {
+            long bit = (h1 + i * h2) & mask;
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean mightMatch(Feature feature) {
+        return mightMatch(feature.getMz(), feature.getIonization());
+    }
+
+    /**
+     * @return the feature with only the grouped peaks that may match a lipid, the same feature if they all may
+     */
+    public Feature retainCandidatePeaks(Feature feature) {
+        Set<Peak> candidates = new TreeSet<>();
+        for (Peak peak : feature.getGroupedSignals()) {
+            if (mightMatch(peak.getMz(), feature.getIonization())) {
+                candidates.add(peak);
+            }
+        }
+        if (candidates.size() == feature.getGroupedSignals().size()) {
+            return feature;
+        }
+        Feature filtered = new Feature(feature.getMz(), feature.getIntensity(), feature.getRtMin(), candidates, feature.getIonization());
+        filtered.setAdduct(feature.getAdduct());
+        return filtered;
+    }
+
+    /**
+     * @return memory used by the bits of the filter
+     */
+    public long getBytes() {
+        return bits.length * (long) Long.BYTES;
+    }
+
+    /**
+     * @return catalogue the filter was built with
+     */
+    public AdductCatalogue getCatalogue() {
+        return catalogue;
+    }
+
+    public int getHashes() {
+        return hashes;
+    }
+
+    /**
+     * @return false positive rate for the size of the filter and the number of bins set
+     */
+    public double getExpectedFalsePositiveRate() {
+        return expectedFalsePositiveRate;
+    }
+
+    private static double[] masses(Collection<Lipid> library) {
+        double[] masses = new double[library.size()];
+        int l = 0;
+        for (Lipid lipid : library) {
+            masses[l++] = MolecularFormula.monoisotopicMass(lipid.getFormula());
+        }
+        return masses;
+    }
+
+    private void add(long key) {
+        long hash = mix(key);
+        long h1 = hash;
+        long h2 = (hash >>> 32) | 1;
+        for (int i = 0; i < hashes; i++) {
+            long bit = (h1 + i * h2) & mask;
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    private long bin(double mz) {
+        return (long) Math.floor(Math.log(mz) / logBinWidth);
+    }
+
+    private static long key(long bin, int polarity) {
+        return bin << 1 | polarity;
+    }
+
+    /**
+     * Finalizer of SplitMix64, so consecutive bins set unrelated bits
+     */
+    private static long mix(long key) {
+        long z = key * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
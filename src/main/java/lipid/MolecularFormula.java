@@ -0,0 +1,126 @@
+package lipid;
+
+/**
+ * Monoisotopic mass and composition of molecular formulas written as element symbols followed by their counts, e.g.
+ * C42H82NO8P.
+ */
+public final class MolecularFormula {
+
+    static final int H = 0;
+    static final int D = 1;
+    static final int C = 2;
+    static final int N = 3;
+    static final int O = 4;
+    static final int F = 5;
+    static final int NA = 6;
+    static final int P = 7;
+    static final int S = 8;
+    static final int CL = 9;
+    static final int K = 10;
+    static final int BR = 11;
+    static final int I = 12;
+
+    private static final String[] SYMBOLS = {"H", "D", "C", "N", "O", "F", "Na", "P", "S", "Cl", "K", "Br", "I"};
+    // monoisotopic mass of the most abundant isotope of each element
+    private static final double[] MASSES = {1.00782503207, 2.0141017778, 12.0, 14.0030740048, 15.99491461956,
+            18.99840322, 22.9897692809, 30.97376163, 31.97207100, 34.96885268, 38.96370668, 78.9183371, 126.904473};
+
+    private MolecularFormula() {
+    }
+
+    /**
+     * @param formula molecular formula, e.g. C42H82NO8P
+     * @return monoisotopic mass of the formula
+     * @throws IllegalArgumentException if the formula is empty, malformed or has an unknown element
+     */
+    public static double monoisotopicMass(String formula) {
+        return scan(formula, null);
+    }
+
+    /**
+     * @param formula molecular formula, e.g. C42H82NO8P
+     * @param element element symbol, e.g. C
+     * @return atoms of the element in the formula
+     * @throws IllegalArgumentException if the formula is empty, malformed or has an unknown element
+     */
+    public static int count(String formula, String element) {
+        for (int e = 0; e < SYMBOLS.length; e++) {
+            if (SYMBOLS[e].equals(element)) {
+                return composition(formula)[e];
+            }
+        }
+        throw new IllegalArgumentException("Unknown element " + element);
+    }
+
+    /**
+     * @return atoms of every element of the formula, indexed by the element constants
+     * @throws IllegalArgumentException if the formula is empty, malformed or has an unknown element
+     */
+    static int[] composition(String formula) {
+        int[] counts = new int[SYMBOLS.length];
+        scan(formula, counts);
+        return counts;
+    }
+
+    /**
+     * @param counts receives the atoms of every element of the formula, indexed by the element constants
+     * @return monoisotopic mass of the formula
+     * @throws IllegalArgumentException if the formula is empty, malformed or has an unknown element
+     */
+    static double monoisotopicMass(String formula, int[] counts) {
+        return scan(formula, counts);
+    }
+
+    static int elements() {
+        return SYMBOLS.length;
+    }
+
+    /**
+     * Parse the formula with a character scan, adding the atoms of every element to counts if it is not null
+     *
+     * @return monoisotopic mass of the formula
+     */
+    private static double scan(String formula, int[] counts) {
+        if (formula == null || formula.isEmpty()) {
+            throw new IllegalArgumentException("Empty formula");
+        }
+        double mass = 0;
+        int position = 0;
+        while (position < formula.length()) {
+            char first = formula.charAt(position);
+            if (first < 'A' || first > 'Z') {
+                throw new IllegalArgumentException("Invalid formula " + formula + " at position " + position);
+            }
+            int symbolEnd = position + 1;
+            while (symbolEnd < formula.length() && formula.charAt(symbolEnd) >= 'a' && formula.charAt(symbolEnd) <= 'z') {
+                symbolEnd++;
+            }
+            int element = element(formula, position, symbolEnd);
+            if (element < 0) {
+                throw new IllegalArgumentException("Unknown element " + formula.substring(position, symbolEnd) + " in formula " + formula);
+            }
+            int count = 0;
+            int countEnd = symbolEnd;
+            while (countEnd < formula.length() && formula.charAt(countEnd) >= '0' && formula.charAt(countEnd) <= '9') {
+                count = count * 10 + formula.charAt(countEnd) - '0';
+                countEnd++;
+            }
+            count = countEnd == symbolEnd ? 1 : count;
+            mass += MASSES[element] * count;
+            if (counts != null) {
+                counts[element] += count;
+            }
+            position = countEnd;
+        }
+        return mass;
+    }
+
+    private static int element(String formula, int start, int end) {
+        for (int e = 0; e < SYMBOLS.length; e++) {
+            if (SYMBOLS[e].length() == end - start && formula.startsWith(SYMBOLS[e], start)) {
+                return e;
+            }
+        }
+        return -1;
+    }
+}
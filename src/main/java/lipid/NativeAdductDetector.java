@@ -0,0 +1,147 @@
+package lipid;
+
+import adduct.AdductCatalogue;
+import adduct.AdductTable;
+import adduct.PpmKernel;
+
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * Indexed adduct detection. The monoisotopic mass of every peak under every adduct is computed once and sorted per
+ * adduct, so the peak supporting a hypothesis of the annotated peak is found with a binary search instead of
+ * comparing every pair of peaks and recomputing their masses for every pair of adducts.
+ * <p>
+ * As in {@link Annotation#detectAdduct}, the pairs of adducts are tried in {@link adduct.AdductCatalogue} order and the
+ * adduct detected is the one of the annotated peak (the peak matching the signal mz) in the first pair where another
+ * peak under the other adduct has the same monoisotopic mass. The ppm comparisons are batched in a {@link PpmKernel},
+ * with the rounded criterion of {@link adduct.Adduct#calculatePPMIncrement(Double, Double)}.
+ */
+public class NativeAdductDetector implements AdductDetector {
+
+    // the low bits of the sort keys hold the index of the peak
+    private static final int INDEX_BITS = 16;
+    private static final long INDEX_MASK = (1L << INDEX_BITS) - 1;
+
+    private final double ppmTolerance;
+    private final double maxPpm;
+    private final PpmKernel kernel;
+
+    public NativeAdductDetector() {
+        this(10);
+    }
+
+    /**
+     * @param ppmTolerance tolerance to match the signal mz and the monoisotopic masses of the peaks
+     */
+    public NativeAdductDetector(double ppmTolerance) {
+        this(ppmTolerance, PpmKernel.get());
+    }
+
+    /**
+     * @param ppmTolerance tolerance to match the signal mz and the monoisotopic masses of the peaks
+     * @param kernel       ppm comparisons of the peaks
+     */
+    public NativeAdductDetector(double ppmTolerance, PpmKernel kernel) {
+        this.ppmTolerance = ppmTolerance;
+        this.maxPpm = PpmKernel.roundedTolerance(ppmTolerance);
+        this.kernel = kernel;
+    }
+
+    @Override
+    public String detectAdduct(double mz, Set<Peak> groupedSignals, Ionization ionization) {
+        return detectAdduct(AdductCatalogue.current(), mz, groupedSignals, ionization);
+    }
+
+    /**
+     * @param catalogue adducts tried, so a batch is detected with one catalogue even if another one is installed
+     */
+    public String detectAdduct(AdductCatalogue catalogue, double mz, Set<Peak> groupedSignals, Ionization ionization) {
+        AdductTable adducts = AdductDetector.adductTable(catalogue, ionization);
+        if (adducts == null || groupedSignals.size() < 2) {
+            return null;
+        }
+        if (groupedSignals.size() > INDEX_MASK + 1) {
+            throw new IllegalArgumentException("Too many grouped peaks to detect the adduct: " + groupedSignals.size());
+        }
+        double[] peakMzs = new double[groupedSignals.size()];
+        int p = 0;
+        for (Peak peak : groupedSignals) {
+            peakMzs[p++] = peak.getMz();
+        }
+        int[] annotatedPeaks = new int[peakMzs.length];
+        int annotated = kernel.withinTolerance(peakMzs, 0, peakMzs.length, mz, maxPpm, annotatedPeaks);
+        if (annotated == 0) {
+            return null;
+        }
+
+        // Masses are positive, so the order of their bits is the order of the values. Dropping the 16 low mantissa
+        // bits leaves room for the peak index and changes the mass by less than 2^-36 relative, about 1.5e-5 ppm,
+        // well within the 1 ppm the search window is widened by.
+        int adductCount = adducts.size();
+        double[][] masses = new double[adductCount][peakMzs.length];
+        double[][] sortedMasses = new double[adductCount][];
+        int[][] sortedPeaks = new int[adductCount][];
+        for (int a = 0; a < adductCount; a++) {
+            long[] keys = new long[peakMzs.length];
+            int indexed = 0;
+            for (int i = 0; i < peakMzs.length; i++) {
+                masses[a][i] = adducts.getMonoisotopicMass(a, peakMzs[i]);
+                if (masses[a][i] > 0) {
+                    keys[indexed++] = (Double.doubleToLongBits(masses[a][i]) & ~INDEX_MASK) | i;
+                }
+            }
+            Arrays.sort(keys, 0, indexed);
+            sortedMasses[a] = new double[indexed];
+            sortedPeaks[a] = new int[indexed];
+            for (int k = 0; k < indexed; k++) {
+                sortedPeaks[a][k] = (int) (keys[k] & INDEX_MASK);
+                sortedMasses[a][k] = masses[a][sortedPeaks[a][k]];
+            }
+        }
+
+        int[] partners = new int[peakMzs.length];
+        for (int a1 = 0; a1 < adductCount; a1++) {
+            for (int a2 = a1 + 1; a2 < adductCount; a2++) {
+                for (int i = 0; i < annotated; i++) {
+                    int peak = annotatedPeaks[i];
+                    if (hasPartner(masses[a1][peak], peak, sortedMasses[a2], sortedPeaks[a2], partners)) {
+                        return adducts.getName(a1);
+                    }
+                }
+                for (int i = 0; i < annotated; i++) {
+                    int peak = annotatedPeaks[i];
+                    if (hasPartner(masses[a2][peak], peak, sortedMasses[a1], sortedPeaks[a1], partners)) {
+                        return adducts.getName(a2);
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return whether a peak other than the given one has the same monoisotopic mass under the adduct of the sorted
+     * masses
+     */
+    private boolean hasPartner(double mass, int peak, double[] sortedMasses, int[] sortedPeaks, int[] partners) {
+        if (mass <= 0) {
+            return false;
+        }
+        double window = (ppmTolerance + 1) * 2e-6;
+        int from = insertionPoint(sortedMasses, mass * (1 - window));
+        int to = insertionPoint(sortedMasses, mass * (1 + window));
+        int matches = kernel.withinTolerance(mass, sortedMasses, from, to, maxPpm, partners);
+        for (int m = 0; m < matches; m++) {
+            if (sortedPeaks[partners[m]] != peak) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int insertionPoint(double[] sorted, double value) {
+        int position = Arrays.binarySearch(sorted, value);
+        return position < 0 ? -position - 1 : position;
+    }
+}
@@ -0,0 +1,261 @@
+package lipid;
+
+import adduct.AdductCatalogue;
+import adduct.AdductTable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Pre-scoring stage collapsing the features of the same compound detected as different adducts ([M+H]+, [M+Na]+,
+ * [M+NH4]+...). Every feature is converted to its neutral mass under each adduct of its ionization mode, and the masses
+ * are joined through a hash table of logarithmic mass bins one ppm tolerance wide, so only the neighbouring bins are
+ * probed. Every neutral mass is a hypothesis: the co-eluting features explaining it under one adduct each. The
+ * hypotheses explaining more features (then more intensity) are kept first, and a feature belongs to one hypothesis at
+ * most, so every compound is explained by a single mass and adduct assignment. Its features are merged into the most
+ * intense one, which keeps the other features as grouped peaks (the adduct evidence) and takes its adduct in the
+ * hypothesis.
+ */
+public class NeutralMassCollapser {
+
+    private final double ppmTolerance;
+    private final double rtTolerance;
+    private final double logBinWidth;
+
+    /**
+     * @param ppmTolerance tolerance to match the neutral masses of two features
+     * @param rtTolerance  maximum RT difference, in minutes, of two features of the same compound
+     */
+    public NeutralMassCollapser(double ppmTolerance, double rtTolerance) {
+        if (ppmTolerance <= 0 || rtTolerance < 0) {
+            throw new IllegalArgumentException("Invalid tolerances: " + ppmTolerance + " ppm, " + rtTolerance + " min");
+        }
+        this.ppmTolerance = ppmTolerance;
+        this.rtTolerance = rtTolerance;
+        this.logBinWidth = Math.log1p(ppmTolerance * 1e-6);
+    }
+
+    /**
+     * @param features features of one run
+     * @return one feature per compound, in the order of the first feature of each compound. Features without siblings
+     * are returned unchanged
+     */
+    public List<Feature> collapse(List<Feature> features) {
+        AdductCatalogue catalogue = AdductCatalogue.current();
+        int size = features.size();
+        int entries = 0;
+        for (Feature feature : features) {
+            AdductTable adducts = AdductDetector.adductTable(catalogue, feature.getIonization());
+            entries += adducts == null ? 0 : adducts.size();
+        }
+        int[] entryFeature = new int[entries];
+        int[] entryAdduct = new int[entries];
+        double[] entryMass = new double[entries];
+        Map<Long, int[]> bins = new HashMap<>(); // bin -> [count, entry...]
+        int entry = 0;
+        for (int f = 0; f < size; f++) {
+            Feature feature = features.get(f);
+            AdductTable adducts = AdductDetector.adductTable(catalogue, feature.getIonization());
+            if (adducts == null) {
+                continue;
+            }
+            for (int a = 0; a < adducts.size(); a++) {
+                if (feature.getAdduct() != null && !feature.getAdduct().equals(adducts.getName(a))) {
+                    continue; // the adduct is already known, the other hypotheses are discarded
+                }
+                double mass = adducts.getMonoisotopicMass(a, feature.getMz());
+                if (mass <= 0) {
+                    continue;
+                }
+                entryFeature[entry] = f;
+                entryAdduct[entry] = a;
+                entryMass[entry] = mass;
+                bins.merge(bin(mass), new int[]{1, entry}, NeutralMassCollapser::append);
+                entry++;
+            }
+        }
+
+        // hypothesis of every entry: for every adduct, the closest co-eluting feature with the mass under it
+        int[][] hypotheses = new int[entry][];
+        for (int e = 0; e < entry; e++) {
+            hypotheses[e] = hypothesis(features, e, entryFeature, entryAdduct, entryMass, bins);
+        }
+
+        // greedy selection, the largest (then most intense) hypothesis first. A hypothesis losing features to a kept
+        // one is queued again with its remaining features
+        int[] hypothesisOf = new int[size];
+        Arrays.fill(hypothesisOf, -1);
+        int[] current = new int[entry];
+        double[] intensity = new double[entry];
+        PriorityQueue<Integer> queue = new PriorityQueue<>((e1, e2) -> current[e1] != current[e2]
+                ? Integer.compare(current[e2], current[e1])
+                : intensity[e1] != intensity[e2] ? Double.compare(intensity[e2], intensity[e1]) : Integer.compare(e1, e2));
+        for (int e = 0; e < entry; e++) {
+            if (hypotheses[e].length > 1) {
+                current[e] = hypotheses[e].length;
+                intensity[e] = intensity(features, hypotheses[e], hypothesisOf, entryFeature);
+                queue.add(e);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int e = queue.poll();
+            int available = 0;
+            for (int member : hypotheses[e]) {
+                available += hypothesisOf[entryFeature[member]] < 0 ? 1 : 0;
+            }
+            if (hypothesisOf[entryFeature[e]] >= 0 || available < 2) {
+                continue;
+            }
+            if (available < current[e]) {
+                current[e] = available;
+                intensity[e] = intensity(features, hypotheses[e], hypothesisOf, entryFeature);
+                queue.add(e);
+                continue;
+            }
+            for (int member : hypotheses[e]) {
+                if (hypothesisOf[entryFeature[member]] < 0) {
+                    hypothesisOf[entryFeature[member]] = e;
+                }
+            }
+        }
+
+        Map<Integer, List<Integer>> compounds = new LinkedHashMap<>(); // hypothesis (or -1 - feature) -> members
+        int[] adductOf = new int[size];
+        for (int f = 0; f < size; f++) {
+            int e = hypothesisOf[f];
+            if (e < 0) {
+                compounds.put(-1 - f, List.of(f));
+                continue;
+            }
+            for (int member : hypotheses[e]) {
+                if (entryFeature[member] == f) {
+                    adductOf[f] = entryAdduct[member];
+                }
+            }
+            compounds.computeIfAbsent(e, hypothesis -> new ArrayList<>()).add(f);
+        }
+        List<Feature> collapsed = new ArrayList<>(compounds.size());
+        for (List<Integer> members : compounds.values()) {
+            collapsed.add(merge(catalogue, features, members, adductOf));
+        }
+        return collapsed;
+    }
+
+    /**
+     * @return the entry followed by, for every other adduct, the entry of the closest co-eluting feature with the
+     * same neutral mass under it
+     */
+    private int[] hypothesis(List<Feature> features, int e, int[] entryFeature, int[] entryAdduct, double[] entryMass,
+                             Map<Long, int[]> bins) {
+        Feature feature = features.get(entryFeature[e]);
+        Map<Integer, Integer> byAdduct = new HashMap<>();
+        Map<Integer, Integer> byFeature = new HashMap<>();
+        long bin = bin(entryMass[e]);
+        for (long probe = bin - 1; probe <= bin + 1; probe++) {
+            int[] candidates = bins.get(probe);
+            if (candidates == null) {
+                continue;
+            }
+            for (int c = 1; c <= candidates[0]; c++) {
+                int other = candidates[c];
+                Feature sibling = features.get(entryFeature[other]);
+                if (entryFeature[other] == entryFeature[e] || entryAdduct[other] == entryAdduct[e]
+                        || sibling.getIonization() != feature.getIonization()
+                        || Math.abs(sibling.getRtMin() - feature.getRtMin()) > rtTolerance
+                        || !withinTolerance(entryMass[other], entryMass[e])) {
+                    continue;
+                }
+                // one adduct per feature and one feature per adduct, the closest masses win
+                Integer sameFeature = byFeature.get(entryFeature[other]);
+                if (sameFeature != null && !closer(entryMass, e, other, sameFeature)) {
+                    continue;
+                }
+                Integer sameAdduct = byAdduct.get(entryAdduct[other]);
+                if (sameAdduct != null && !closer(entryMass, e, other, sameAdduct)) {
+                    continue;
+                }
+                if (sameFeature != null) {
+                    byAdduct.remove(entryAdduct[sameFeature]);
+                }
+                if (sameAdduct != null) {
+                    byFeature.remove(entryFeature[sameAdduct]);
+                }
+                byAdduct.put(entryAdduct[other], other);
+                byFeature.put(entryFeature[other], other);
+            }
+        }
+        int[] members = new int[byFeature.size() + 1];
+        members[0] = e;
+        int m = 1;
+        for (int member : new TreeSet<>(byFeature.values())) {
+            members[m++] = member;
+        }
+        return members;
+    }
+
+    private static boolean closer(double[] entryMass, int e, int candidate, int current) {
+        double candidateError = Math.abs(entryMass[candidate] - entryMass[e]);
+        double currentError = Math.abs(entryMass[current] - entryMass[e]);
+        return candidateError < currentError || candidateError == currentError && candidate < current;
+    }
+
+    /**
+     * @return intensity of the features of the hypothesis not kept in another one
+     */
+    private static double intensity(List<Feature> features, int[] hypothesis, int[] hypothesisOf, int[] entryFeature) {
+        double intensity = 0;
+        for (int member : hypothesis) {
+            if (hypothesisOf[entryFeature[member]] < 0) {
+                intensity += features.get(entryFeature[member]).getIntensity();
+            }
+        }
+        return intensity;
+    }
+
+    private Feature merge(AdductCatalogue catalogue, List<Feature> features, List<Integer> members, int[] adductOf) {
+        if (members.size() == 1) {
+            return features.get(members.get(0));
+        }
+        int representative = members.get(0);
+        for (int member : members) {
+            if (features.get(member).getIntensity() > features.get(representative).getIntensity()) {
+                representative = member;
+            }
+        }
+        Set<Peak> peaks = new TreeSet<>();
+        for (int member : members) {
+            Feature feature = features.get(member);
+            peaks.add(new Peak(feature.getMz(), feature.getIntensity()));
+            peaks.addAll(feature.getGroupedSignals());
+        }
+        Feature feature = features.get(representative);
+        Feature merged = new Feature(feature.getMz(), feature.getIntensity(), feature.getRtMin(), peaks, feature.getIonization());
+        merged.setAdduct(AdductDetector.adductTable(catalogue, feature.getIonization()).getName(adductOf[representative]));
+        return merged;
+    }
+
+    private long bin(double mass) {
+        return (long) Math.floor(Math.log(mass) / logBinWidth);
+    }
+
+    private boolean withinTolerance(double experimentalMass, double theoreticalMass) {
+        return Math.abs(experimentalMass - theoreticalMass) * 1000000 / theoreticalMass <= ppmTolerance;
+    }
+
+    private static int[] append(int[] bin, int[] single) {
+        int count = bin[0] + 1;
+        if (count == bin.length) {
+            bin = Arrays.copyOf(bin, bin.length * 2);
+        }
+        bin[count] = single[1];
+        bin[0] = count;
+        return bin;
+    }
+}
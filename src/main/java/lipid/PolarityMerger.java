@@ -0,0 +1,160 @@
+package lipid;
+
+import adduct.AdductCatalogue;
+import adduct.AdductTable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Merge of the positive and negative ionization runs of the same sample. Both runs are sorted by the neutral mass of
+ * their annotations and joined with a two pointer sweep: the negative pointer only moves forward, so every annotation
+ * is only compared with the annotations of the other run inside the mass tolerance instead of with the whole run.
+ * Annotations of the same lipid are paired first, then the closest in RT.
+ * <p>
+ * The neutral mass comes from the detected adduct of each annotation, or from the most common adduct of its ionization
+ * mode (the first one of the catalogue, [M+H]+ and [M-H]− by default) if no adduct was detected.
+ */
+public class PolarityMerger {
+
+    private static final long INDEX_MASK = (1L << 24) - 1;
+
+    private final double ppmTolerance;
+    private final double rtTolerance;
+
+    /**
+     * @param ppmTolerance tolerance to match the neutral masses of both annotations
+     * @param rtTolerance  maximum RT difference, in minutes, between both runs
+     */
+    public PolarityMerger(double ppmTolerance, double rtTolerance) {
+        if (ppmTolerance <= 0 || rtTolerance < 0) {
+            throw new IllegalArgumentException("Invalid tolerances: " + ppmTolerance + " ppm, " + rtTolerance + " min");
+        }
+        this.ppmTolerance = ppmTolerance;
+        this.rtTolerance = rtTolerance;
+    }
+
+    /**
+     * @param positive annotations of the positive run
+     * @param negative annotations of the negative run
+     * @return every annotation of both runs exactly once, paired with its counterpart if it has one, in increasing
+     * neutral mass order. Annotations whose neutral mass cannot be computed are returned unpaired at the end
+     */
+    public List<CrossPolarityAnnotation> merge(List<Annotation> positive, List<Annotation> negative) {
+        AdductCatalogue catalogue = AdductCatalogue.current();
+        Run pos = new Run(positive, catalogue);
+        Run neg = new Run(negative, catalogue);
+        boolean[] paired = new boolean[neg.size];
+        List<CrossPolarityAnnotation> merged = new ArrayList<>(positive.size() + negative.size());
+        int low = 0;
+        for (int i = 0; i < pos.size; i++) {
+            double mass = pos.mass[i];
+            double delta = mass * ppmTolerance * 1e-6;
+            for (; low < neg.size && neg.mass[low] < mass - delta; low++) {
+                if (!paired[low]) {
+                    merged.add(new CrossPolarityAnnotation(null, neg.annotation(low), neg.mass[low]));
+                }
+            }
+            Annotation annotation = pos.annotation(i);
+            int best = -1;
+            for (int j = low; j < neg.size && neg.mass[j] <= mass + delta; j++) {
+                if (!paired[j] && matches(annotation, mass, neg.annotation(j), neg.mass[j])
+                        && (best < 0 || isBetter(annotation, neg.annotation(j), neg.annotation(best)))) {
+                    best = j;
+                }
+            }
+            if (best < 0) {
+                merged.add(new CrossPolarityAnnotation(annotation, null, mass));
+            } else {
+                paired[best] = true;
+                merged.add(new CrossPolarityAnnotation(annotation, neg.annotation(best), (mass + neg.mass[best]) / 2));
+            }
+        }
+        for (; low < neg.size; low++) {
+            if (!paired[low]) {
+                merged.add(new CrossPolarityAnnotation(null, neg.annotation(low), neg.mass[low]));
+            }
+        }
+        for (Annotation annotation : pos.unknownMass) {
+            merged.add(new CrossPolarityAnnotation(annotation, null, Double.NaN));
+        }
+        for (Annotation annotation : neg.unknownMass) {
+            merged.add(new CrossPolarityAnnotation(null, annotation, Double.NaN));
+        }
+        return merged;
+    }
+
+    private boolean matches(Annotation positive, double positiveMass, Annotation negative, double negativeMass) {
+        return Math.abs(positive.getRtMin() - negative.getRtMin()) <= rtTolerance
+                && Math.abs(positiveMass - negativeMass) * 1000000 / negativeMass <= ppmTolerance;
+    }
+
+    /**
+     * @return true if the candidate is a better counterpart of the annotation than the current best one
+     */
+    private static boolean isBetter(Annotation annotation, Annotation candidate, Annotation best) {
+        boolean candidateSameLipid = Objects.equals(annotation.getLipid(), candidate.getLipid());
+        boolean bestSameLipid = Objects.equals(annotation.getLipid(), best.getLipid());
+        if (candidateSameLipid != bestSameLipid) {
+            return candidateSameLipid;
+        }
+        return Math.abs(candidate.getRtMin() - annotation.getRtMin()) < Math.abs(best.getRtMin() - annotation.getRtMin());
+    }
+
+    /**
+     * @return neutral mass of the annotation, or NaN if it cannot be computed
+     */
+    static double neutralMass(Annotation annotation, AdductCatalogue catalogue) {
+        AdductTable adducts = AdductDetector.adductTable(catalogue, annotation.getIonization());
+        if (adducts == null || adducts.size() == 0) {
+            return Double.NaN;
+        }
+        int adduct = adducts.indexOf(annotation.getAdduct());
+        double mass = adducts.getMonoisotopicMass(adduct < 0 ? 0 : adduct, annotation.getMz());
+        return mass > 0 ? mass : Double.NaN;
+    }
+
+    /**
+     * Annotations of one run with their neutral masses, sorted by neutral mass
+     */
+    private static final class Run {
+        private final List<Annotation> annotations;
+        private final double[] mass;
+        private final int[] order;
+        private final int size;
+        private final List<Annotation> unknownMass = new ArrayList<>();
+
+        private Run(List<Annotation> annotations, AdductCatalogue catalogue) {
+            if (annotations.size() > INDEX_MASK + 1) {
+                throw new IllegalArgumentException("Too many annotations in one run: " + annotations.size());
+            }
+            this.annotations = annotations;
+            // masses are positive, so sorting their bits sorts the values. The low mantissa bits (below 0.01 ppm) hold
+            // the index of the annotation
+            long[] keys = new long[annotations.size()];
+            int known = 0;
+            for (int i = 0; i < annotations.size(); i++) {
+                double neutralMass = neutralMass(annotations.get(i), catalogue);
+                if (Double.isNaN(neutralMass)) {
+                    unknownMass.add(annotations.get(i));
+                } else {
+                    keys[known++] = (Double.doubleToLongBits(neutralMass) & ~INDEX_MASK) | i;
+                }
+            }
+            Arrays.sort(keys, 0, known);
+            this.size = known;
+            this.mass = new double[known];
+            this.order = new int[known];
+            for (int k = 0; k < known; k++) {
+                order[k] = (int) (keys[k] & INDEX_MASK);
+                mass[k] = neutralMass(annotations.get(order[k]), catalogue);
+            }
+        }
+
+        private Annotation annotation(int k) {
+            return annotations.get(order[k]);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package lipid;
+
+import adduct.AdductCatalogue;
+import adduct.AdductTable;
+import adduct.PpmKernel;
+import org.drools.ruleunits.api.RuleUnitInstance;
+import org.drools.ruleunits.api.RuleUnitProvider;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Adduct detection with the rules of adducts.drl ({@link AdductDetectionUnit}). The hypotheses of all the signals of
+ * a run are inserted in one rule unit and detected with a single fire, instead of one fire per annotation.
+ * It detects the same adducts as {@link NativeAdductDetector}.
+ */
+public class RuleAdductDetector implements AdductDetector {
+
+    private final double ppmTolerance;
+
+    public RuleAdductDetector() {
+        this(10);
+    }
+
+    /**
+     * @param ppmTolerance tolerance to match the signal mz and the monoisotopic masses of the peaks
+     */
+    public RuleAdductDetector(double ppmTolerance) {
+        this.ppmTolerance = ppmTolerance;
+    }
+
+    @Override
+    public String detectAdduct(double mz, Set<Peak> groupedSignals, Ionization ionization) {
+        return detect(new double[]{mz}, List.of(groupedSignals), new Ionization[]{ionization})[0];
+    }
+
+    @Override
+    public void detectAdducts(Collection<Annotation> annotations) {
+        List<Annotation> run = new ArrayList<>(annotations);
+        double[] mzs = new double[run.size()];
+        List<Set<Peak>> groupedSignals = new ArrayList<>(run.size());
+        Ionization[] ionizations = new Ionization[run.size()];
+        for (int i = 0; i < run.size(); i++) {
+            mzs[i] = run.get(i).getMz();
+            groupedSignals.add(run.get(i).getGroupedSignals());
+            ionizations[i] = run.get(i).getIonization();
+        }
+        String[] adducts = detect(mzs, groupedSignals, ionizations);
+        for (int i = 0; i < run.size(); i++) {
+            run.get(i).setAdduct(adducts[i]);
+        }
+    }
+
+    private String[] detect(double[] mzs, List<Set<Peak>> groupedSignals, Ionization[] ionizations) {
+        AdductCatalogue catalogue = AdductCatalogue.current();
+        List<AdductHypothesis> hypotheses = new ArrayList<>();
+        for (int signal = 0; signal < mzs.length; signal++) {
+            AdductTable adducts = AdductDetector.adductTable(catalogue, ionizations[signal]);
+            if (adducts == null) {
+                continue;
+            }
+            for (Peak peak : groupedSignals.get(signal)) {
+                boolean annotatedPeak = PpmKernel.withinRoundedTolerance(peak.getMz(), mzs[signal], ppmTolerance);
+                for (int a = 0; a < adducts.size(); a++) {
+                    double mass = adducts.getMonoisotopicMass(a, peak.getMz());
+                    if (mass > 0) {
+                        hypotheses.add(new AdductHypothesis(signal, peak.getMz(), a, adducts.getName(a), mass,
+                                annotatedPeak, ppmTolerance));
+                    }
+                }
+            }
+        }
+
+        AdductDetectionUnit adductDetectionUnit = new AdductDetectionUnit();
+        RuleUnitInstance<AdductDetectionUnit> instance = RuleUnitProvider.get().createRuleUnitInstance(adductDetectionUnit);
+        try {
+            for (AdductHypothesis hypothesis : hypotheses) {
+                adductDetectionUnit.getHypotheses().add(hypothesis);
+            }
+            instance.fire();
+        } finally {
+            instance.close();
+        }
+
+        // same order as the pairwise comparison: the first pair of adducts, then the annotated peak under the first one
+        String[] detected = new String[mzs.length];
+        long[] bestPair = new long[mzs.length];
+        for (AdductHypothesis hypothesis : hypotheses) {
+            if (!hypothesis.hasPartner()) {
+                continue;
+            }
+            int adduct = hypothesis.getAdductRank();
+            int partner = hypothesis.getPartnerRank();
+            long pair = ((long) Math.min(adduct, partner) << 32) | ((long) Math.max(adduct, partner) << 1) | (adduct < partner ? 0 : 1);
+            int signal = hypothesis.getSignal();
+            if (detected[signal] == null || pair < bestPair[signal]) {
+                detected[signal] = hypothesis.getAdduct();
+                bestPair[signal] = pair;
+            }
+        }
+        return detected;
+    }
+}
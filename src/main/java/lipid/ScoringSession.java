@@ -0,0 +1,244 @@
+package lipid;
+
+import org.drools.ruleunits.api.RuleUnitInstance;
+import org.drools.ruleunits.api.RuleUnitProvider;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Long lived {@link LipidScoreUnit} instance whose annotations and accumulated scores can be saved to a snapshot and
+ * restored into a new instance, e.g. to checkpoint a batch of several hours or to restart after a crash.
+ * <p>
+ * Restored annotations are marked as such, and the rules of lipids.drl never fire for a pair of restored annotations:
+ * their score is already in the snapshot. Only the pairs with the annotations added after the restore are scored.
+ * <p>
+ * Snapshot layout (big endian): magic (8 bytes), lipid table (count, then compound id, name, formula, lipid type
+ * ordinal or -1, carbons and double bonds), adduct table (count, then names), then the annotations (count, then lipid
+ * index, mz, intensity, RT, ionization ordinal or -1, adduct index or -1, score, scores applied, peak count and the mz
+ * and intensity of every peak). Not thread safe.
+ */
+public class ScoringSession implements AutoCloseable {
+
+    private static final byte[] MAGIC = "LCMSSES1".getBytes(StandardCharsets.US_ASCII);
+
+    private final LipidScoreUnit lipidScoreUnit;
+    private final RuleUnitInstance<LipidScoreUnit> instance;
+    private final List<Annotation> annotations = new ArrayList<>();
+    private boolean pending;
+    private boolean closed;
+
+    public ScoringSession() {
+        this.lipidScoreUnit = new LipidScoreUnit();
+        this.instance = RuleUnitProvider.get().createRuleUnitInstance(lipidScoreUnit);
+    }
+
+    public void add(Annotation annotation) {
+        add(List.of(annotation));
+    }
+
+    /**
+     * Insert annotations, scored on the next {@link #fire()}
+     */
+    public void add(Collection<Annotation> annotations) {
+        if (closed) {
+            throw new IllegalStateException("Session already closed");
+        }
+        for (Annotation annotation : annotations) {
+            lipidScoreUnit.getAnnotations().add(annotation);
+            this.annotations.add(annotation);
+            pending = true;
+        }
+    }
+
+    /**
+     * Score the pairs of the annotations added since the last fire
+     */
+    public void fire() {
+        if (closed) {
+            throw new IllegalStateException("Session already closed");
+        }
+        if (pending) {
+            instance.fire();
+            pending = false;
+        }
+    }
+
+    /**
+     * @return every annotation of the session, in the order they were added
+     */
+    public List<Annotation> getAnnotations() {
+        return Collections.unmodifiableList(annotations);
+    }
+
+    public int size() {
+        return annotations.size();
+    }
+
+    /**
+     * Write a snapshot of the session, firing it first so every annotation is saved with its final score. The file is
+     * replaced atomically, so a crash while writing keeps the previous snapshot.
+     */
+    public void snapshot(Path path) throws IOException {
+        Path tmp = Files.createTempFile(path.toAbsolutePath().getParent(), "session", ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                snapshot(out);
+            }
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Write a snapshot of the session, firing it first so every annotation is saved with its final score. The stream
+     * is flushed but not closed.
+     */
+    public void snapshot(OutputStream stream) throws IOException {
+        fire();
+        Map<Lipid, Integer> lipidIds = new HashMap<>();
+        List<Lipid> lipids = new ArrayList<>();
+        Map<String, Integer> adductIds = new HashMap<>();
+        List<String> adducts = new ArrayList<>();
+        for (Annotation annotation : annotations) {
+            lipidIds.computeIfAbsent(annotation.getLipid(), lipid -> {
+                lipids.add(lipid);
+                return lipids.size() - 1;
+            });
+            if (annotation.getAdduct() != null) {
+                adductIds.computeIfAbsent(annotation.getAdduct(), adduct -> {
+                    adducts.add(adduct);
+                    return adducts.size() - 1;
+                });
+            }
+        }
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+        out.write(MAGIC);
+        out.writeInt(lipids.size());
+        for (Lipid lipid : lipids) {
+            out.writeInt(lipid.getCompoundId());
+            writeString(out, lipid.getName());
+            writeString(out, lipid.getFormula());
+            out.writeByte(lipid.getLipidType() == null ? -1 : lipid.getLipidType().ordinal());
+            out.writeInt(lipid.getCarbonCount());
+            out.writeInt(lipid.getDoubleBondsCount());
+        }
+        out.writeInt(adducts.size());
+        for (String adduct : adducts) {
+            writeString(out, adduct);
+        }
+        out.writeInt(annotations.size());
+        for (Annotation annotation : annotations) {
+            out.writeInt(lipidIds.get(annotation.getLipid()));
+            out.writeDouble(annotation.getMz());
+            out.writeDouble(annotation.getIntensity());
+            out.writeDouble(annotation.getRtMin());
+            out.writeByte(annotation.getIonization() == null ? -1 : annotation.getIonization().ordinal());
+            out.writeInt(annotation.getAdduct() == null ? -1 : adductIds.get(annotation.getAdduct()));
+            out.writeInt(annotation.getScore());
+            out.writeInt(annotation.getTotalScoresApplied());
+            out.writeInt(annotation.getGroupedSignals().size());
+            for (Peak peak : annotation.getGroupedSignals()) {
+                out.writeDouble(peak.getMz());
+                out.writeDouble(peak.getIntensity());
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Restore a session saved with {@link #snapshot(Path)} into a new rule unit instance, without firing the pairs of
+     * the restored annotations again
+     */
+    public static ScoringSession restore(Path path) throws IOException {
+        try (InputStream in = Files.newInputStream(path)) {
+            return restore(in);
+        }
+    }
+
+    /**
+     * Restore a session saved with {@link #snapshot(OutputStream)}. The stream is not closed.
+     */
+    public static ScoringSession restore(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Not a session snapshot");
+        }
+        Lipid[] lipids = new Lipid[in.readInt()];
+        for (int l = 0; l < lipids.length; l++) {
+            int compoundId = in.readInt();
+            String name = readString(in);
+            String formula = readString(in);
+            byte type = in.readByte();
+            lipids[l] = new Lipid(compoundId, name, formula, type < 0 ? null : LipidType.values()[type], in.readInt(), in.readInt());
+        }
+        String[] adducts = new String[in.readInt()];
+        for (int a = 0; a < adducts.length; a++) {
+            adducts[a] = readString(in);
+        }
+        int count = in.readInt();
+        List<Annotation> annotations = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Lipid lipid = lipids[in.readInt()];
+            double mz = in.readDouble();
+            double intensity = in.readDouble();
+            double rt = in.readDouble();
+            byte ionization = in.readByte();
+            int adduct = in.readInt();
+            int score = in.readInt();
+            int totalScoresApplied = in.readInt();
+            Set<Peak> peaks = new TreeSet<>();
+            for (int p = in.readInt(); p > 0; p--) {
+                peaks.add(new Peak(in.readDouble(), in.readDouble()));
+            }
+            Annotation annotation = new Annotation(lipid, mz, intensity, rt, peaks,
+                    ionization < 0 ? null : Ionization.values()[ionization], adduct < 0 ? null : adducts[adduct]);
+            annotation.restoreScore(score, totalScoresApplied);
+            annotation.markRestored();
+            annotations.add(annotation);
+        }
+        ScoringSession session = new ScoringSession();
+        session.add(annotations);
+        return session;
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            instance.close();
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -0,0 +1,131 @@
+package lipid;
+
+import org.drools.ruleunits.api.DataHandle;
+import org.drools.ruleunits.api.RuleUnitInstance;
+import org.drools.ruleunits.api.RuleUnitProvider;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+/**
+ * Real time scoring of annotations arriving in increasing RT order during the acquisition. One {@link LipidScoreUnit}
+ * instance lives for the whole run and only holds the annotations of a RT window: each new batch is inserted and fired,
+ * so the rules only evaluate the new pairs, and the annotations left behind by the window are removed from the unit and
+ * emitted with their final score. Memory stays bounded by the window whatever the length of the run.
+ */
+public class SlidingWindowScorer implements AutoCloseable {
+
+    private final double windowMinutes;
+    private final int maxAnnotations;
+    private final Consumer<Annotation> finalized;
+    private final LipidScoreUnit lipidScoreUnit;
+    private final RuleUnitInstance<LipidScoreUnit> instance;
+    private final PriorityQueue<WindowEntry> window = new PriorityQueue<>(
+            Comparator.comparingDouble((WindowEntry entry) -> entry.annotation.getRtMin()));
+    private double latestRt = Double.NEGATIVE_INFINITY;
+    private boolean closed;
+
+    /**
+     * @param windowMinutes  annotations eluting more than this before the latest annotation are finalized
+     * @param maxAnnotations maximum number of annotations kept, the earliest ones are finalized first
+     * @param finalized      receives every annotation once its score cannot change anymore
+     */
+    public SlidingWindowScorer(double windowMinutes, int maxAnnotations, Consumer<Annotation> finalized) {
+        if (windowMinutes < 0 || maxAnnotations <= 0) {
+            throw new IllegalArgumentException("Invalid window: " + windowMinutes + " minutes, " + maxAnnotations + " annotations");
+        }
+        this.windowMinutes = windowMinutes;
+        this.maxAnnotations = maxAnnotations;
+        this.finalized = finalized;
+        this.lipidScoreUnit = new LipidScoreUnit();
+        this.instance = RuleUnitProvider.get().createRuleUnitInstance(lipidScoreUnit);
+    }
+
+    public void add(Annotation annotation) {
+        add(List.of(annotation));
+    }
+
+    /**
+     * Score a batch of new annotations against the annotations of the window. The annotations that fall out of the
+     * window are finalized before the batch is inserted, so they are never paired with annotations outside it. A batch
+     * larger than the maximum number of annotations is added in RT order, in chunks of that maximum.
+     */
+    public void add(Collection<Annotation> annotations) {
+        if (closed) {
+            throw new IllegalStateException("Scorer already closed");
+        }
+        if (annotations.isEmpty()) {
+            return;
+        }
+        if (annotations.size() > maxAnnotations) {
+            List<Annotation> sorted = new ArrayList<>(annotations);
+            sorted.sort(Comparator.comparingDouble(Annotation::getRtMin));
+            for (int from = 0; from < sorted.size(); from += maxAnnotations) {
+                add(sorted.subList(from, Math.min(from + maxAnnotations, sorted.size())));
+            }
+            return;
+        }
+        for (Annotation annotation : annotations) {
+            latestRt = Math.max(latestRt, annotation.getRtMin());
+        }
+        while (!window.isEmpty() && window.peek().annotation.getRtMin() < latestRt - windowMinutes) {
+            evict();
+        }
+        while (window.size() > maxAnnotations - annotations.size()) {
+            evict();
+        }
+        for (Annotation annotation : annotations) {
+            window.add(new WindowEntry(annotation, lipidScoreUnit.getAnnotations().add(annotation)));
+        }
+        instance.fire();
+    }
+
+    /**
+     * @return number of annotations in the window, whose score can still change
+     */
+    public int size() {
+        return window.size();
+    }
+
+    /**
+     * Finalize every annotation still in the window, e.g. at the end of the run
+     */
+    public void flush() {
+        while (!window.isEmpty()) {
+            evict();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        try {
+            flush();
+        } finally {
+            closed = true;
+            instance.close();
+        }
+    }
+
+    private void evict() {
+        WindowEntry entry = window.poll();
+        lipidScoreUnit.getAnnotations().remove(entry.handle);
+        finalized.accept(entry.annotation);
+    }
+
+    private static final class WindowEntry {
+        private final Annotation annotation;
+        private final DataHandle handle;
+
+        private WindowEntry(Annotation annotation, DataHandle handle) {
+            this.annotation = annotation;
+            this.handle = handle;
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package lipid;
+
+import org.drools.ruleunits.api.DataHandle;
+import org.drools.ruleunits.api.RuleUnitInstance;
+import org.drools.ruleunits.api.RuleUnitProvider;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * Annotation store for runs larger than the heap. Annotations are appended to a temporary file and scored partition by
+ * partition, reading the file through memory mapped segments, so the heap only holds the partitions of one round.
+ * <p>
+ * Every elution rule of lipids.drl scores pairs of annotations sharing two of type, carbons and double bonds and
+ * differing in the third one. Partitioning by type and double bonds only leaves the pairs of the carbon count rule in
+ * the same partition, by type and carbons only those of the double bond rule, and by carbons and double bonds only
+ * those of the lipid type rule. Firing all the rules over the partitions of these three keys in turn therefore scores
+ * every pair exactly once, as firing them over the whole run does. The score of every annotation is accumulated in its
+ * record of the file.
+ * <p>
+ * Partitions are hashed into as many rounds as needed to keep the annotations loaded within the memory budget. A single
+ * partition (e.g. every PC 34:x annotation) is always loaded at once. Not thread safe.
+ */
+public class SpillingAnnotationStore implements Consumer<Annotation>, AutoCloseable {
+
+    static final long DEFAULT_SEGMENT_BYTES = 1L << 30;
+    // heap used by an annotation loaded for scoring, without its grouped peaks
+    private static final long ANNOTATION_HEAP_BYTES = 256;
+
+    // record layout, little endian and 8 byte aligned. A length of 0 pads to the end of the segment
+    private static final int LENGTH = 0;
+    private static final int SCORE = 4;
+    private static final int APPLIED = 8;
+    private static final int LIPID = 12;
+    private static final int MZ = 16;
+    private static final int INTENSITY = 24;
+    private static final int RT = 32;
+    private static final int ADDUCT = 40;
+    private static final int IONIZATION = 44;
+    private static final int PEAKS = 48;
+    private static final int HEADER_BYTES = 56;
+    private static final int PEAK_BYTES = 16;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final long memoryBudget;
+    private final long segmentBytes;
+    private final ByteBuffer writeBuffer;
+    private final List<Lipid> lipids = new ArrayList<>();
+    private final Map<Lipid, Integer> lipidIds = new HashMap<>();
+    private final List<String> adducts = new ArrayList<>();
+    private final Map<String, Integer> adductIds = new HashMap<>();
+    private long position;
+    private long size;
+    private ByteBuffer[] segments;
+    private int rounds;
+
+    /**
+     * @param directory    directory of the temporary file
+     * @param memoryBudget bytes of heap for the annotations loaded at once
+     */
+    public SpillingAnnotationStore(Path directory, long memoryBudget) throws IOException {
+        this(directory, memoryBudget, DEFAULT_SEGMENT_BYTES);
+    }
+
+    SpillingAnnotationStore(Path directory, long memoryBudget, long segmentBytes) throws IOException {
+        if (memoryBudget <= 0 || segmentBytes < HEADER_BYTES || segmentBytes % 8 != 0 || segmentBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid store: " + memoryBudget + " bytes of memory, segments of " + segmentBytes);
+        }
+        this.memoryBudget = memoryBudget;
+        this.segmentBytes = segmentBytes;
+        this.writeBuffer = ByteBuffer.allocateDirect((int) Math.max(4096, Math.min(1 << 20, memoryBudget / 8)))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        this.file = Files.createTempFile(directory, "annotations", ".spill");
+        this.channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Append an annotation. Its lipid and adduct are kept in memory, once per distinct lipid and adduct
+     */
+    @Override
+    public void accept(Annotation annotation) {
+        if (segments != null) {
+            throw new IllegalStateException("Annotations cannot be added once the store is scored");
+        }
+        int peaks = annotation.getGroupedSignals().size();
+        long recordBytes = HEADER_BYTES + (long) PEAK_BYTES * peaks;
+        if (recordBytes > segmentBytes) {
+            throw new IllegalArgumentException("Annotation with too many peaks to store: " + peaks);
+        }
+        long left = segmentBytes - position % segmentBytes;
+        if (recordBytes > left) {
+            for (long padding = 0; padding < left; padding += Long.BYTES) {
+                putLong(0);
+            }
+        }
+        Integer lipid = lipidIds.computeIfAbsent(annotation.getLipid(), l -> {
+            lipids.add(l);
+            return lipids.size() - 1;
+        });
+        Integer adduct = annotation.getAdduct() == null ? Integer.valueOf(-1) : adductIds.computeIfAbsent(annotation.getAdduct(), a -> {
+            adducts.add(a);
+            return adducts.size() - 1;
+        });
+        Ionization ionization = annotation.getIonization();
+        putInt((int) recordBytes);
+        putInt(annotation.getScore());
+        putInt(annotation.getTotalScoresApplied());
+        putInt(lipid);
+        putLong(Double.doubleToRawLongBits(annotation.getMz()));
+        putLong(Double.doubleToRawLongBits(annotation.getIntensity()));
+        putLong(Double.doubleToRawLongBits(annotation.getRtMin()));
+        putInt(adduct);
+        putInt(ionization == null ? -1 : ionization.ordinal());
+        putInt(peaks);
+        putInt(0);
+        for (Peak peak : annotation.getGroupedSignals()) {
+            putLong(Double.doubleToRawLongBits(peak.getMz()));
+            putLong(Double.doubleToRawLongBits(peak.getIntensity()));
+        }
+        size++;
+    }
+
+    /**
+     * Score every annotation of the store with the rules of {@link LipidScoreUnit}. Scores are added to the scores the
+     * annotations had when they were added
+     */
+    public void score() throws IOException {
+        map();
+        rounds = (int) Math.max(1, Math.min(Integer.MAX_VALUE, Math.ceil((double) size * ANNOTATION_HEAP_BYTES / memoryBudget)));
+        LipidScoreUnit lipidScoreUnit = new LipidScoreUnit();
+        RuleUnitInstance<LipidScoreUnit> instance = RuleUnitProvider.get().createRuleUnitInstance(lipidScoreUnit);
+        try {
+            for (LongUnaryOperator partition : LipidKey.RULE_JOINS) {
+                for (int round = 0; round < rounds; round++) {
+                    score(partition, round, lipidScoreUnit, instance);
+                }
+            }
+        } finally {
+            instance.close();
+        }
+    }
+
+    /**
+     * Read back every annotation, with its grouped peaks and score, in the order they were added
+     */
+    public void forEach(Consumer<Annotation> action) throws IOException {
+        map();
+        for (ByteBuffer segment : segments) {
+            for (int offset = 0; offset < segment.limit() && segment.getInt(offset + LENGTH) != 0; offset += segment.getInt(offset + LENGTH)) {
+                Set<Peak> peaks = new TreeSet<>();
+                int peakOffset = offset + HEADER_BYTES;
+                for (int p = 0; p < segment.getInt(offset + PEAKS); p++, peakOffset += PEAK_BYTES) {
+                    peaks.add(new Peak(segment.getDouble(peakOffset), segment.getDouble(peakOffset + Double.BYTES)));
+                }
+                Annotation annotation = read(segment, offset, peaks);
+                annotation.restoreScore(segment.getInt(offset + SCORE), segment.getInt(offset + APPLIED));
+                action.accept(annotation);
+            }
+        }
+    }
+
+    /**
+     * @return number of annotations stored
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return bytes of the temporary file
+     */
+    public long getBytes() {
+        return position;
+    }
+
+    /**
+     * @return rounds of every partitioning in the last scoring, 0 if the store was not scored
+     */
+    public int getRounds() {
+        return rounds;
+    }
+
+    /**
+     * Delete the temporary file
+     */
+    @Override
+    public void close() throws IOException {
+        segments = null;
+        channel.close();
+        Files.deleteIfExists(file);
+    }
+
+    private void score(LongUnaryOperator partition, int round, LipidScoreUnit lipidScoreUnit,
+                       RuleUnitInstance<LipidScoreUnit> instance) {
+        Map<Long, List<Loaded>> partitions = new HashMap<>();
+        for (ByteBuffer segment : segments) {
+            for (int offset = 0; offset < segment.limit() && segment.getInt(offset + LENGTH) != 0; offset += segment.getInt(offset + LENGTH)) {
+                long key = partition.applyAsLong(lipids.get(segment.getInt(offset + LIPID)).getKey());
+                if (Math.floorMod(Long.hashCode(key * 0x9E3779B97F4A7C15L), rounds) == round) {
+                    partitions.computeIfAbsent(key, k -> new ArrayList<>())
+                            .add(new Loaded(read(segment, offset, Collections.emptySet()), segment, offset));
+                }
+            }
+        }
+        for (List<Loaded> loaded : partitions.values()) {
+            if (loaded.size() < 2) {
+                continue;
+            }
+            List<DataHandle> handles = new ArrayList<>(loaded.size());
+            try {
+                for (Loaded record : loaded) {
+                    handles.add(lipidScoreUnit.getAnnotations().add(record.annotation()));
+                }
+                instance.fire();
+            } finally {
+                for (DataHandle handle : handles) {
+                    lipidScoreUnit.getAnnotations().remove(handle);
+                }
+            }
+            for (Loaded record : loaded) {
+                Annotation annotation = record.annotation();
+                if (annotation.getTotalScoresApplied() != 0) {
+                    ByteBuffer segment = record.segment();
+                    segment.putInt(record.offset() + SCORE, segment.getInt(record.offset() + SCORE) + annotation.getScore());
+                    segment.putInt(record.offset() + APPLIED, segment.getInt(record.offset() + APPLIED) + annotation.getTotalScoresApplied());
+                }
+            }
+        }
+    }
+
+    private Annotation read(ByteBuffer segment, int offset, Set<Peak> peaks) {
+        int adduct = segment.getInt(offset + ADDUCT);
+        int ionization = segment.getInt(offset + IONIZATION);
+        return new Annotation(lipids.get(segment.getInt(offset + LIPID)), segment.getDouble(offset + MZ),
+                segment.getDouble(offset + INTENSITY), segment.getDouble(offset + RT), peaks,
+                ionization < 0 ? null : Ionization.values()[ionization], adduct < 0 ? null : adducts.get(adduct));
+    }
+
+    /**
+     * Flush the pending records and map the file, once
+     */
+    private void map() throws IOException {
+        if (segments != null) {
+            return;
+        }
+        flush();
+        int count = (int) ((position + segmentBytes - 1) / segmentBytes);
+        segments = new ByteBuffer[count];
+        for (int s = 0; s < count; s++) {
+            long start = s * segmentBytes;
+            segments[s] = channel.map(FileChannel.MapMode.READ_WRITE, start, Math.min(segmentBytes, position - start))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    private void putInt(int value) {
+        if (writeBuffer.remaining() < Integer.BYTES) {
+            flush();
+        }
+        writeBuffer.putInt(value);
+        position += Integer.BYTES;
+    }
+
+    private void putLong(long value) {
+        if (writeBuffer.remaining() < Long.BYTES) {
+            flush();
+        }
+        writeBuffer.putLong(value);
+        position += Long.BYTES;
+    }
+
+    private void flush() {
+        writeBuffer.flip();
+        try {
+            while (writeBuffer.hasRemaining()) {
+                channel.write(writeBuffer);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Annotations cannot be spilled to " + file, e);
+        } finally {
+            writeBuffer.clear();
+        }
+    }
+
+    /**
+     * Annotation loaded for scoring and the position of its record
+     */
+    private record Loaded(Annotation annotation, ByteBuffer segment, int offset) {
+    }
+}
@@ -0,0 +1,46 @@
+package lipid;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD loop of {@link KendrickClassFilter} over the preferred vector species of the CPU. Only built with the vector
+ * Maven profile and only loaded when jdk.incubator.vector is in the boot layer.
+ */
+final class VectorKendrickClasses implements KendrickClassFilter.Batch {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> INT_SPECIES =
+            VectorSpecies.of(int.class, VectorShape.forBitSize(SPECIES.length() * Integer.SIZE));
+    private static final double ROUNDING = 0x1.8p52;
+
+    VectorKendrickClasses() {
+    }
+
+    @Override
+    public int classes(double[] neutralMasses, int from, int to, int[] classes, double[] centers, double[] halfWidths,
+                       double[] minMasses, double[] maxMasses, int[] bits) {
+        int bound = from + SPECIES.loopBound(to - from);
+        for (int i = from; i < bound; i += SPECIES.length()) {
+            DoubleVector mass = DoubleVector.fromArray(SPECIES, neutralMasses, i);
+            DoubleVector kendrickMass = mass.mul(KendrickClassFilter.KENDRICK_FACTOR);
+            DoubleVector defect = kendrickMass.sub(kendrickMass.add(ROUNDING).sub(ROUNDING));
+            // the bits are distinct powers of two (UNTYPED is -2^31), so their sum is exact and within the int range
+            DoubleVector assigned = DoubleVector.zero(SPECIES);
+            for (int c = 0; c < bits.length; c++) {
+                DoubleVector distance = defect.sub(centers[c]);
+                distance = distance.sub(distance.add(ROUNDING).sub(ROUNDING)).abs();
+                VectorMask<Double> inClass = distance.compare(VectorOperators.LE, halfWidths[c])
+                        .and(mass.compare(VectorOperators.GE, minMasses[c]))
+                        .and(mass.compare(VectorOperators.LE, maxMasses[c]));
+                assigned = assigned.add(bits[c], inClass);
+            }
+            ((IntVector) assigned.convertShape(VectorOperators.D2I, INT_SPECIES, 0)).intoArray(classes, i);
+        }
+        return bound;
+    }
+}
@@ -0,0 +1,76 @@
+package main;
+
+import adduct.AdductCatalogue;
+import adduct.AdductTable;
+import lipid.AdductDetector;
+import lipid.Annotation;
+import lipid.Ionization;
+import lipid.Lipid;
+import lipid.LipidType;
+import lipid.Peak;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Runs the adduct detectors over the same synthetic run and prints their time and how many adducts they agree on.
+ * Usage: AdductDetectorBenchmark [annotations] [detector...], e.g. 10000 native rules
+ */
+public class AdductDetectorBenchmark {
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        List<String> detectors = args.length > 1 ? List.of(args).subList(1, args.length) : List.of("native", "rules");
+
+        List<Annotation> run = syntheticRun(size, new Random(42));
+        String[] reference = null;
+        for (String name : detectors) {
+            AdductDetector detector = AdductDetector.byName(name);
+            detector.detectAdducts(run); // warm up
+            long start = System.nanoTime();
+            detector.detectAdducts(run);
+            long elapsed = System.nanoTime() - start;
+
+            String[] detected = new String[run.size()];
+            for (int i = 0; i < run.size(); i++) {
+                detected[i] = run.get(i).getAdduct();
+            }
+            int agreement = 0;
+            for (int i = 0; i < detected.length; i++) {
+                if (reference == null || Objects.equals(reference[i], detected[i])) {
+                    agreement++;
+                }
+            }
+            if (reference == null) {
+                reference = detected;
+            }
+            System.out.printf("%-8s %8d annotations %10.1f ms %10.2f us/annotation, %d equal to %s%n", name, size,
+                    elapsed / 1e6, elapsed / 1e3 / size, agreement, detectors.get(0));
+        }
+    }
+
+    /**
+     * Annotations of random neutral masses, each grouped with its peaks under three random positive adducts of the
+     * current catalogue
+     */
+    private static List<Annotation> syntheticRun(int size, Random random) {
+        AdductTable adducts = AdductCatalogue.current().getPositive();
+        Lipid lipid = new Lipid(1, "PC 34:1", "C42H82NO8P", LipidType.PC, 34, 1);
+        List<Annotation> run = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            double neutralMass = 400 + random.nextDouble() * 600;
+            Set<Peak> peaks = new TreeSet<>();
+            double mz = 0;
+            for (int p = 0; p < 3; p++) {
+                mz = adducts.getMz(random.nextInt(adducts.size()), neutralMass);
+                peaks.add(new Peak(mz, 1000 + random.nextInt(100000)));
+            }
+            run.add(new Annotation(lipid, mz, 1000, random.nextDouble() * 20, peaks, Ionization.POSITVE, null));
+        }
+        return run;
+    }
+}
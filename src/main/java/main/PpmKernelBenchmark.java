@@ -0,0 +1,73 @@
+package main;
+
+import adduct.Adduct;
+import adduct.PpmKernel;
+
+import java.util.Random;
+
+/**
+ * Times the ppm comparison of one mass against an array of masses with the boxed
+ * {@link Adduct#calculatePPMIncrement(Double, Double)} and with every available {@link PpmKernel}, and prints how many
+ * matches they agree on. Run with --add-modules jdk.incubator.vector to include the vectorized kernel.
+ * Usage: PpmKernelBenchmark [masses] [rounds]
+ */
+public class PpmKernelBenchmark {
+
+    private static final int TOLERANCE = 10;
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 1 << 16;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+        Random random = new Random(42);
+        double[] masses = new double[size];
+        for (int i = 0; i < size; i++) {
+            masses[i] = 400 + random.nextDouble() * 600;
+        }
+        double[] queries = new double[rounds];
+        for (int r = 0; r < rounds; r++) {
+            queries[r] = masses[random.nextInt(size)] * (1 + (random.nextDouble() - 0.5) * 2e-5);
+        }
+
+        for (int pass = 0; pass < 2; pass++) { // the first pass warms up
+            long reference = timeBoxed(masses, queries, pass == 1);
+            time("scalar", PpmKernel.byName("scalar"), masses, queries, reference, pass == 1);
+            if (PpmKernel.get().isVectorized()) {
+                time("vector", PpmKernel.get(), masses, queries, reference, pass == 1);
+            }
+        }
+    }
+
+    private static long timeBoxed(double[] masses, double[] queries, boolean print) {
+        long matches = 0;
+        long start = System.nanoTime();
+        for (double query : queries) {
+            for (double mass : masses) {
+                if (Adduct.calculatePPMIncrement(query, mass) <= TOLERANCE) {
+                    matches++;
+                }
+            }
+        }
+        print("boxed", System.nanoTime() - start, masses.length, queries.length, matches, matches, print);
+        return matches;
+    }
+
+    private static void time(String name, PpmKernel kernel, double[] masses, double[] queries, long reference, boolean print) {
+        int[] buffer = new int[masses.length];
+        double maxPpm = PpmKernel.roundedTolerance(TOLERANCE);
+        long matches = 0;
+        long start = System.nanoTime();
+        for (double query : queries) {
+            matches += kernel.withinTolerance(query, masses, 0, masses.length, maxPpm, buffer);
+        }
+        print(name, System.nanoTime() - start, masses.length, queries.length, matches, reference, print);
+    }
+
+    private static void print(String name, long elapsed, int size, int rounds, long matches, long reference, boolean print) {
+        if (print) {
+            System.out.printf("%-8s %8d masses x %6d %10.1f ms %8.3f ns/comparison, %d matches, %s boxed%n", name, size,
+                    rounds, elapsed / 1e6, (double) elapsed / size / rounds, matches,
+                    matches == reference ? "same as" : "different from");
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package pipeline;
+
+import lipid.Annotation;
+import lipid.Feature;
+import lipid.Lipid;
+import lipid.LipidScoreUnit;
+import lipid.MassBinFilter;
+import org.drools.ruleunits.api.RuleUnitInstance;
+import org.drools.ruleunits.api.RuleUnitProvider;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * Staged annotation pipeline: read features, group peaks, detect adducts, match candidates, score and write. Every
+ * stage is a {@link PipelineStage} running on its own thread with bounded buffers between stages, so the CPU bound
+ * detection overlaps with reading and writing.
+ */
+public class AnnotationPipeline {
+
+    public static final int DEFAULT_BUFFER_SIZE = 256;
+
+    private final int bufferSize;
+    private final UnaryOperator<Feature> grouper;
+    private final Function<Feature, String> adductDetector;
+    private final Function<Feature, List<Lipid>> candidateMatcher;
+    private final UnaryOperator<List<Annotation>> scorer;
+    private final Consumer<Annotation> writer;
+    private volatile MassBinFilter prefilter;
+
+    /**
+     * Pipeline with the default peak grouping (peaks are already grouped), adduct detection (the detector of
+     * {@link Annotation#getAdductDetector()}) and rule based scoring.
+     *
+     * @param candidateMatcher lipid candidates of a feature
+     * @param writer           sink of the scored annotations
+     */
+    public AnnotationPipeline(Function<Feature, List<Lipid>> candidateMatcher, Consumer<Annotation> writer) {
+        this(DEFAULT_BUFFER_SIZE, UnaryOperator.identity(),
+                feature -> Annotation.getAdductDetector().detectAdduct(feature.getMz(), feature.getGroupedSignals(), feature.getIonization()),
+                candidateMatcher, AnnotationPipeline::scoreWithRules, writer);
+    }
+
+    /**
+     * @param bufferSize       maximum number of items buffered between two stages
+     * @param grouper          groups (or deisotopes) the peaks of a feature
+     * @param adductDetector   adduct of a feature, null if none is detected
+     * @param candidateMatcher lipid candidates of a feature
+     * @param scorer           scores all the annotations of the run. It receives them once the matching has finished
+     * @param writer           sink of the scored annotations
+     */
+    public AnnotationPipeline(int bufferSize, UnaryOperator<Feature> grouper, Function<Feature, String> adductDetector,
+                              Function<Feature, List<Lipid>> candidateMatcher, UnaryOperator<List<Annotation>> scorer,
+                              Consumer<Annotation> writer) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("bufferSize must be positive: " + bufferSize);
+        }
+        this.bufferSize = bufferSize;
+        this.grouper = grouper;
+        this.adductDetector = adductDetector;
+        this.candidateMatcher = candidateMatcher;
+        this.scorer = scorer;
+        this.writer = writer;
+    }
+
+    /**
+     * Reject the features without candidates in the library before the adduct detection, and drop their grouped peaks
+     * without candidates. The rejected features are the difference between the received and emitted items of the
+     * detect stage.
+     *
+     * @param prefilter filter built from the library of the candidate matcher, null to detect every feature
+     */
+    public void setPrefilter(MassBinFilter prefilter) {
+        this.prefilter = prefilter;
+    }
+
+    /**
+     * Run the pipeline over the features and wait until every annotation has been written
+     *
+     * @param features features of the run. They are read on their own thread
+     * @return metrics of the read stage followed by the metrics of every other stage, in pipeline order
+     */
+    public List<StageMetrics> run(Iterable<Feature> features) throws InterruptedException, ExecutionException {
+        PipelineStage<Feature, Feature> group = new PipelineStage<>("group", bufferSize, StageFunction.map(grouper));
+        MassBinFilter filter = prefilter;
+        PipelineStage<Feature, Feature> detect = new PipelineStage<>("detect", bufferSize, (feature, emit) -> {
+            if (filter != null) {
+                if (!filter.mightMatch(feature)) {
+                    return;
+                }
+                feature = filter.retainCandidatePeaks(feature);
+            }
+            feature.setAdduct(adductDetector.apply(feature));
+            emit.accept(feature);
+        });
+        PipelineStage<Feature, Annotation> match = new PipelineStage<>("match", bufferSize, (feature, emit) -> {
+            for (Lipid lipid : candidateMatcher.apply(feature)) {
+                emit.accept(feature.annotate(lipid));
+            }
+        });
+        PipelineStage<Annotation, Annotation> score = new PipelineStage<>("score", bufferSize, new StageFunction<>() {
+            private final List<Annotation> annotations = new ArrayList<>();
+
+            @Override
+            public void apply(Annotation annotation, Consumer<Annotation> emit) {
+                annotations.add(annotation);
+            }
+
+            @Override
+            public void finish(Consumer<Annotation> emit) {
+                scorer.apply(annotations).forEach(emit);
+            }
+        });
+        PipelineStage<Annotation, Void> write = new PipelineStage<>("write", bufferSize, (annotation, emit) -> writer.accept(annotation));
+
+        StageMetrics readMetrics = new StageMetrics("read");
+        SubmissionPublisher<Feature> source = new SubmissionPublisher<>(ForkJoinPool.commonPool(), bufferSize);
+        source.subscribe(group);
+        group.subscribe(detect);
+        detect.subscribe(match);
+        match.subscribe(score);
+        score.subscribe(write);
+
+        ExecutorService reader = Executors.newSingleThreadExecutor();
+        try {
+            reader.execute(() -> {
+                readMetrics.start();
+                // busy time includes the blocked time, as in the other stages
+                long reading = System.nanoTime();
+                try {
+                    for (Feature feature : features) {
+                        long start = System.nanoTime();
+                        source.submit(feature);
+                        readMetrics.blocked(System.nanoTime() - start);
+                        readMetrics.emitted();
+                    }
+                    source.close();
+                } catch (RuntimeException e) {
+                    source.closeExceptionally(e);
+                } finally {
+                    readMetrics.busy(System.nanoTime() - reading);
+                    readMetrics.end();
+                }
+            });
+            write.getCompletion().get();
+        } finally {
+            reader.shutdownNow();
+        }
+        return List.of(readMetrics, group.getMetrics(), detect.getMetrics(), match.getMetrics(),
+                score.getMetrics(), write.getMetrics());
+    }
+
+    /**
+     * Score the annotations of one run with the rules of {@link LipidScoreUnit}
+     *
+     * @param annotations annotations of the run
+     * @return the same annotations, scored
+     */
+    public static List<Annotation> scoreWithRules(List<Annotation> annotations) {
+        LipidScoreUnit lipidScoreUnit = new LipidScoreUnit();
+        RuleUnitInstance<LipidScoreUnit> instance = RuleUnitProvider.get().createRuleUnitInstance(lipidScoreUnit);
+        try {
+            for (Annotation annotation : annotations) {
+                lipidScoreUnit.getAnnotations().add(annotation);
+            }
+            instance.fire();
+        } finally {
+            instance.close();
+        }
+        return annotations;
+    }
+}
@@ -0,0 +1,137 @@
+package pipeline;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.function.Consumer;
+
+/**
+ * One step of the {@link AnnotationPipeline}. The stage requests at most bufferSize items from upstream, keeps them in
+ * a bounded input queue and applies its {@link StageFunction} on its own thread. Emitted items are published to the
+ * next stage, blocking when its buffer is full, so a slow stage applies backpressure to all the previous ones.
+ *
+ * @param <I> type of the items received
+ * @param <O> type of the items emitted
+ */
+public class PipelineStage<I, O> extends SubmissionPublisher<O> implements Flow.Processor<I, O> {
+
+    private static final Object END = new Object();
+
+    private final StageFunction<I, O> function;
+    private final int bufferSize;
+    private final BlockingQueue<Object> inbox;
+    private final ExecutorService executor;
+    private final StageMetrics metrics;
+    private final CompletableFuture<Void> completion = new CompletableFuture<>();
+    private Flow.Subscription subscription;
+    private volatile Throwable upstreamError;
+
+    /**
+     * @param name       name of the stage, used for the thread and the metrics
+     * @param bufferSize maximum number of items waiting in the input queue and in the output buffer
+     * @param function   work done for each item
+     */
+    public PipelineStage(String name, int bufferSize, StageFunction<I, O> function) {
+        super(ForkJoinPool.commonPool(), bufferSize);
+        this.function = function;
+        this.bufferSize = bufferSize;
+        // one extra slot for the END marker: upstream never sends more items than requested
+        this.inbox = new ArrayBlockingQueue<>(bufferSize + 1);
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "pipeline-" + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.metrics = new StageMetrics(name);
+    }
+
+    public StageMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return future completed when the stage has processed and published all its items
+     */
+    public CompletableFuture<Void> getCompletion() {
+        return completion;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        executor.execute(this::drain);
+        subscription.request(bufferSize);
+    }
+
+    @Override
+    public void onNext(I item) {
+        metrics.received();
+        inbox.add(item);
+        metrics.queueDepth(inbox.size());
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        upstreamError = throwable;
+        inbox.add(END);
+    }
+
+    @Override
+    public void onComplete() {
+        inbox.add(END);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void drain() {
+        metrics.start();
+        Consumer<O> emit = out -> {
+            long start = System.nanoTime();
+            submit(out);
+            metrics.blocked(System.nanoTime() - start);
+            metrics.emitted();
+        };
+        try {
+            while (true) {
+                Object item = inbox.take();
+                metrics.queueDepth(inbox.size());
+                if (item == END) {
+                    break;
+                }
+                long start = System.nanoTime();
+                function.apply((I) item, emit);
+                metrics.busy(System.nanoTime() - start);
+                subscription.request(1);
+            }
+            if (upstreamError != null) {
+                fail(upstreamError);
+                return;
+            }
+            long start = System.nanoTime();
+            function.finish(emit);
+            metrics.busy(System.nanoTime() - start);
+            metrics.end();
+            close();
+            completion.complete(null);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            subscription.cancel();
+            fail(e);
+        } catch (RuntimeException e) {
+            subscription.cancel();
+            fail(e);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void fail(Throwable throwable) {
+        metrics.end();
+        closeExceptionally(throwable);
+        completion.completeExceptionally(throwable);
+    }
+}
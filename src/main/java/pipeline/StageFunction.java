@@ -0,0 +1,37 @@
+package pipeline;
+
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Work done by one {@link PipelineStage}. Each input item may emit zero, one or several output items, and a stage that
+ * needs the whole input (e.g. scoring, where the rules join pairs of annotations) can emit its results when the
+ * upstream completes.
+ *
+ * @param <I> type of the items received
+ * @param <O> type of the items emitted
+ */
+@FunctionalInterface
+public interface StageFunction<I, O> {
+
+    /**
+     * @param item input item
+     * @param emit sends an output item downstream. It blocks while the downstream buffer is full
+     */
+    void apply(I item, Consumer<O> emit);
+
+    /**
+     * Called once after the last item has been applied
+     *
+     * @param emit sends an output item downstream
+     */
+    default void finish(Consumer<O> emit) {
+    }
+
+    /**
+     * @return stage function emitting exactly one output per input
+     */
+    static <I, O> StageFunction<I, O> map(Function<? super I, ? extends O> function) {
+        return (item, emit) -> emit.accept(function.apply(item));
+    }
+}
@@ -0,0 +1,113 @@
+package pipeline;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of one pipeline stage. A stage with a full input queue and low blocked time is the bottleneck; a stage with
+ * high blocked time is waiting for a slower stage downstream.
+ */
+public class StageMetrics {
+
+    private final String name;
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong emitted = new AtomicLong();
+    private final AtomicLong busyNanos = new AtomicLong();
+    private final AtomicLong blockedNanos = new AtomicLong();
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+    private volatile long startNanos;
+    private volatile long endNanos;
+
+    public StageMetrics(String name) {
+        this.name = name;
+    }
+
+    void start() {
+        if (startNanos == 0) {
+            startNanos = System.nanoTime();
+        }
+    }
+
+    void end() {
+        endNanos = System.nanoTime();
+    }
+
+    void received() {
+        received.incrementAndGet();
+    }
+
+    void emitted() {
+        emitted.incrementAndGet();
+    }
+
+    /**
+     * @param nanos time spent running the stage function, including the time blocked reported by {@link #blocked}
+     */
+    void busy(long nanos) {
+        busyNanos.addAndGet(nanos);
+    }
+
+    void blocked(long nanos) {
+        blockedNanos.addAndGet(nanos);
+    }
+
+    void queueDepth(int depth) {
+        queueDepth.set(depth);
+        maxQueueDepth.accumulateAndGet(depth, Math::max);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getReceived() {
+        return received.get();
+    }
+
+    public long getEmitted() {
+        return emitted.get();
+    }
+
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    public int getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    /**
+     * @return time spent running the stage function, excluding the time blocked on the downstream buffer
+     */
+    public long getBusyMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(busyNanos.get() - blockedNanos.get());
+    }
+
+    /**
+     * @return time spent waiting for room in the downstream buffer (backpressure)
+     */
+    public long getBlockedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(blockedNanos.get());
+    }
+
+    /**
+     * @return items processed per second since the stage started
+     */
+    public double getThroughput() {
+        if (startNanos == 0) {
+            return 0;
+        }
+        long end = endNanos == 0 ? System.nanoTime() : endNanos;
+        double seconds = Math.max(end - startNanos, 1) / 1e9;
+        return Math.max(received.get(), emitted.get()) / seconds;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Stage(%s, in=%d, out=%d, queue=%d, maxQueue=%d, busy=%dms, blocked=%dms, %.1f items/s)",
+                name, getReceived(), getEmitted(), getQueueDepth(), getMaxQueueDepth(), getBusyMillis(),
+                getBlockedMillis(), getThroughput());
+    }
+}
@@ -0,0 +1,67 @@
+package result;
+
+/**
+ * Fast non cryptographic 64 bit hash used to build content addresses
+ */
+final class Hash64 {
+
+    private static final long MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    private long hash;
+
+    Hash64(long seed) {
+        this.hash = seed;
+    }
+
+    Hash64 add(long value) {
+        hash = Long.rotateLeft(hash ^ mix(value), 27) * MULTIPLIER + 0x52DCE729L;
+        return this;
+    }
+
+    Hash64 add(double value) {
+        return add(Double.doubleToLongBits(value));
+    }
+
+    Hash64 add(String value) {
+        if (value == null) {
+            return add(-1L);
+        }
+        add(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            add(value.charAt(i));
+        }
+        return this;
+    }
+
+    Hash64 add(byte[] bytes, int length) {
+        add(length);
+        int i = 0;
+        for (; i + Long.BYTES <= length; i += Long.BYTES) {
+            long word = 0;
+            for (int b = 0; b < Long.BYTES; b++) {
+                word = (word << 8) | (bytes[i + b] & 0xFF);
+            }
+            add(word);
+        }
+        for (; i < length; i++) {
+            add(bytes[i]);
+        }
+        return this;
+    }
+
+    long get() {
+        return mix(hash);
+    }
+
+    /**
+     * Finalizer of MurmurHash3, spreads every input bit over the whole word
+     */
+    static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xFF51AFD7ED558CCDL;
+        value ^= value >>> 33;
+        value *= 0xC4CEB9FE1A85EC53L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
@@ -0,0 +1,248 @@
+package result;
+
+import adduct.AdductCatalogue;
+import adduct.AdductTable;
+import lipid.Annotation;
+import lipid.Feature;
+import lipid.Lipid;
+import lipid.Peak;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * On disk cache of scored runs, addressed by the content of everything the scores depend on: the features, the lipid
+ * library, the ppm tolerance, the adducts of the {@link AdductCatalogue} and the rules (lipids.drl and adducts.drl). Entries are
+ * result files ({@link ResultWriter}) evicted in least recently used order once the cache exceeds its size in bytes.
+ * <p>
+ * The adducts and rules are hashed into the file name prefix, so entries computed with other adducts or rules never
+ * hit. Their files are neither indexed nor deleted, so caches of several configurations can share a directory; only
+ * the least recently used eviction of a cache deletes files, and only the entries it indexed.
+ */
+public class ResultCache {
+
+    private static final List<String> RULES_RESOURCES = List.of("/lipid/lipids.drl", "/lipid/adducts.drl");
+    private static final String EXTENSION = ".res";
+
+    private final Path directory;
+    private final long maxBytes;
+    private final Function<AdductCatalogue, String> environment;
+    private AdductCatalogue hashedCatalogue;
+    private String hashedEnvironment;
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true); // key -> bytes, LRU order
+    private long totalBytes;
+    private long hits;
+    private long misses;
+
+    /**
+     * @param directory directory of the cache entries, created if it does not exist
+     * @param maxBytes  maximum size of all the entries together
+     */
+    public ResultCache(Path directory, long maxBytes) throws IOException {
+        this(directory, maxBytes, ResultCache::environmentHash);
+    }
+
+    ResultCache(Path directory, long maxBytes, String environment) throws IOException {
+        this(directory, maxBytes, catalogue -> environment);
+    }
+
+    private ResultCache(Path directory, long maxBytes, Function<AdductCatalogue, String> environment) throws IOException {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+        }
+        this.directory = Files.createDirectories(directory);
+        this.maxBytes = maxBytes;
+        this.environment = environment;
+        load();
+    }
+
+    /**
+     * Content address of a run
+     *
+     * @param features     features of the run, in any order
+     * @param library      lipid candidates the features are matched against, in any order
+     * @param ppmTolerance tolerance used for the adduct detection and the matching
+     * @return key of the run for {@link #get(String)} and {@link #put(String, Collection)}
+     */
+    public String key(Collection<Feature> features, Collection<Lipid> library, double ppmTolerance) {
+        long featuresHash = 0;
+        for (Feature feature : features) {
+            Hash64 hash = new Hash64(1).add(feature.getMz()).add(feature.getRtMin()).add(feature.getIntensity())
+                    .add(feature.getIonization() == null ? -1 : feature.getIonization().ordinal());
+            for (Peak peak : feature.getGroupedSignals()) {
+                hash.add(peak.getMz()).add(peak.getIntensity());
+            }
+            featuresHash += hash.get(); // commutative, so the order of the features does not matter
+        }
+        long libraryHash = 0;
+        for (Lipid lipid : library) {
+            libraryHash += new Hash64(2).add(lipid.getCompoundId()).add(lipid.getName()).add(lipid.getFormula())
+                    .add(lipid.getLipidType() == null ? -1 : lipid.getLipidType().ordinal())
+                    .add(lipid.getCarbonCount()).add(lipid.getDoubleBondsCount()).get();
+        }
+        long input = new Hash64(3).add(featuresHash).add(features.size()).add(libraryHash).add(library.size())
+                .add(ppmTolerance).get();
+        return environment() + "-" + String.format("%016x", input);
+    }
+
+    /**
+     * @return the stored scores of the run, or null if they are not cached
+     */
+    public synchronized ResultReader get(String key) throws IOException {
+        if (entries.get(key) == null) {
+            misses++;
+            return null;
+        }
+        Path file = file(key);
+        if (!Files.exists(file)) {
+            totalBytes -= entries.remove(key);
+            misses++;
+            return null;
+        }
+        hits++;
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        return new ResultReader(file);
+    }
+
+    /**
+     * Store the scores of a run, evicting the least recently used entries if the cache becomes too large
+     *
+     * @return the stored scores
+     */
+    public synchronized ResultReader put(String key, Collection<Annotation> scored) throws IOException {
+        Path tmp = Files.createTempFile(directory, "entry", ".tmp");
+        try {
+            try (ResultWriter writer = new ResultWriter(tmp)) {
+                scored.forEach(writer);
+            }
+            Files.move(tmp, file(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        Long previous = entries.put(key, Files.size(file(key)));
+        totalBytes += entries.get(key) - (previous == null ? 0 : previous);
+        evict(key);
+        return new ResultReader(file(key));
+    }
+
+    /**
+     * @param scorer detects and scores the run. Only called on a miss
+     * @return the cached scores, computing and storing them on a miss
+     */
+    public ResultReader getOrCompute(String key, Supplier<? extends Collection<Annotation>> scorer) throws IOException {
+        ResultReader cached = get(key);
+        if (cached != null) {
+            return cached;
+        }
+        return put(key, scorer.get());
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * Index the entries of the directory from the least to the most recently used, skipping the files of other
+     * adducts or rules
+     */
+    private void load() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+            for (Path file : stream) {
+                if (file.getFileName().toString().startsWith(environment() + "-")) {
+                    files.add(file);
+                }
+            }
+        }
+        files.sort(Comparator.comparing(file -> {
+            try {
+                return Files.getLastModifiedTime(file);
+            } catch (IOException e) {
+                return FileTime.fromMillis(0);
+            }
+        }));
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            long bytes = Files.size(file);
+            entries.put(name.substring(0, name.length() - EXTENSION.length()), bytes);
+            totalBytes += bytes;
+        }
+        evict(null);
+    }
+
+    private void evict(String keep) throws IOException {
+        Iterator<Map.Entry<String, Long>> eldest = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && eldest.hasNext()) {
+            Map.Entry<String, Long> entry = eldest.next();
+            if (entry.getKey().equals(keep)) {
+                continue;
+            }
+            Files.deleteIfExists(file(entry.getKey()));
+            totalBytes -= entry.getValue();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * @return hash of the current adducts and the rules, computed again only when the catalogue is replaced
+     */
+    private synchronized String environment() {
+        AdductCatalogue catalogue = AdductCatalogue.current();
+        if (catalogue != hashedCatalogue) {
+            hashedEnvironment = environment.apply(catalogue);
+            hashedCatalogue = catalogue;
+        }
+        return hashedEnvironment;
+    }
+
+    private Path file(String key) {
+        return directory.resolve(key + EXTENSION);
+    }
+
+    /**
+     * @return hash of the adducts and the rules every cached score depends on
+     */
+    static String environmentHash(AdductCatalogue catalogue) {
+        Hash64 hash = new Hash64(4);
+        for (AdductTable adducts : List.of(catalogue.getPositive(), catalogue.getNegative())) {
+            hash.add(adducts.size());
+            for (int a = 0; a < adducts.size(); a++) {
+                hash.add(adducts.getName(a)).add(adducts.getMassDelta(a)).add(adducts.getCharge(a)).add(adducts.getMultimer(a));
+            }
+        }
+        for (String resource : RULES_RESOURCES) {
+            try (InputStream rules = ResultCache.class.getResourceAsStream(resource)) {
+                if (rules == null) {
+                    throw new IllegalStateException("Rules not found in the classpath: " + resource);
+                }
+                byte[] bytes = rules.readAllBytes();
+                hash.add(bytes, bytes.length);
+            } catch (IOException e) {
+                throw new IllegalStateException("Rules cannot be read: " + resource, e);
+            }
+        }
+        return String.format("%016x", hash.get());
+    }
+}
@@ -0,0 +1,62 @@
+package result;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Layout of the binary columnar result files written by {@link ResultWriter} and read by {@link ResultReader}.
+ * <p>
+ * Header: magic (8 bytes), row count (int), adduct dictionary (count, then length prefixed UTF-8 names). Then one
+ * block per column, each prefixed by its length in bytes so a reader can skip the columns it does not need. Rows are
+ * sorted by mz, which is stored as delta varints of the mz in micro units. RT is stored as zigzag delta varints in
+ * 1e-4 minutes, the integer columns as zigzag varints and the normalized score as raw little endian doubles.
+ */
+final class ResultFormat {
+
+    static final byte[] MAGIC = "LCMSRES1".getBytes(StandardCharsets.US_ASCII);
+
+    static final double MZ_SCALE = 1e6;
+    static final double RT_SCALE = 1e4;
+
+    static final int COLUMN_MZ = 0;
+    static final int COLUMN_RT = 1;
+    static final int COLUMN_FEATURE_ID = 2;
+    static final int COLUMN_COMPOUND_ID = 3;
+    static final int COLUMN_ADDUCT_ID = 4;
+    static final int COLUMN_SCORE = 5;
+    static final int COLUMN_NORMALIZED_SCORE = 6;
+    static final int COLUMN_COUNT = 7;
+
+    static final int MAX_VARINT_BYTES = 10;
+
+    private ResultFormat() {
+    }
+
+    static void putVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static long getVarLong(ByteBuffer buffer) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,154 @@
+package result;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Memory mapped reader of the files written by {@link ResultWriter}. Rows are sorted by mz and every column is decoded
+ * on demand, so tools reading only some columns do not pay for the others. Files must be smaller than 2 GB.
+ */
+public class ResultReader {
+
+    private final MappedByteBuffer buffer;
+    private final int size;
+    private final String[] adducts;
+    private final int[] columnOffsets = new int[ResultFormat.COLUMN_COUNT];
+
+    /**
+     * @param path file written by a {@link ResultWriter}
+     * @throws IOException if the file cannot be read or is not a result file
+     */
+    public ResultReader(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        ByteBuffer header = view(0);
+        byte[] magic = new byte[ResultFormat.MAGIC.length];
+        if (header.remaining() < magic.length) {
+            throw new IOException("Not a result file: " + path);
+        }
+        header.get(magic);
+        if (!Arrays.equals(magic, ResultFormat.MAGIC)) {
+            throw new IOException("Not a result file: " + path);
+        }
+        this.size = header.getInt();
+        this.adducts = new String[header.getInt()];
+        for (int i = 0; i < adducts.length; i++) {
+            byte[] name = new byte[header.getInt()];
+            header.get(name);
+            adducts[i] = new String(name, StandardCharsets.UTF_8);
+        }
+        int offset = header.position();
+        for (int column = 0; column < ResultFormat.COLUMN_COUNT; column++) {
+            columnOffsets[column] = offset + Integer.BYTES;
+            offset += Integer.BYTES + header.getInt(offset);
+        }
+    }
+
+    /**
+     * @return number of rows
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return mz of every row, in increasing order
+     */
+    public double[] readMz() {
+        ByteBuffer column = view(columnOffsets[ResultFormat.COLUMN_MZ]);
+        double[] values = new double[size];
+        long value = 0;
+        for (int i = 0; i < size; i++) {
+            value += ResultFormat.getVarLong(column);
+            values[i] = value / ResultFormat.MZ_SCALE;
+        }
+        return values;
+    }
+
+    /**
+     * @return RT in minutes of every row
+     */
+    public double[] readRt() {
+        ByteBuffer column = view(columnOffsets[ResultFormat.COLUMN_RT]);
+        double[] values = new double[size];
+        long value = 0;
+        for (int i = 0; i < size; i++) {
+            value += ResultFormat.unzigzag(ResultFormat.getVarLong(column));
+            values[i] = value / ResultFormat.RT_SCALE;
+        }
+        return values;
+    }
+
+    public int[] readFeatureIds() {
+        return readIntColumn(ResultFormat.COLUMN_FEATURE_ID);
+    }
+
+    public int[] readCompoundIds() {
+        return readIntColumn(ResultFormat.COLUMN_COMPOUND_ID);
+    }
+
+    /**
+     * @return index of the adduct of every row in {@link #getAdducts()}, -1 if no adduct was detected
+     */
+    public int[] readAdductIds() {
+        return readIntColumn(ResultFormat.COLUMN_ADDUCT_ID);
+    }
+
+    /**
+     * @return adduct of every row, null if no adduct was detected
+     */
+    public String[] readAdducts() {
+        int[] ids = readAdductIds();
+        String[] values = new String[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = ids[i] < 0 ? null : adducts[ids[i]];
+        }
+        return values;
+    }
+
+    public int[] readScores() {
+        return readIntColumn(ResultFormat.COLUMN_SCORE);
+    }
+
+    public double[] readNormalizedScores() {
+        ByteBuffer column = view(columnOffsets[ResultFormat.COLUMN_NORMALIZED_SCORE]);
+        double[] values = new double[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = column.getDouble();
+        }
+        return values;
+    }
+
+    /**
+     * @return adduct dictionary of the file
+     */
+    public String[] getAdducts() {
+        return adducts.clone();
+    }
+
+    private int[] readIntColumn(int columnIndex) {
+        ByteBuffer column = view(columnOffsets[columnIndex]);
+        int[] values = new int[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = (int) ResultFormat.unzigzag(ResultFormat.getVarLong(column));
+        }
+        return values;
+    }
+
+    /**
+     * Independent view of the mapped file, so columns can be read concurrently
+     */
+    private ByteBuffer view(int offset) {
+        ByteBuffer view = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        view.position(offset);
+        return view;
+    }
+}
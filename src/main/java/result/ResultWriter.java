@@ -0,0 +1,257 @@
+package result;
+
+import lipid.Annotation;
+import lipid.Ionization;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Sink of scored annotations writing a compact binary columnar file (see {@link ResultFormat}). Rows are kept in
+ * primitive arrays and written, sorted by mz, when the writer is closed. Not thread safe.
+ */
+public class ResultWriter implements Consumer<Annotation>, AutoCloseable {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Path path;
+    private final Map<String, Integer> adductIds = new HashMap<>();
+    private final List<String> adducts = new ArrayList<>();
+    private final Map<FeatureKey, Integer> featureIds = new HashMap<>();
+    private long[] mz = new long[1024];
+    private long[] rt = new long[1024];
+    private int[] featureId = new int[1024];
+    private int[] compoundId = new int[1024];
+    private int[] adductId = new int[1024];
+    private int[] score = new int[1024];
+    private double[] normalizedScore = new double[1024];
+    private int size;
+    private boolean closed;
+
+    /**
+     * @param path file to write. It is created or overwritten when the writer is closed
+     */
+    public ResultWriter(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Add an annotation. Annotations with the same mz, RT and ionization belong to the same feature, and feature ids are
+     * assigned in order of arrival.
+     */
+    @Override
+    public void accept(Annotation annotation) {
+        FeatureKey key = new FeatureKey(annotation.getMz(), annotation.getRtMin(), annotation.getIonization());
+        Integer id = featureIds.get(key);
+        if (id == null) {
+            id = featureIds.size();
+            featureIds.put(key, id);
+        }
+        add(id, annotation);
+    }
+
+    /**
+     * @param featureId id of the feature annotated
+     * @param annotation scored annotation
+     */
+    public void add(int featureId, Annotation annotation) {
+        if (closed) {
+            throw new IllegalStateException("Writer already closed: " + path);
+        }
+        if (size == mz.length) {
+            grow();
+        }
+        this.mz[size] = Math.round(annotation.getMz() * ResultFormat.MZ_SCALE);
+        this.rt[size] = Math.round(annotation.getRtMin() * ResultFormat.RT_SCALE);
+        this.featureId[size] = featureId;
+        this.compoundId[size] = annotation.getLipid().getCompoundId();
+        this.adductId[size] = adductId(annotation.getAdduct());
+        this.score[size] = annotation.getScore();
+        this.normalizedScore[size] = annotation.getNormalizedScore();
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        int[] order = sortedOrder(mz, rt, size);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ColumnOutput out = new ColumnOutput(channel);
+            out.buffer.put(ResultFormat.MAGIC);
+            out.buffer.putInt(size);
+            out.buffer.putInt(adducts.size());
+            for (String adduct : adducts) {
+                byte[] name = adduct.getBytes(StandardCharsets.UTF_8);
+                out.ensure(Integer.BYTES + name.length);
+                out.buffer.putInt(name.length);
+                out.buffer.put(name);
+            }
+
+            out.startColumn();
+            long previous = 0;
+            for (int row : order) {
+                out.ensure(ResultFormat.MAX_VARINT_BYTES);
+                ResultFormat.putVarLong(out.buffer, mz[row] - previous);
+                previous = mz[row];
+            }
+            out.endColumn();
+
+            out.startColumn();
+            previous = 0;
+            for (int row : order) {
+                out.ensure(ResultFormat.MAX_VARINT_BYTES);
+                ResultFormat.putVarLong(out.buffer, ResultFormat.zigzag(rt[row] - previous));
+                previous = rt[row];
+            }
+            out.endColumn();
+
+            writeIntColumn(out, featureId, order);
+            writeIntColumn(out, compoundId, order);
+            writeIntColumn(out, adductId, order);
+            writeIntColumn(out, score, order);
+
+            out.startColumn();
+            for (int row : order) {
+                out.ensure(Double.BYTES);
+                out.buffer.putDouble(normalizedScore[row]);
+            }
+            out.endColumn();
+            out.flush();
+        }
+    }
+
+    private static void writeIntColumn(ColumnOutput out, int[] values, int[] order) throws IOException {
+        out.startColumn();
+        for (int row : order) {
+            out.ensure(ResultFormat.MAX_VARINT_BYTES);
+            ResultFormat.putVarLong(out.buffer, ResultFormat.zigzag(values[row]));
+        }
+        out.endColumn();
+    }
+
+    private int adductId(String adduct) {
+        if (adduct == null) {
+            return -1;
+        }
+        Integer id = adductIds.get(adduct);
+        if (id == null) {
+            id = adducts.size();
+            adductIds.put(adduct, id);
+            adducts.add(adduct);
+        }
+        return id;
+    }
+
+    private void grow() {
+        int capacity = mz.length * 2;
+        mz = Arrays.copyOf(mz, capacity);
+        rt = Arrays.copyOf(rt, capacity);
+        featureId = Arrays.copyOf(featureId, capacity);
+        compoundId = Arrays.copyOf(compoundId, capacity);
+        adductId = Arrays.copyOf(adductId, capacity);
+        score = Arrays.copyOf(score, capacity);
+        normalizedScore = Arrays.copyOf(normalizedScore, capacity);
+    }
+
+    /**
+     * Stable bottom-up merge sort of the row indexes by primary and then secondary key, without boxing.
+     */
+    static int[] sortedOrder(long[] primary, long[] secondary, int size) {
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        int[] tmp = new int[size];
+        for (int width = 1; width < size; width <<= 1) {
+            for (int lo = 0; lo < size - width; lo += width << 1) {
+                int mid = lo + width;
+                int hi = Math.min(lo + (width << 1), size);
+                int i = lo;
+                int j = mid;
+                int k = lo;
+                while (i < mid && j < hi) {
+                    int a = order[i];
+                    int b = order[j];
+                    boolean takeRight = primary[b] < primary[a] || (primary[b] == primary[a] && secondary[b] < secondary[a]);
+                    tmp[k++] = takeRight ? order[j++] : order[i++];
+                }
+                while (i < mid) {
+                    tmp[k++] = order[i++];
+                }
+                while (j < hi) {
+                    tmp[k++] = order[j++];
+                }
+                System.arraycopy(tmp, lo, order, lo, hi - lo);
+            }
+        }
+        return order;
+    }
+
+    /**
+     * Direct buffer flushed to the channel when full. Column lengths are patched in place once the column is written.
+     */
+    private static final class ColumnOutput {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private long written;
+        private long columnStart;
+
+        private ColumnOutput(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+            if (buffer.remaining() < bytes) {
+                throw new IOException("Value of " + bytes + " bytes does not fit in the write buffer");
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                written += channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        private void startColumn() throws IOException {
+            ensure(Integer.BYTES);
+            columnStart = written + buffer.position();
+            buffer.putInt(0);
+        }
+
+        private void endColumn() throws IOException {
+            flush();
+            int length = Math.toIntExact(written - columnStart - Integer.BYTES);
+            ByteBuffer lengthBuffer = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN).putInt(0, length);
+            while (lengthBuffer.hasRemaining()) {
+                channel.write(lengthBuffer, columnStart + lengthBuffer.position());
+            }
+        }
+    }
+
+    private record FeatureKey(double mz, double rtMin, Ionization ionization) {
+    }
+}
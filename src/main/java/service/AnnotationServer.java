@@ -0,0 +1,296 @@
+package service;
+
+import adduct.AdductCatalogue;
+import adduct.PpmKernel;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lipid.Annotation;
+import lipid.CandidateMatcher;
+import lipid.Feature;
+import lipid.KendrickClassFilter;
+import lipid.Lipid;
+import lipid.LipidLibrary;
+import lipid.LipidRegistry;
+import lipid.LipidScoreUnit;
+import lipid.MassBinFilter;
+import lipid.NativeAdductDetector;
+import org.drools.ruleunits.api.DataHandle;
+import org.drools.ruleunits.api.RuleUnitInstance;
+import org.drools.ruleunits.api.RuleUnitProvider;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Local annotation service, so tools annotate feature batches without starting a JVM and the rules every time. The
+ * library, the adduct tables and a pool of {@link LipidScoreUnit} instances are loaded and fired once at startup and
+ * reused by every request; each request runs on its own virtual thread and only waits for a free scoring unit.
+ * <p>
+ * The server only listens on the loopback interface:
+ * <ul>
+ * <li>POST /annotate: a batch of features as JSON or binary ({@link FeatureBatchCodec}), answered with the detected
+ * adduct and the scored annotations of every feature. The rules score the annotations of the same batch together</li>
+ * <li>GET /metrics: request counts, latency percentiles and throughput ({@link ServiceMetrics}) as JSON</li>
+ * </ul>
+ */
+public class AnnotationServer implements AutoCloseable {
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final LipidLibrary library;
+    private final double ppmTolerance;
+    private final CandidateMatcher candidateMatcher;
+    private volatile MassBinFilter prefilter;
+    private final NativeAdductDetector adductDetector;
+    private final BlockingQueue<WarmScorer> scorers;
+    private final ServiceMetrics metrics = new ServiceMetrics();
+
+    /**
+     * @param port         loopback port, 0 for any free port
+     * @param library      lipids the features are matched against
+     * @param ppmTolerance tolerance of the adduct detection and the matching
+     * @param scorers      scoring units kept warm, i.e. batches scored at the same time
+     */
+    public AnnotationServer(int port, Collection<Lipid> library, double ppmTolerance, int scorers) throws IOException {
+        this(port, LipidLibrary.of(library), ppmTolerance, scorers);
+    }
+
+    /**
+     * @param library mass sorted library, used as it is by the matching and the prefilter
+     */
+    public AnnotationServer(int port, LipidLibrary library, double ppmTolerance, int scorers) throws IOException {
+        if (scorers <= 0) {
+            throw new IllegalArgumentException("At least one scorer is needed: " + scorers);
+        }
+        this.library = library;
+        this.ppmTolerance = ppmTolerance;
+        this.candidateMatcher = new CandidateMatcher(library, ppmTolerance, PpmKernel.get(),
+                new KendrickClassFilter(library, ppmTolerance));
+        this.prefilter = new MassBinFilter(library, ppmTolerance);
+        this.adductDetector = new NativeAdductDetector(ppmTolerance);
+        this.scorers = new ArrayBlockingQueue<>(scorers);
+        for (int i = 0; i < scorers; i++) {
+            this.scorers.add(new WarmScorer());
+        }
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.setExecutor(executor);
+        server.createContext("/annotate", this::handleAnnotate);
+        server.createContext("/metrics", this::handleMetrics);
+        server.start();
+    }
+
+    /**
+     * Detect, match and score a batch in process, as the /annotate endpoint does
+     *
+     * @return scored annotations of every feature, in the same order. Features are updated with their detected adduct
+     */
+    public List<List<Annotation>> annotate(List<Feature> features) throws InterruptedException {
+        // the whole batch uses the same adducts, even if the catalogue is reloaded meanwhile
+        AdductCatalogue catalogue = AdductCatalogue.current();
+        MassBinFilter prefilter = prefilter(catalogue);
+        List<List<Annotation>> annotations = new ArrayList<>(features.size());
+        List<Annotation> batch = new ArrayList<>();
+        for (Feature feature : features) {
+            if (!prefilter.mightMatch(feature)) {
+                annotations.add(List.of());
+                continue;
+            }
+            Feature candidate = prefilter.retainCandidatePeaks(feature);
+            feature.setAdduct(adductDetector.detectAdduct(catalogue, feature.getMz(), candidate.getGroupedSignals(),
+                    feature.getIonization()));
+            List<Annotation> featureAnnotations = new ArrayList<>();
+            for (Lipid lipid : candidateMatcher.apply(feature, catalogue)) {
+                featureAnnotations.add(feature.annotate(lipid));
+            }
+            annotations.add(featureAnnotations);
+            batch.addAll(featureAnnotations);
+        }
+        if (!batch.isEmpty()) {
+            WarmScorer scorer = scorers.take();
+            try {
+                scorer.score(batch);
+            } finally {
+                scorers.add(scorer);
+            }
+        }
+        return annotations;
+    }
+
+    /**
+     * @return prefilter of the library under the adducts of the catalogue, built again when the catalogue is reloaded
+     */
+    private MassBinFilter prefilter(AdductCatalogue catalogue) {
+        MassBinFilter filter = prefilter;
+        if (filter.getCatalogue() != catalogue) {
+            synchronized (this) {
+                filter = prefilter;
+                if (filter.getCatalogue() != catalogue) {
+                    filter = new MassBinFilter(library, ppmTolerance, catalogue);
+                    prefilter = filter;
+                }
+            }
+        }
+        return filter;
+    }
+
+    /**
+     * @return port the server listens on
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public ServiceMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdown();
+        for (WarmScorer scorer : scorers) {
+            scorer.close();
+        }
+    }
+
+    private void handleAnnotate(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        metrics.started();
+        int features = 0;
+        int annotations = 0;
+        int status = 500;
+        try (exchange) {
+            if (rejected(exchange, "POST")) {
+                status = exchange.getResponseCode();
+                return;
+            }
+            String response;
+            try {
+                byte[] body = exchange.getRequestBody().readAllBytes();
+                String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+                List<Feature> batch = contentType != null && contentType.startsWith(FeatureBatchCodec.BINARY_CONTENT_TYPE)
+                        ? FeatureBatchCodec.decodeBinary(ByteBuffer.wrap(body))
+                        : FeatureBatchCodec.decodeJson(new String(body, StandardCharsets.UTF_8));
+                features = batch.size();
+                List<List<Annotation>> scored = annotate(batch);
+                for (List<Annotation> featureAnnotations : scored) {
+                    annotations += featureAnnotations.size();
+                }
+                response = FeatureBatchCodec.encode(batch, scored);
+                status = 200;
+            } catch (IllegalArgumentException e) {
+                response = error(e);
+                status = 400;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                response = error(e);
+            } catch (RuntimeException e) {
+                response = error(e);
+            }
+            send(exchange, status, response);
+        } finally {
+            metrics.finished(System.nanoTime() - start, features, annotations, status != 200);
+        }
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!rejected(exchange, "GET")) {
+                send(exchange, 200, metrics.toJson());
+            }
+        }
+    }
+
+    /**
+     * Answer the requests that do not come from this host or use another method
+     *
+     * @return whether the request was answered
+     */
+    private static boolean rejected(HttpExchange exchange, String method) throws IOException {
+        if (!exchange.getRemoteAddress().getAddress().isLoopbackAddress()) {
+            send(exchange, 403, "{\"error\":\"Only local requests are served\"}");
+            return true;
+        }
+        if (!method.equals(exchange.getRequestMethod())) {
+            exchange.getResponseHeaders().set("Allow", method);
+            send(exchange, 405, "{\"error\":\"Method not allowed\"}");
+            return true;
+        }
+        return false;
+    }
+
+    private static void send(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static String error(Exception e) {
+        return Json.quote(new StringBuilder("{\"error\":"), String.valueOf(e.getMessage())).append('}').toString();
+    }
+
+    /**
+     * A {@link LipidScoreUnit} instance reused by successive batches. The annotations of a batch are removed once it
+     * is scored, so the next batch starts empty without creating the instance again.
+     */
+    private static final class WarmScorer {
+        private final LipidScoreUnit lipidScoreUnit = new LipidScoreUnit();
+        private final RuleUnitInstance<LipidScoreUnit> instance = RuleUnitProvider.get().createRuleUnitInstance(lipidScoreUnit);
+
+        private WarmScorer() {
+            instance.fire();
+        }
+
+        private void score(List<Annotation> annotations) {
+            List<DataHandle> handles = new ArrayList<>(annotations.size());
+            try {
+                for (Annotation annotation : annotations) {
+                    handles.add(lipidScoreUnit.getAnnotations().add(annotation));
+                }
+                instance.fire();
+            } finally {
+                for (DataHandle handle : handles) {
+                    lipidScoreUnit.getAnnotations().remove(handle);
+                }
+            }
+        }
+
+        private void close() {
+            instance.close();
+        }
+    }
+
+    /**
+     * Usage: AnnotationServer port library [ppm] [scorers]. The library is a CSV or TSV export read by
+     * {@link LipidLibrary#load(Path, LipidRegistry)}
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: AnnotationServer port library [ppm] [scorers]");
+            System.exit(2);
+        }
+        LipidLibrary library = LipidLibrary.load(Path.of(args[1]), new LipidRegistry());
+        double ppm = args.length > 2 ? Double.parseDouble(args[2]) : 10;
+        int scorers = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        AnnotationServer server = new AnnotationServer(Integer.parseInt(args[0]), library, ppm, scorers);
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+        System.out.println("Annotating " + library.size() + " lipids with " + AdductCatalogue.current()
+                + " on http://localhost:" + server.getPort());
+    }
+}
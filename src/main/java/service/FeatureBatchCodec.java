@@ -0,0 +1,150 @@
+package service;
+
+import lipid.Annotation;
+import lipid.Feature;
+import lipid.Ionization;
+import lipid.Peak;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Request and response bodies of the annotation service.
+ * <p>
+ * JSON requests are an object with a features array (or the array itself):
+ * <pre>
+ * {"features": [{"mz": 760.5851, "intensity": 100000, "rtMin": 5.0, "ionization": "POSITIVE",
+ *                "peaks": [{"mz": 760.5851, "intensity": 100000}, {"mz": 782.567, "intensity": 80000}]}]}
+ * </pre>
+ * Binary requests are little endian: the number of features (int), then for every feature its mz, intensity and RT
+ * (doubles), its ionization (byte, 0 positive and 1 negative), the number of peaks (int) and the mz and intensity of
+ * every peak (doubles).
+ * <p>
+ * Responses are JSON, with the detected adduct and the scored annotations of every feature in the request order.
+ */
+final class FeatureBatchCodec {
+
+    static final String BINARY_CONTENT_TYPE = "application/octet-stream";
+
+    private FeatureBatchCodec() {
+    }
+
+    /**
+     * @throws IllegalArgumentException if the body is not a valid batch
+     */
+    static List<Feature> decodeJson(String body) {
+        Object parsed = Json.parse(body);
+        Object features = parsed instanceof Map ? ((Map<?, ?>) parsed).get("features") : parsed;
+        if (!(features instanceof List)) {
+            throw new IllegalArgumentException("Expected an array of features");
+        }
+        List<Feature> batch = new ArrayList<>();
+        for (Object item : (List<?>) features) {
+            if (!(item instanceof Map)) {
+                throw new IllegalArgumentException("Expected a feature object at position " + batch.size());
+            }
+            Map<?, ?> feature = (Map<?, ?>) item;
+            Set<Peak> peaks = new HashSet<>();
+            Object peakList = feature.get("peaks");
+            if (peakList instanceof List) {
+                for (Object peak : (List<?>) peakList) {
+                    if (!(peak instanceof Map)) {
+                        throw new IllegalArgumentException("Expected a peak object in feature " + batch.size());
+                    }
+                    peaks.add(new Peak(number((Map<?, ?>) peak, "mz"), number((Map<?, ?>) peak, "intensity")));
+                }
+            }
+            batch.add(new Feature(number(feature, "mz"), number(feature, "intensity"), number(feature, "rtMin"), peaks,
+                    ionization(String.valueOf(feature.get("ionization")))));
+        }
+        return batch;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the body is not a valid batch
+     */
+    static List<Feature> decodeBinary(ByteBuffer body) {
+        body.order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            int size = body.getInt();
+            if (size < 0 || size > body.remaining() / 29) {
+                throw new IllegalArgumentException("Invalid number of features: " + size);
+            }
+            List<Feature> batch = new ArrayList<>(size);
+            for (int f = 0; f < size; f++) {
+                double mz = body.getDouble();
+                double intensity = body.getDouble();
+                double rtMin = body.getDouble();
+                byte ionization = body.get();
+                int peakCount = body.getInt();
+                if (peakCount < 0 || peakCount > body.remaining() / 16) {
+                    throw new IllegalArgumentException("Invalid number of peaks in feature " + f + ": " + peakCount);
+                }
+                Set<Peak> peaks = new HashSet<>();
+                for (int p = 0; p < peakCount; p++) {
+                    peaks.add(new Peak(body.getDouble(), body.getDouble()));
+                }
+                if (ionization != 0 && ionization != 1) {
+                    throw new IllegalArgumentException("Invalid ionization of feature " + f + ": " + ionization);
+                }
+                batch.add(new Feature(mz, intensity, rtMin, peaks, ionization == 0 ? Ionization.POSITVE : Ionization.NEGATIVE));
+            }
+            return batch;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated binary body", e);
+        }
+    }
+
+    /**
+     * @param features    features of the request
+     * @param annotations scored annotations of every feature, in the same order
+     */
+    static String encode(List<Feature> features, List<List<Annotation>> annotations) {
+        StringBuilder out = new StringBuilder(64 + features.size() * 128);
+        out.append("{\"features\":[");
+        for (int f = 0; f < features.size(); f++) {
+            Feature feature = features.get(f);
+            out.append(f == 0 ? "{" : ",{").append("\"mz\":");
+            Json.number(out, feature.getMz()).append(",\"rtMin\":");
+            Json.number(out, feature.getRtMin()).append(",\"adduct\":");
+            Json.quote(out, feature.getAdduct()).append(",\"annotations\":[");
+            List<Annotation> scored = annotations.get(f);
+            for (int a = 0; a < scored.size(); a++) {
+                Annotation annotation = scored.get(a);
+                out.append(a == 0 ? "{" : ",{").append("\"compoundId\":").append(annotation.getLipid().getCompoundId())
+                        .append(",\"lipid\":");
+                Json.quote(out, annotation.getLipid().getName()).append(",\"score\":").append(annotation.getScore())
+                        .append(",\"normalizedScore\":");
+                Json.number(out, annotation.getNormalizedScore()).append('}');
+            }
+            out.append("]}");
+        }
+        return out.append("]}").toString();
+    }
+
+    private static double number(Map<?, ?> object, String key) {
+        Object value = object.get(key);
+        if (!(value instanceof Double)) {
+            throw new IllegalArgumentException("Expected a number for " + key);
+        }
+        return (Double) value;
+    }
+
+    private static Ionization ionization(String name) {
+        switch (name) {
+            case "POSITIVE":
+            case "POSITVE":
+                return Ionization.POSITVE;
+            case "NEGATIVE":
+                return Ionization.NEGATIVE;
+            default:
+                throw new IllegalArgumentException("Unknown ionization " + name);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package service;
+
+import lipid.Annotation;
+import lipid.Lipid;
+import lipid.LipidScoreUnit;
+import lipid.LipidType;
+import org.drools.ruleunits.api.DataHandle;
+import org.drools.ruleunits.api.RuleUnitInstance;
+import org.drools.ruleunits.api.RuleUnitProvider;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Worker process of a {@link ShardCoordinator}. It listens on a free loopback port, prints the port as the first line
+ * of its standard output, serves one connection and exits when the connection or its standard input is closed. The
+ * {@link LipidScoreUnit} instance is built and warmed once and scores every shard received.
+ * <p>
+ * Shard (big endian): annotation count, then per annotation the partition id, compound id, lipid type ordinal or -1,
+ * carbons, double bonds, mz and RT. Annotations of the same partition are consecutive and only scored together.
+ * Answer: annotation count, then the score and the number of scores applied of every annotation, in the same order.
+ */
+public class ScoringWorker {
+
+    public static void main(String[] args) throws IOException {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            System.out.println(server.getLocalPort());
+            System.out.flush();
+            // the coordinator reads only the port and never drains the pipe, so later output goes to stderr
+            System.setOut(System.err);
+            Thread parent = new Thread(ScoringWorker::exitWithParent, "parent-watch");
+            parent.setDaemon(true);
+            parent.start();
+            try (Socket socket = server.accept()) {
+                serve(socket.getInputStream(), socket.getOutputStream());
+            }
+        }
+    }
+
+    /**
+     * Score every shard of the input until it is closed
+     */
+    static void serve(InputStream input, OutputStream output) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(input));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output));
+        LipidScoreUnit lipidScoreUnit = new LipidScoreUnit();
+        try (RuleUnitInstance<LipidScoreUnit> instance = RuleUnitProvider.get().createRuleUnitInstance(lipidScoreUnit)) {
+            instance.fire();
+            while (true) {
+                int count;
+                try {
+                    count = in.readInt();
+                } catch (EOFException e) {
+                    return;
+                }
+                int[] partitions = new int[count];
+                Annotation[] annotations = new Annotation[count];
+                for (int i = 0; i < count; i++) {
+                    partitions[i] = in.readInt();
+                    int compoundId = in.readInt();
+                    byte type = in.readByte();
+                    Lipid lipid = new Lipid(compoundId, null, null, type < 0 ? null : LipidType.values()[type],
+                            in.readInt(), in.readInt());
+                    double mz = in.readDouble();
+                    annotations[i] = new Annotation(lipid, mz, 0, in.readDouble(), Set.of(), null, null);
+                }
+                score(partitions, annotations, lipidScoreUnit, instance);
+                out.writeInt(count);
+                for (Annotation annotation : annotations) {
+                    out.writeInt(annotation.getScore());
+                    out.writeInt(annotation.getTotalScoresApplied());
+                }
+                out.flush();
+            }
+        }
+    }
+
+    private static void score(int[] partitions, Annotation[] annotations, LipidScoreUnit lipidScoreUnit,
+                              RuleUnitInstance<LipidScoreUnit> instance) {
+        List<DataHandle> handles = new ArrayList<>();
+        for (int start = 0; start < annotations.length; ) {
+            int end = start;
+            while (end < annotations.length && partitions[end] == partitions[start]) {
+                handles.add(lipidScoreUnit.getAnnotations().add(annotations[end++]));
+            }
+            try {
+                instance.fire();
+            } finally {
+                for (DataHandle handle : handles) {
+                    lipidScoreUnit.getAnnotations().remove(handle);
+                }
+                handles.clear();
+            }
+            start = end;
+        }
+    }
+
+    /**
+     * Exit when the coordinator closes the standard input, e.g. because it died
+     */
+    private static void exitWithParent() {
+        try {
+            while (System.in.read() >= 0) {
+                // nothing is sent on the standard input
+            }
+        } catch (IOException e) {
+            // the coordinator is gone as well
+        }
+        System.exit(0);
+    }
+}
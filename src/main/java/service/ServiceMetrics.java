@@ -0,0 +1,118 @@
+package service;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters of the annotation service. Request latencies are kept in a histogram of power of two microsecond buckets,
+ * so recording is lock free and the percentiles are exact to a factor of two.
+ */
+public class ServiceMetrics {
+
+    private static final int BUCKETS = 40;
+
+    private final long startNanos = System.nanoTime();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong features = new AtomicLong();
+    private final AtomicLong annotations = new AtomicLong();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+    private final AtomicLongArray latencies = new AtomicLongArray(BUCKETS);
+
+    void started() {
+        inFlight.incrementAndGet();
+    }
+
+    /**
+     * @param latencyNanos time from the start of the request to its response
+     * @param features     features of the request
+     * @param annotations  annotations returned
+     * @param failed       whether the request was answered with an error
+     */
+    void finished(long latencyNanos, int features, int annotations, boolean failed) {
+        inFlight.decrementAndGet();
+        requests.incrementAndGet();
+        if (failed) {
+            errors.incrementAndGet();
+        }
+        this.features.addAndGet(features);
+        this.annotations.addAndGet(annotations);
+        maxLatencyNanos.accumulateAndGet(latencyNanos, Math::max);
+        long micros = Math.max(1, TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+        latencies.incrementAndGet(Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(micros)));
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getErrors() {
+        return errors.get();
+    }
+
+    public long getFeatures() {
+        return features.get();
+    }
+
+    public long getAnnotations() {
+        return annotations.get();
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * @param quantile between 0 and 1, e.g. 0.99
+     * @return upper bound of the latency of that quantile of the requests, in milliseconds. 0 without requests
+     */
+    public double getLatencyMillis(double quantile) {
+        long total = 0;
+        long[] counts = new long[BUCKETS];
+        for (int b = 0; b < BUCKETS; b++) {
+            counts[b] = latencies.get(b);
+            total += counts[b];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += counts[b];
+            if (seen >= rank && counts[b] > 0) {
+                return Math.min((1L << (b + 1)) / 1000.0, getMaxLatencyMillis());
+            }
+        }
+        return getMaxLatencyMillis();
+    }
+
+    public double getMaxLatencyMillis() {
+        return maxLatencyNanos.get() / 1e6;
+    }
+
+    /**
+     * @return features annotated per second since the service started
+     */
+    public double getThroughput() {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        return seconds > 0 ? features.get() / seconds : 0;
+    }
+
+    String toJson() {
+        StringBuilder out = new StringBuilder("{\"requests\":").append(getRequests())
+                .append(",\"errors\":").append(getErrors())
+                .append(",\"inFlight\":").append(getInFlight())
+                .append(",\"features\":").append(getFeatures())
+                .append(",\"annotations\":").append(getAnnotations())
+                .append(",\"latencyMillis\":{\"p50\":");
+        Json.number(out, getLatencyMillis(0.5)).append(",\"p95\":");
+        Json.number(out, getLatencyMillis(0.95)).append(",\"p99\":");
+        Json.number(out, getLatencyMillis(0.99)).append(",\"max\":");
+        Json.number(out, getMaxLatencyMillis()).append("},\"featuresPerSecond\":");
+        return Json.number(out, getThroughput()).append('}').toString();
+    }
+}
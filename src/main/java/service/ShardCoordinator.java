@@ -0,0 +1,308 @@
+package service;
+
+import lipid.Annotation;
+import lipid.Lipid;
+import lipid.LipidKey;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * Scores a cohort over several local {@link ScoringWorker} processes, so the rules are not bound to one JVM. The
+ * elution rules only join annotations with the same key under one of {@link LipidKey#RULE_JOINS}, so for each of
+ * these keys in turn the annotations are grouped by key, the groups are balanced over one shard per worker and the
+ * shards are scored in parallel. The scores returned are added to the annotations once every shard has been scored.
+ * <p>
+ * A shard whose worker fails (the process dies, the connection breaks or it does not answer in time) is sent again to
+ * a new worker process, up to {@link #MAX_ATTEMPTS} times. Workers are started with the classpath of this JVM and
+ * only listen on the loopback interface. Not thread safe.
+ */
+public class ShardCoordinator implements AutoCloseable {
+
+    public static final int MAX_ATTEMPTS = 3;
+
+    private final int timeoutMillis;
+    private final String workerClass;
+    private final Worker[] workers;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final AtomicInteger retries = new AtomicInteger();
+
+    /**
+     * @param workers number of worker processes
+     */
+    public ShardCoordinator(int workers) throws IOException {
+        this(workers, 60_000);
+    }
+
+    /**
+     * @param workers       number of worker processes
+     * @param timeoutMillis time a worker has to answer a shard before it is considered failed
+     */
+    public ShardCoordinator(int workers, int timeoutMillis) throws IOException {
+        this(workers, timeoutMillis, ScoringWorker.class.getName());
+    }
+
+    /**
+     * @param workerClass main class of the worker processes, speaking the protocol of {@link ScoringWorker}
+     */
+    ShardCoordinator(int workers, int timeoutMillis, String workerClass) throws IOException {
+        if (workers <= 0 || timeoutMillis <= 0) {
+            throw new IllegalArgumentException("Invalid coordinator: " + workers + " workers, " + timeoutMillis + " ms");
+        }
+        this.timeoutMillis = timeoutMillis;
+        this.workerClass = workerClass;
+        this.workers = new Worker[workers];
+        try {
+            for (int w = 0; w < workers; w++) {
+                this.workers[w] = new Worker(timeoutMillis, workerClass);
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Score the annotations with the rules, as one {@link lipid.LipidScoreUnit} firing all of them would
+     *
+     * @throws IOException if a shard failed in every attempt. No score is added to the annotations then
+     */
+    public void score(Collection<Annotation> annotations) throws IOException {
+        Annotation[] all = annotations.toArray(new Annotation[0]);
+        List<Shard> scoredShards = new ArrayList<>();
+        List<int[]> shardScores = new ArrayList<>();
+        for (LongUnaryOperator join : LipidKey.RULE_JOINS) {
+            List<Shard> shards = shard(all, join);
+            List<Future<int[]>> results = new ArrayList<>(shards.size());
+            for (int w = 0; w < shards.size(); w++) {
+                int worker = w;
+                results.add(executor.submit(() -> score(worker, shards.get(worker), all)));
+            }
+            for (int w = 0; w < shards.size(); w++) {
+                shardScores.add(get(results.get(w)));
+                scoredShards.add(shards.get(w));
+            }
+        }
+        // only applied once every shard succeeded, so a failed call leaves the annotations as they were
+        for (int s = 0; s < scoredShards.size(); s++) {
+            int[] scores = shardScores.get(s);
+            int[] indices = scoredShards.get(s).indices;
+            for (int i = 0; i < indices.length; i++) {
+                all[indices[i]].addScores(scores[2 * i], scores[2 * i + 1]);
+            }
+        }
+    }
+
+    /**
+     * @return number of shards sent again after a worker failed
+     */
+    public int getRetries() {
+        return retries.get();
+    }
+
+    public int getWorkers() {
+        return workers.length;
+    }
+
+    /**
+     * Kill a worker process, to test the retries
+     */
+    void killWorker(int worker) {
+        workers[worker].process.destroyForcibly();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        for (Worker worker : workers) {
+            if (worker != null) {
+                worker.close();
+            }
+        }
+    }
+
+    /**
+     * Group the annotations with more than one annotation per key and assign every group to the least loaded shard,
+     * the largest groups first
+     */
+    private List<Shard> shard(Annotation[] annotations, LongUnaryOperator join) {
+        Map<Long, List<Integer>> groups = new HashMap<>();
+        for (int i = 0; i < annotations.length; i++) {
+            groups.computeIfAbsent(join.applyAsLong(annotations[i].getLipid().getKey()), key -> new ArrayList<>()).add(i);
+        }
+        List<List<Integer>> sorted = new ArrayList<>();
+        for (List<Integer> group : groups.values()) {
+            if (group.size() > 1) {
+                sorted.add(group);
+            }
+        }
+        sorted.sort((a, b) -> Integer.compare(b.size(), a.size()));
+        List<List<List<Integer>>> assigned = new ArrayList<>();
+        int[] loads = new int[workers.length];
+        for (int w = 0; w < workers.length; w++) {
+            assigned.add(new ArrayList<>());
+        }
+        for (List<Integer> group : sorted) {
+            int lightest = 0;
+            for (int w = 1; w < loads.length; w++) {
+                if (loads[w] < loads[lightest]) {
+                    lightest = w;
+                }
+            }
+            assigned.get(lightest).add(group);
+            loads[lightest] += group.size();
+        }
+        List<Shard> shards = new ArrayList<>(workers.length);
+        for (int w = 0; w < workers.length; w++) {
+            shards.add(new Shard(assigned.get(w), loads[w]));
+        }
+        return shards;
+    }
+
+    /**
+     * Score a shard on its worker, starting a new worker process after every failure
+     */
+    private int[] score(int worker, Shard shard, Annotation[] annotations) throws IOException {
+        if (shard.indices.length == 0) {
+            return new int[0];
+        }
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return workers[worker].score(shard, annotations);
+            } catch (IOException e) {
+                workers[worker].close();
+                if (attempt == MAX_ATTEMPTS) {
+                    throw new IOException("Shard of " + shard.indices.length + " annotations failed " + attempt + " times", e);
+                }
+                retries.incrementAndGet();
+                workers[worker] = new Worker(timeoutMillis, workerClass);
+            }
+        }
+    }
+
+    private static int[] get(Future<int[]> result) throws IOException {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while scoring", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException("Shard failed", e.getCause());
+        }
+    }
+
+    /**
+     * Indices of the annotations of a shard and the id of their group, with the groups one after the other
+     */
+    private static final class Shard {
+        private final int[] indices;
+        private final int[] partitions;
+
+        private Shard(List<List<Integer>> groups, int size) {
+            this.indices = new int[size];
+            this.partitions = new int[size];
+            int i = 0;
+            for (int g = 0; g < groups.size(); g++) {
+                for (int index : groups.get(g)) {
+                    indices[i] = index;
+                    partitions[i++] = g;
+                }
+            }
+        }
+    }
+
+    /**
+     * A worker process and the connection to it
+     */
+    private static final class Worker {
+        private final Process process;
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+
+        private Worker(int timeoutMillis, String workerClass) throws IOException {
+            String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+            this.process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), workerClass)
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+            try {
+                String port = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.US_ASCII))
+                        .readLine();
+                if (port == null) {
+                    throw new IOException("Worker exited before listening: " + process.waitFor());
+                }
+                this.socket = new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(port.trim()));
+                socket.setSoTimeout(timeoutMillis);
+                this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            } catch (IOException | RuntimeException e) {
+                process.destroyForcibly();
+                throw e;
+            } catch (InterruptedException e) {
+                process.destroyForcibly();
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while starting a worker", e);
+            }
+        }
+
+        /**
+         * @return score and number of scores applied of every annotation of the shard
+         */
+        private int[] score(Shard shard, Annotation[] annotations) throws IOException {
+            out.writeInt(shard.indices.length);
+            for (int i = 0; i < shard.indices.length; i++) {
+                Annotation annotation = annotations[shard.indices[i]];
+                Lipid lipid = annotation.getLipid();
+                out.writeInt(shard.partitions[i]);
+                out.writeInt(lipid.getCompoundId());
+                out.writeByte(lipid.getLipidType() == null ? -1 : lipid.getLipidType().ordinal());
+                out.writeInt(lipid.getCarbonCount());
+                out.writeInt(lipid.getDoubleBondsCount());
+                out.writeDouble(annotation.getMz());
+                out.writeDouble(annotation.getRtMin());
+            }
+            out.flush();
+            int count = in.readInt();
+            if (count != shard.indices.length) {
+                throw new IOException("Worker answered " + count + " scores for " + shard.indices.length + " annotations");
+            }
+            int[] scores = new int[2 * count];
+            for (int i = 0; i < scores.length; i++) {
+                scores[i] = in.readInt();
+            }
+            return scores;
+        }
+
+        private void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // the process is killed anyway
+            }
+            process.destroyForcibly();
+        }
+    }
+}
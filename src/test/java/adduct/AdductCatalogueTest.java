@@ -0,0 +1,116 @@
+package adduct;
+
+import lipid.AdductDetector;
+import lipid.Ionization;
+import lipid.Peak;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AdductCatalogueTest {
+
+    private static final String ACETATE = "# name\tmass delta\tcharge\tmultimer\tpolarity\n"
+            + "[M+H]+\t-1.007276\t1\t1\t+\n"
+            + "\n"
+            + "[M-H]−\t1.007276\t1\t1\t-\n"
+            + "[M+CH3COO]−, -59.013851, 1, 1, -\n";
+
+    @After
+    public void restoreDefaultCatalogue() {
+        AdductCatalogue.install(AdductCatalogue.DEFAULT);
+    }
+
+    /**
+     * mz to monoisotopic mass and back gives the same mz for every adduct, with the charge and multimer of the
+     * catalogue columns.
+     */
+    @Test
+    public void shouldConvertMassesBackToMz() throws IOException {
+        AdductCatalogue file = AdductCatalogue.parse(new StringReader(ACETATE + "[2M-2H]2−\t2.014552\t2\t2\t-\n"), "dimers");
+        for (AdductCatalogue catalogue : new AdductCatalogue[]{AdductCatalogue.DEFAULT, file}) {
+            AdductCatalogue.install(catalogue);
+            for (AdductTable adducts : new AdductTable[]{catalogue.getPositive(), catalogue.getNegative()}) {
+                for (int a = 0; a < adducts.size(); a++) {
+                    String adduct = adducts.getName(a);
+                    double mass = Adduct.getMonoisotopicMassFromMZ(700.5, adduct);
+                    assertEquals(adduct, 700.5, Adduct.getMZFromMonoisotopicMass(mass, adduct), 1e-9);
+                    assertEquals(adduct, 700.5, adducts.getMz(a, adducts.getMonoisotopicMass(a, 700.5)), 1e-9);
+                }
+            }
+        }
+        assertEquals(2, AdductTable.NEGATIVE.getCharge(AdductTable.NEGATIVE.indexOf("[M-2H]2−")));
+    }
+
+    @Test
+    public void shouldParseCatalogueFile() throws IOException {
+        AdductCatalogue catalogue = AdductCatalogue.parse(new StringReader(ACETATE), "acetate");
+
+        assertEquals(1, catalogue.getPositive().size());
+        assertEquals(2, catalogue.getNegative().size());
+        AdductTable negative = catalogue.getNegative();
+        assertEquals(1, negative.indexOf("[M+CH3COO]−"));
+        assertEquals(759.5778, negative.getMonoisotopicMass(1, 818.5917), 1e-3);
+        assertSame(negative, catalogue.tableOf("[M+CH3COO]−"));
+        assertNull(catalogue.tableOf("[M+Na]+"));
+    }
+
+    @Test
+    public void shouldReportLineOfInvalidAdduct() throws IOException {
+        try {
+            AdductCatalogue.parse(new StringReader("[M+H]+\t-1.007276\t1\t1\t+\n[M+Na]+\t-22.989218\t0\t1\t+\n"), "bad");
+            fail("Invalid charge accepted");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("bad:2:"));
+        }
+    }
+
+    @Test
+    public void shouldDetectWithInstalledCatalogue() throws IOException {
+        // PC 34:1 as [M-H]− and acetate adduct
+        Set<Peak> peaks = Set.of(new Peak(758.5705, 100000.0), new Peak(818.5917, 80000.0));
+        AdductDetector detector = AdductDetector.byName("native");
+        assertNull(detector.detectAdduct(818.5917, peaks, Ionization.NEGATIVE));
+
+        AdductCatalogue previous = AdductCatalogue.install(AdductCatalogue.parse(new StringReader(ACETATE), "acetate"));
+
+        assertSame(AdductCatalogue.DEFAULT, previous);
+        assertEquals("[M+CH3COO]−", detector.detectAdduct(818.5917, peaks, Ionization.NEGATIVE));
+        assertEquals(759.5778, Adduct.getMonoisotopicMassFromMZ(818.5917, "[M+CH3COO]−"), 1e-3);
+    }
+
+    @Test
+    public void shouldKeepPreviousCatalogueWhenReloadFails() throws IOException {
+        Path file = Files.createTempFile("adducts", ".tsv");
+        try {
+            Files.writeString(file, ACETATE);
+            try (AdductCatalogueWatcher watcher = AdductCatalogueWatcher.start(file)) {
+                AdductCatalogue loaded = AdductCatalogue.current();
+                assertEquals(2, loaded.getNegative().size());
+
+                Files.writeString(file, "[M+H]+\t-1.007276\n");
+                assertFalse(watcher.reload());
+                assertSame(loaded, AdductCatalogue.current());
+                assertNotNull(watcher.getLastError());
+
+                Files.writeString(file, ACETATE + "[M+Na]+\t-22.989218\t1\t1\t+\n");
+                assertTrue(watcher.reload());
+                assertEquals(2, AdductCatalogue.current().getPositive().size());
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
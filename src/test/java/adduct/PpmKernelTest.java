@@ -0,0 +1,80 @@
+package adduct;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class PpmKernelTest {
+
+    /**
+     * The default kernel, vectorized or not, gives the same ppm bit for bit as the scalar kernel, tails included.
+     */
+    @Test
+    public void shouldComputeTheSamePpmAsTheScalarKernel() {
+        Random random = new Random(7);
+        double[] experimental = new double[1003];
+        double[] theoretical = new double[experimental.length];
+        for (int i = 0; i < experimental.length; i++) {
+            theoretical[i] = 100 + random.nextDouble() * 1000;
+            experimental[i] = theoretical[i] * (1 + (random.nextDouble() - 0.5) * 1e-4);
+        }
+        double[] expected = new double[experimental.length];
+        double[] ppm = new double[experimental.length];
+
+        PpmKernel.byName("scalar").ppmIncrements(experimental, theoretical, expected, experimental.length);
+        PpmKernel.get().ppmIncrements(experimental, theoretical, ppm, experimental.length);
+
+        assertArrayEquals(expected, ppm, 0);
+        assertEquals(Math.abs((experimental[5] - theoretical[5]) * 1000000 / theoretical[5]), ppm[5], 0);
+    }
+
+    /**
+     * With the rounded tolerance the matches are the ones of calculatePPMIncrement, in both directions.
+     */
+    @Test
+    public void shouldMatchLikeCalculatePPMIncrement() {
+        Random random = new Random(11);
+        double[] masses = new double[517];
+        for (int i = 0; i < masses.length; i++) {
+            masses[i] = 700 + random.nextDouble() * 0.05;
+        }
+        double query = 700.025;
+        int tolerance = 10;
+        double maxPpm = PpmKernel.roundedTolerance(tolerance);
+
+        for (PpmKernel kernel : new PpmKernel[]{PpmKernel.byName("scalar"), PpmKernel.get()}) {
+            int[] matches = new int[masses.length];
+            int count = kernel.withinTolerance(query, masses, 3, masses.length, maxPpm, matches);
+            int expected = 0;
+            for (int i = 3; i < masses.length; i++) {
+                if (Adduct.calculatePPMIncrement(query, masses[i]) <= tolerance) {
+                    assertEquals(i, matches[expected++]);
+                }
+            }
+            assertEquals(expected, count);
+
+            count = kernel.withinTolerance(masses, 0, masses.length - 2, query, maxPpm, matches);
+            expected = 0;
+            for (int i = 0; i < masses.length - 2; i++) {
+                if (Adduct.calculatePPMIncrement(masses[i], query) <= tolerance) {
+                    assertEquals(i, matches[expected++]);
+                }
+            }
+            assertEquals(expected, count);
+        }
+    }
+
+    @Test
+    public void shouldRoundTheToleranceLikeMathRound() {
+        assertEquals(10, Math.round(PpmKernel.roundedTolerance(10)));
+        assertEquals(11, Math.round(Math.nextUp(PpmKernel.roundedTolerance(10))));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectUnknownKernels() {
+        PpmKernel.byName("gpu");
+    }
+}
@@ -0,0 +1,56 @@
+package alignment;
+
+import lipid.Annotation;
+import lipid.Ionization;
+import lipid.Lipid;
+import lipid.LipidType;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RetentionTimeAlignerTest {
+
+    @Test
+    public void shouldAlignShiftedRunOntoReference() {
+        List<Annotation> reference = new ArrayList<>();
+        List<Annotation> shifted = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Lipid lipid = new Lipid(i, "PC " + (30 + i) + ":0", "C", LipidType.PC, 30 + i, 0);
+            double mz = 600 + i * 14.01565;
+            double rt = 2 + i;
+            reference.add(new Annotation(lipid, mz, 10000, rt, Ionization.POSITVE));
+            shifted.add(new Annotation(lipid, mz, 10000, rt + 0.5, Ionization.POSITVE));
+        }
+        reference.add(new Annotation(new Lipid(99, "PC 40:0", "C", LipidType.PC, 40, 0), 900, 10000, 15, Ionization.POSITVE));
+
+        List<List<Annotation>> aligned = new RetentionTimeAligner(10, 1).align(List.of(shifted, reference));
+
+        assertSame(reference.get(0), aligned.get(1).get(0));
+        for (int i = 0; i < shifted.size(); i++) {
+            assertEquals(reference.get(i).getRtMin(), aligned.get(0).get(i).getRtMin(), 1e-9);
+            assertEquals(shifted.get(i).getMz(), aligned.get(0).get(i).getMz(), 1e-9);
+        }
+    }
+
+    @Test
+    public void shouldFitNonDecreasingWarp() {
+        double[] rt = {1, 2, 3, 4, 5};
+        double[] referenceRt = {1.1, 2.3, 2.1, 4.2, 5.0};
+
+        MonotoneWarp warp = MonotoneWarp.fit(rt, referenceRt, rt.length);
+
+        double previous = Double.NEGATIVE_INFINITY;
+        for (double t = 0; t <= 6; t += 0.05) {
+            double mapped = warp.apply(t);
+            assertTrue(mapped >= previous);
+            previous = mapped;
+        }
+        assertEquals(2.2, warp.apply(2.5), 1e-9);
+        assertEquals(6.0, warp.apply(6), 1e-9);
+    }
+}
@@ -0,0 +1,59 @@
+package lipid;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class AdductDetectorTest {
+
+    private final AdductDetector nativeDetector = AdductDetector.byName("native");
+    private final AdductDetector ruleDetector = AdductDetector.byName("rules");
+
+    @Test
+    public void shouldDetectSameAdductsAsPairwiseComparison() {
+        assertDetected("[M+H]+", 700.49999d, Set.of(new Peak(700.500, 100000.0), new Peak(722.482, 80000.0)), Ionization.POSITVE);
+        assertDetected("[M+H]+", 700.500, Set.of(new Peak(700.500, 90000.0), new Peak(682.4894, 70000.0)), Ionization.POSITVE);
+        assertDetected("[M+2H]2+", 350.753, Set.of(new Peak(700.500, 100000.0), new Peak(722.489, 80000.0),
+                new Peak(350.753, 85000.0), new Peak(682.489, 70000.0)), Ionization.POSITVE);
+        assertDetected("[M-H]−", 700.49999d, Set.of(new Peak(700.500, 100000.0), new Peak(736.4767, 80000.0)), Ionization.NEGATIVE);
+        assertDetected("[2M-H]−", 699.4927, Set.of(new Peak(349.2427, 80000.0), new Peak(331.2321, 60000.0),
+                new Peak(385.2190, 55000.0), new Peak(395.2480, 58000.0), new Peak(699.4927, 70000.0)), Ionization.NEGATIVE);
+    }
+
+    @Test
+    public void shouldNotDetectAdductWithoutSupportingPeak() {
+        assertDetected(null, 700.5, Set.of(new Peak(700.5, 100000.0)), Ionization.POSITVE);
+        assertDetected(null, 700.5, Set.of(new Peak(700.5, 100000.0), new Peak(800.0, 50000.0)), Ionization.POSITVE);
+    }
+
+    /**
+     * The rule detector detects all the annotations of a run with a single fire
+     */
+    @Test
+    public void shouldDetectAllAnnotationsOfARunTogether() {
+        Lipid lipid = new Lipid(1, "PC 34:1", "C42H82NO8P", LipidType.PC, 34, 1);
+        List<Annotation> run = new ArrayList<>();
+        run.add(new Annotation(lipid, 700.49999d, 80000.0, 6.5d, Set.of(new Peak(700.500, 100000.0), new Peak(722.482, 80000.0)), Ionization.POSITVE, null));
+        run.add(new Annotation(lipid, 700.49999d, 95000.0, 6.8d, Set.of(new Peak(700.500, 100000.0), new Peak(736.4767, 80000.0)), Ionization.NEGATIVE, null));
+
+        ruleDetector.detectAdducts(run);
+
+        assertEquals("[M+H]+", run.get(0).getAdduct());
+        assertEquals("[M-H]−", run.get(1).getAdduct());
+    }
+
+    private void assertDetected(String expected, double mz, Set<Peak> peaks, Ionization ionization) {
+        assertEquals("native", expected, nativeDetector.detectAdduct(mz, peaks, ionization));
+        assertEquals("rules", expected, ruleDetector.detectAdduct(mz, peaks, ionization));
+        if (expected != null) {
+            assertEquals("loop", expected, Annotation.detectAdduct(mz, peaks, ionization));
+        } else {
+            assertNull("loop", Annotation.detectAdduct(mz, peaks, ionization));
+        }
+    }
+}
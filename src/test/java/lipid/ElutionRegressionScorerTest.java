@@ -0,0 +1,106 @@
+package lipid;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ElutionRegressionScorerTest {
+
+    /**
+     * RT of a lipid of the class eluting 0.5 minutes later per carbon and 0.8 minutes earlier per double bond
+     */
+    private static double expectedRt(int carbons, int doubleBonds) {
+        return 2 + 0.5 * carbons - 0.8 * doubleBonds;
+    }
+
+    private static Annotation annotation(LipidType type, int carbons, int doubleBonds, double rt) {
+        Lipid lipid = new Lipid(carbons * 100 + doubleBonds, type + " " + carbons + ":" + doubleBonds, "C" + carbons + "H60O6",
+                type, carbons, doubleBonds);
+        return new Annotation(lipid, 500 + carbons, 1E5, rt, Ionization.POSITVE);
+    }
+
+    /**
+     * Misannotations far from the regression are downweighted, so the slopes stay close to the real ones, and they
+     * score below the annotations on the regression.
+     */
+    @Test
+    public void shouldFitTheSlopesDespiteMisannotations() {
+        ElutionRegressionScorer scorer = new ElutionRegressionScorer();
+        Random random = new Random(3);
+        for (int i = 0; i < 2000; i++) {
+            int carbons = 28 + random.nextInt(20);
+            int doubleBonds = random.nextInt(7);
+            double rt = expectedRt(carbons, doubleBonds) + random.nextGaussian() * 0.05;
+            if (i > 20 && i % 10 == 0) {
+                rt = 1 + random.nextDouble() * 30; // misannotation
+            }
+            scorer.accept(annotation(LipidType.PC, carbons, doubleBonds, rt));
+        }
+
+        double[] coefficients = scorer.getCoefficients(LipidType.PC);
+        assertEquals(0.5, coefficients[1], 0.02);
+        assertEquals(-0.8, coefficients[2], 0.05);
+
+        Annotation onRegression = annotation(LipidType.PC, 36, 2, expectedRt(36, 2));
+        Annotation misannotated = annotation(LipidType.PC, 36, 2, expectedRt(36, 2) + 4);
+        assertTrue(scorer.score(onRegression) > 0.9);
+        assertEquals(-1, scorer.score(misannotated), 0.001);
+        assertEquals(4, scorer.residual(misannotated), 0.2);
+    }
+
+    /**
+     * Misannotations shifted by minutes do not inflate the scale, so an annotation a few minutes off is still an
+     * outlier and scores -1.
+     */
+    @Test
+    public void shouldKeepTheScaleDespiteMisannotations() {
+        ElutionRegressionScorer scorer = new ElutionRegressionScorer();
+        Random random = new Random(7);
+        for (int i = 0; i < 2000; i++) {
+            int carbons = 28 + random.nextInt(20);
+            int doubleBonds = random.nextInt(7);
+            double rt = expectedRt(carbons, doubleBonds) + random.nextGaussian() * 0.05;
+            if (i > 20 && i % 10 == 0) {
+                rt += random.nextBoolean() ? 8 : -8; // misannotation
+            }
+            scorer.accept(annotation(LipidType.PC, carbons, doubleBonds, rt));
+        }
+
+        assertEquals(0.05, scorer.getScale(LipidType.PC), 0.015);
+        assertEquals(-1, scorer.score(annotation(LipidType.PC, 36, 2, expectedRt(36, 2) + 8)), 0.001);
+        assertEquals(-1, scorer.score(annotation(LipidType.PC, 36, 2, expectedRt(36, 2) - 3)), 0.001);
+        assertTrue(scorer.score(annotation(LipidType.PC, 36, 2, expectedRt(36, 2))) > 0.9);
+    }
+
+    @Test
+    public void shouldFitEveryLipidTypeSeparately() {
+        ElutionRegressionScorer scorer = new ElutionRegressionScorer();
+        for (int carbons = 30; carbons < 40; carbons++) {
+            scorer.accept(annotation(LipidType.PC, carbons, 1, expectedRt(carbons, 1)));
+            scorer.accept(annotation(LipidType.TG, carbons, 1, 20 - carbons * 0.1));
+        }
+
+        assertEquals(10, scorer.size(LipidType.PC));
+        assertEquals(0.5, scorer.getCoefficients(LipidType.PC)[1], 0.001);
+        assertEquals(-0.1, scorer.getCoefficients(LipidType.TG)[1], 0.001);
+        // every annotation has one double bond, so the fit does not depend on them
+        assertEquals(0, scorer.getCoefficients(LipidType.PC)[2], 0.001);
+        assertEquals(1, scorer.score(annotation(LipidType.TG, 35, 1, 16.5)), 0.001);
+    }
+
+    @Test
+    public void shouldNotScoreClassesWithTooFewAnnotations() {
+        ElutionRegressionScorer scorer = new ElutionRegressionScorer();
+        for (int carbons = 30; carbons < 30 + ElutionRegressionScorer.MIN_ANNOTATIONS - 1; carbons++) {
+            scorer.accept(annotation(LipidType.PE, carbons, 0, expectedRt(carbons, 0)));
+        }
+
+        assertNull(scorer.getCoefficients(LipidType.PE));
+        assertTrue(Double.isNaN(scorer.score(annotation(LipidType.PE, 34, 0, 19))));
+        assertTrue(Double.isNaN(scorer.residual(annotation(LipidType.PG, 34, 0, 19))));
+    }
+}
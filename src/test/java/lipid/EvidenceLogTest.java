@@ -0,0 +1,208 @@
+package lipid;
+
+import org.drools.ruleunits.api.RuleUnitInstance;
+import org.drools.ruleunits.api.RuleUnitProvider;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class EvidenceLogTest {
+
+    private final Lipid lipid1 = new Lipid(1, "TG 54:3", "C57H104O6", LipidType.TG, 54, 3);
+    private final Lipid lipid2 = new Lipid(2, "TG 52:3", "C55H100O6", LipidType.TG, 52, 3);
+    private final Lipid lipid3 = new Lipid(3, "TG 56:3", "C59H108O6", LipidType.TG, 56, 3);
+
+    /**
+     * The evidence of every annotation explains its score: one item per pair the rules scored it in.
+     */
+    @Test
+    public void shouldExplainTheScoresOfTheRules() {
+        EvidenceLog evidence = new EvidenceLog(1000);
+        LipidScoreUnit lipidScoreUnit = new LipidScoreUnit(evidence);
+        RuleUnitInstance<LipidScoreUnit> instance = RuleUnitProvider.get().createRuleUnitInstance(lipidScoreUnit);
+        Annotation annotation1 = new Annotation(lipid1, 885.79056, 10E6, 10d, Ionization.POSITVE);
+        Annotation annotation2 = new Annotation(lipid2, 857.7593, 10E7, 9d, Ionization.POSITVE);
+        Annotation annotation3 = new Annotation(lipid3, 913.822, 10E5, 11d, Ionization.POSITVE);
+        try {
+            lipidScoreUnit.getAnnotations().add(annotation1);
+            lipidScoreUnit.getAnnotations().add(annotation2);
+            lipidScoreUnit.getAnnotations().add(annotation3);
+            instance.fire();
+        } finally {
+            instance.close();
+        }
+
+        assertEquals(3, evidence.size());
+        EvidenceLog.Snapshot snapshot = evidence.snapshot();
+        assertEquals(3, snapshot.annotations());
+        for (Annotation annotation : List.of(annotation1, annotation2, annotation3)) {
+            EvidenceLog.View view = snapshot.of(annotation);
+            assertEquals(annotation.getTotalScoresApplied(), view.size());
+            assertEquals(annotation.getScore(), view.score());
+            for (int item = 0; item < view.size(); item++) {
+                assertEquals(EvidenceLog.CARBON_RULE, view.rule(item));
+                assertEquals(1, view.delta(item));
+                assertTrue(view.getPartner(item) != annotation);
+            }
+        }
+        assertEquals(0, snapshot.of(new Annotation(lipid1, 885.79056, 10E6, 10d, Ionization.POSITVE)).size());
+    }
+
+    /**
+     * Scoring the same annotations in two units keeps the evidence of each log apart, whatever log came last.
+     */
+    @Test
+    public void shouldKeepTheIndicesOfEachLog() {
+        Annotation annotation1 = new Annotation(lipid1, 885.79056, 10E6, 10d, Ionization.POSITVE);
+        Annotation annotation2 = new Annotation(lipid2, 857.7593, 10E7, 9d, Ionization.POSITVE);
+        Annotation annotation3 = new Annotation(lipid3, 913.822, 10E5, 11d, Ionization.POSITVE);
+        EvidenceLog first = new EvidenceLog(1000);
+        EvidenceLog second = new EvidenceLog(1000);
+        // the second log sees the annotations in another order, so their indices differ from the first one
+        first.record(annotation1, annotation2, EvidenceLog.CARBON_RULE, 1);
+        second.record(annotation3, annotation2, EvidenceLog.CARBON_RULE, 1);
+        for (EvidenceLog evidence : List.of(first, second)) {
+            LipidScoreUnit lipidScoreUnit = new LipidScoreUnit(evidence);
+            RuleUnitInstance<LipidScoreUnit> instance = RuleUnitProvider.get().createRuleUnitInstance(lipidScoreUnit);
+            try {
+                lipidScoreUnit.getAnnotations().add(annotation1);
+                lipidScoreUnit.getAnnotations().add(annotation2);
+                lipidScoreUnit.getAnnotations().add(annotation3);
+                instance.fire();
+            } finally {
+                instance.close();
+            }
+        }
+        first.record(annotation3, annotation1, EvidenceLog.LIPID_TYPE_RULE, -1);
+
+        assertEquals(5, first.size());
+        assertEquals(4, second.size());
+        EvidenceLog.Snapshot firstSnapshot = first.snapshot();
+        EvidenceLog.Snapshot secondSnapshot = second.snapshot();
+        for (Annotation annotation : List.of(annotation1, annotation2, annotation3)) {
+            assertSame(annotation, first.getAnnotation(first.indexOf(annotation)));
+            assertSame(annotation, second.getAnnotation(second.indexOf(annotation)));
+            for (EvidenceLog.View view : List.of(firstSnapshot.of(annotation), secondSnapshot.of(annotation))) {
+                for (int item = 0; item < view.size(); item++) {
+                    assertTrue(view.getPartner(item) != annotation);
+                }
+            }
+        }
+        assertEquals(4, firstSnapshot.of(annotation1).size());
+        assertEquals(2, firstSnapshot.of(annotation1).score());
+        assertEquals(3, firstSnapshot.of(annotation2).size());
+        assertEquals(3, firstSnapshot.of(annotation2).score());
+        assertEquals(3, firstSnapshot.of(annotation3).size());
+        assertEquals(1, firstSnapshot.of(annotation3).score());
+        assertEquals(2, secondSnapshot.of(annotation1).size());
+        assertEquals(2, secondSnapshot.of(annotation1).score());
+        assertEquals(3, secondSnapshot.of(annotation2).size());
+        assertEquals(3, secondSnapshot.of(annotation2).score());
+        assertEquals(3, secondSnapshot.of(annotation3).size());
+        assertEquals(3, secondSnapshot.of(annotation3).score());
+    }
+
+    @Test
+    public void shouldNotRecordWithoutLog() {
+        Annotation annotation1 = new Annotation(lipid1, 885.79056, 10E6, 10d, Ionization.POSITVE);
+        Annotation annotation2 = new Annotation(lipid2, 857.7593, 10E7, 9d, Ionization.POSITVE);
+
+        assertSame(EvidenceLog.DISABLED, new LipidScoreUnit().getEvidence());
+        assertFalse(EvidenceLog.DISABLED.record(annotation1, annotation2, EvidenceLog.CARBON_RULE, 1));
+        assertEquals(0, EvidenceLog.DISABLED.size());
+        assertEquals(0, EvidenceLog.DISABLED.snapshot().of(annotation1).size());
+    }
+
+    /**
+     * Threads appending at the same time lose no entry, and the entries beyond the capacity are counted as dropped.
+     */
+    @Test
+    public void shouldAppendConcurrently() throws InterruptedException {
+        int threads = 4;
+        int perThread = 50_000;
+        int capacity = 150_000;
+        EvidenceLog evidence = new EvidenceLog(capacity);
+        List<Annotation> annotations = new ArrayList<>();
+        for (int a = 0; a < threads; a++) {
+            annotations.add(new Annotation(lipid1, 885.79056, 10E6, 10d + a, Ionization.POSITVE));
+        }
+        Annotation partner = new Annotation(lipid2, 857.7593, 10E7, 9d, Ionization.POSITVE);
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Annotation annotation = annotations.get(t);
+            int delta = t % 2 == 0 ? 1 : -1;
+            writers.add(Thread.ofPlatform().start(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    evidence.record(annotation, partner, EvidenceLog.LIPID_TYPE_RULE, delta);
+                }
+            }));
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        assertEquals(capacity, evidence.size());
+        assertEquals(threads * perThread - capacity, evidence.getDropped());
+        EvidenceLog.Snapshot snapshot = evidence.snapshot();
+        assertEquals(threads + 1, snapshot.annotations());
+        int kept = 0;
+        int score = 0;
+        for (Annotation annotation : annotations) {
+            EvidenceLog.View view = snapshot.of(annotation);
+            kept += view.size();
+            score += view.score();
+            for (int item = 0; item < view.size(); item++) {
+                assertSame(partner, view.getPartner(item));
+                assertEquals(EvidenceLog.LIPID_TYPE_RULE, view.rule(item));
+            }
+        }
+        assertEquals(capacity, kept);
+        assertEquals(capacity, snapshot.of(partner).size());
+        assertEquals(score, snapshot.of(partner).score());
+    }
+
+    /**
+     * Snapshots taken while writers log new annotations only group the entries of annotations they know of.
+     */
+    @Test
+    public void shouldSnapshotWhileLogging() throws InterruptedException {
+        int threads = 4;
+        int perThread = 20_000;
+        EvidenceLog evidence = new EvidenceLog(threads * perThread);
+        Annotation partner = new Annotation(lipid2, 857.7593, 10E7, 9d, Ionization.POSITVE);
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            writers.add(Thread.ofPlatform().start(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    Annotation annotation = new Annotation(lipid1, 885.79056, 10E6, thread * perThread + i,
+                            Ionization.POSITVE);
+                    evidence.record(annotation, partner, EvidenceLog.CARBON_RULE, 1);
+                }
+            }));
+        }
+        boolean writing = true;
+        while (writing) {
+            writing = writers.stream().anyMatch(Thread::isAlive);
+            EvidenceLog.Snapshot snapshot = evidence.snapshot();
+            int grouped = 0;
+            for (int annotation = 0; annotation < snapshot.annotations(); annotation++) {
+                grouped += snapshot.of(annotation).size();
+            }
+            assertEquals(2 * snapshot.of(partner).size(), grouped);
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        EvidenceLog.Snapshot snapshot = evidence.snapshot();
+        assertEquals(threads * perThread + 1, snapshot.annotations());
+        assertEquals(threads * perThread, snapshot.of(partner).score());
+    }
+}
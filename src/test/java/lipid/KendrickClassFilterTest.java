@@ -0,0 +1,154 @@
+package lipid;
+
+import adduct.PpmKernel;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class KendrickClassFilterTest {
+
+    private static final double PPM = 10;
+
+    /**
+     * Series of TG, PC and PE with 30 to 60 carbons and 0 to 6 double bonds
+     */
+    private static LipidLibrary library() {
+        List<Lipid> lipids = new ArrayList<>();
+        int id = 0;
+        for (int carbons = 30; carbons <= 60; carbons += 2) {
+            for (int doubleBonds = 0; doubleBonds <= 6; doubleBonds++) {
+                // TG: C(n+3) H(2n-2db+2) O6, PC: C(n+8) H(2n-2db+16) N O8 P, PE: C(n+5) H(2n-2db+10) N O8 P
+                lipids.add(new Lipid(++id, "TG " + carbons + ":" + doubleBonds,
+                        "C" + (carbons + 3) + "H" + (2 * carbons - 2 * doubleBonds + 2) + "O6", LipidType.TG, carbons, doubleBonds));
+                lipids.add(new Lipid(++id, "PC " + carbons + ":" + doubleBonds,
+                        "C" + (carbons + 8) + "H" + (2 * carbons - 2 * doubleBonds + 16) + "NO8P", LipidType.PC, carbons, doubleBonds));
+                lipids.add(new Lipid(++id, "PE " + carbons + ":" + doubleBonds,
+                        "C" + (carbons + 5) + "H" + (2 * carbons - 2 * doubleBonds + 10) + "NO8P", LipidType.PE, carbons, doubleBonds));
+            }
+        }
+        return LipidLibrary.of(lipids);
+    }
+
+    /**
+     * Every mass within the tolerance of a lipid of the library is assigned its class.
+     */
+    @Test
+    public void shouldAssignTheClassOfEveryLipidWithinTheTolerance() {
+        LipidLibrary library = library();
+        KendrickClassFilter filter = new KendrickClassFilter(library, PPM);
+
+        assertEquals(3, filter.size());
+        for (int l = 0; l < library.size(); l++) {
+            LipidType type = library.get(l).getLipidType();
+            for (double error : new double[]{-PPM, 0, PPM}) {
+                double mass = library.getMass(l) * (1 + error * 1e-6);
+                assertTrue(library.get(l) + " at " + error + " ppm",
+                        KendrickClassFilter.contains(filter.classes(mass), type));
+            }
+        }
+    }
+
+    /**
+     * The defect separates the classes, and masses out of every arc or mass range have no class.
+     */
+    @Test
+    public void shouldRejectTheImplausibleClasses() {
+        KendrickClassFilter filter = new KendrickClassFilter(library(), PPM);
+        double tg = MolecularFormula.monoisotopicMass("C57H104O6");
+
+        assertEquals(Set.of(LipidType.TG), KendrickClassFilter.types(filter.classes(tg)));
+        assertEquals(0, filter.classes(tg + 0.3));
+        assertEquals(0, filter.classes(100));
+        assertEquals(0, filter.classes(5000));
+        assertFalse(KendrickClassFilter.contains(filter.classes(MolecularFormula.monoisotopicMass("C42H82NO8P")), LipidType.TG));
+    }
+
+    /**
+     * The vectorized batch gives the same classes as the scalar one, tails included.
+     */
+    @Test
+    public void shouldAssignTheSameClassesAsTheScalarLoop() {
+        LipidLibrary library = library();
+        KendrickClassFilter scalar = new KendrickClassFilter(library, PPM, PpmKernel.byName("scalar"));
+        KendrickClassFilter filter = new KendrickClassFilter(library, PPM, PpmKernel.get());
+        Random random = new Random(5);
+        double[] masses = new double[1003];
+        for (int i = 0; i < masses.length; i++) {
+            masses[i] = i % 2 == 0 ? library.getMass(random.nextInt(library.size())) * (1 + (random.nextDouble() - 0.5) * 2e-5)
+                    : 300 + random.nextDouble() * 800;
+        }
+        int[] expected = new int[masses.length];
+        int[] classes = new int[masses.length];
+
+        scalar.classes(masses, 3, masses.length, expected);
+        filter.classes(masses, 3, masses.length, classes);
+
+        assertArrayEquals(expected, classes);
+        assertEquals(scalar.classes(masses[10]), classes[10]);
+    }
+
+    /**
+     * Features are assigned the classes of their neutral mass under the detected adduct, and the candidates of the
+     * matcher with the filter are the ones without it.
+     */
+    @Test
+    public void shouldFilterTheCandidatesOfTheFeatures() {
+        LipidLibrary library = library();
+        KendrickClassFilter filter = new KendrickClassFilter(library, PPM);
+        // TG 54:3 as [M+H]+ and as [M+Na]+
+        Feature feature = new Feature(885.79057, 1E6, 10d, Set.of(), Ionization.POSITVE);
+        feature.setAdduct("[M+H]+");
+        Feature unknownAdduct = new Feature(907.7725, 1E6, 10d, Set.of(), Ionization.POSITVE);
+
+        int[] classes = filter.classes(List.of(feature, unknownAdduct));
+
+        assertEquals(Set.of(LipidType.TG), KendrickClassFilter.types(classes[0]));
+        assertTrue(KendrickClassFilter.contains(classes[1], LipidType.TG));
+        CandidateMatcher matcher = new CandidateMatcher(library, PPM, PpmKernel.get());
+        CandidateMatcher filtered = new CandidateMatcher(library, PPM, PpmKernel.get(), filter);
+        for (Feature f : List.of(feature, unknownAdduct)) {
+            assertEquals(matcher.apply(f), filtered.apply(f));
+        }
+        assertEquals("TG 54:3", filtered.apply(feature).get(0).getName());
+    }
+
+    /**
+     * Lipids without a type get a class of their own, so the filter still finds them, in both loops.
+     */
+    @Test
+    public void shouldKeepTheLipidsWithoutType() {
+        List<Lipid> lipids = new ArrayList<>(library().asList());
+        Lipid cholesterolEster = new Lipid(1000, "CE 18:1", "C45H78O2", null, 18, 1);
+        lipids.add(cholesterolEster);
+        LipidLibrary library = LipidLibrary.of(lipids);
+        KendrickClassFilter filter = new KendrickClassFilter(library, PPM);
+        double mass = MolecularFormula.monoisotopicMass("C45H78O2");
+        Feature feature = new Feature(mass + 1.00727646677, 1E6, 10d, Set.of(), Ionization.POSITVE);
+        feature.setAdduct("[M+H]+");
+
+        assertEquals(4, filter.size());
+        assertEquals(KendrickClassFilter.UNTYPED, filter.classes(mass) & KendrickClassFilter.UNTYPED);
+        assertTrue(KendrickClassFilter.contains(filter.classes(mass), cholesterolEster));
+        assertEquals(List.of(cholesterolEster), new CandidateMatcher(library, PPM, PpmKernel.get(), filter).apply(feature));
+        double[] masses = new double[37];
+        for (int i = 0; i < masses.length; i++) {
+            masses[i] = i % 2 == 0 ? mass * (1 + (i - 18) * 5e-7) : library.getMass(i * 7 % library.size());
+        }
+        int[] expected = new int[masses.length];
+        int[] classes = new int[masses.length];
+        new KendrickClassFilter(library, PPM, PpmKernel.byName("scalar")).classes(masses, 0, masses.length, expected);
+        filter.classes(masses, 0, masses.length, classes);
+        assertArrayEquals(expected, classes);
+        for (int i = 0; i < masses.length; i += 2) {
+            assertTrue(KendrickClassFilter.contains(classes[i], cholesterolEster));
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package lipid;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LipidLibraryTest {
+
+    private Path file;
+
+    @Before
+    public void setup() throws IOException {
+        file = Files.createTempFile("library", ".txt");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void shouldParseShorthandNames() {
+        assertKey(LipidType.TG, 54, 3, LipidLibrary.parseName("TG 54:3"));
+        assertKey(LipidType.PC, 34, 1, LipidLibrary.parseName("PC 16:0_18:1"));
+        assertKey(LipidType.SM, 34, 1, LipidLibrary.parseName("SM d18:1/16:0"));
+        assertKey(LipidType.PE, 38, 4, LipidLibrary.parseName("PE O-38:4"));
+        assertKey(LipidType.LPC, 18, 0, LipidLibrary.parseName("LPC 18:0;O"));
+        for (String invalid : List.of("XX 34:1", "PC 34", "PC34:1", "PC :1", "PC 34:1 extra", "PC ", "PC 16:0_", "PC 16:0/", "PC 16:0_;O")) {
+            try {
+                LipidLibrary.parseName(invalid);
+                fail("Invalid name accepted: " + invalid);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void shouldLoadTsvSortedByMass() throws IOException {
+        Files.writeString(file, String.join("\n",
+                "compound_id\tname\tformula\ttype\tcarbons\tdouble_bonds",
+                "# exported library",
+                "1\tTG 54:3\tC57H104O6\tTG\t54\t3",
+                "",
+                "2\tPC 34:1\tC42H82NO8P\tPC\t34\t1",
+                "3\tFA 18:1\tC18H34O2\tFA\t18\t1"));
+        LipidRegistry registry = new LipidRegistry();
+        Lipid registered = registry.intern(2, "PC 34:1", "C42H82NO8P", LipidType.PC, 34, 1);
+
+        LipidLibrary library = LipidLibrary.load(file, registry);
+
+        assertEquals(3, library.size());
+        assertEquals(3, library.get(0).getCompoundId());
+        assertSame(registered, library.get(1));
+        assertEquals(1, library.get(2).getCompoundId());
+        assertEquals(MolecularFormula.monoisotopicMass("C42H82NO8P"), library.getMass(1), 0);
+        assertEquals(1, library.lowerBound(library.getMass(1)));
+        assertEquals(3, library.size() - library.lowerBound(0));
+    }
+
+    @Test
+    public void shouldLoadQuotedCsvWithoutTypeColumns() throws IOException {
+        Files.writeString(file, "1,\"PC 16:0_18:1\",C42H82NO8P\n2,PE 38:4,C43H78NO8P\n");
+
+        LipidLibrary library = LipidLibrary.load(file);
+
+        assertEquals(2, library.size());
+        Lipid pc = library.get(0);
+        assertEquals("PC 16:0_18:1", pc.getName());
+        assertEquals(LipidType.PC, pc.getLipidType());
+        assertEquals(34, pc.getCarbonCount());
+        assertEquals(1, pc.getDoubleBondsCount());
+    }
+
+    @Test
+    public void shouldRejectNamesNotMatchingTheFormula() throws IOException {
+        Files.writeString(file, "1\tTG 54:3\tC18H34O2\n");
+        assertRejected("fewer carbons");
+
+        Files.writeString(file, "1\tFA 18:4\tC18H36O2\n");
+        assertRejected("cannot hold the double bonds");
+
+        Files.writeString(file, "1\tTG 54:3\tC57H104O6\tTG\t52\t3\n");
+        assertRejected("does not match");
+
+        Files.writeString(file, "1\tTG 54:3\tC57H104O6\n1\tTG 54:3\tC57H104O6\n");
+        assertRejected("repeated");
+    }
+
+    /**
+     * A library spread over several chunks is loaded whole, and errors are reported with their line in the file.
+     */
+    @Test
+    public void shouldLoadLargeLibrariesInChunks() throws IOException {
+        int size = 100_000;
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < size; i++) {
+                int carbons = 30 + i % 30;
+                int doubleBonds = i % 6;
+                writer.write(i + "\tPC " + carbons + ":" + doubleBonds + "\tC" + (carbons + 8) + "H" + (2 * carbons + 16 - 2 * doubleBonds)
+                        + "NO8P\n");
+            }
+        }
+
+        LipidLibrary library = LipidLibrary.load(file);
+
+        assertEquals(size, library.size());
+        for (int i = 1; i < size; i++) {
+            assertTrue(library.getMass(i - 1) <= library.getMass(i));
+        }
+
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < size; i++) {
+                writer.write(i + "\tPC 34:1\t" + (i == 76_543 ? "C42X82NO8P" : "C42H82NO8P") + "\n");
+            }
+        }
+        assertRejected(":76544:");
+    }
+
+    private void assertRejected(String message) throws IOException {
+        try {
+            LipidLibrary.load(file);
+            fail("Invalid library accepted");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(message));
+        }
+    }
+
+    private static void assertKey(LipidType type, int carbons, int doubleBonds, long key) {
+        assertEquals(type, LipidKey.lipidType(key));
+        assertEquals(carbons, LipidKey.carbonCount(key));
+        assertEquals(doubleBonds, LipidKey.doubleBondCount(key));
+    }
+}
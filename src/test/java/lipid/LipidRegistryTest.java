@@ -0,0 +1,43 @@
+package lipid;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+public class LipidRegistryTest {
+
+    @Test
+    public void shouldShareLipidsWithTheSameCompoundId() {
+        LipidRegistry registry = new LipidRegistry();
+
+        Lipid first = registry.intern(1, "PC 34:1", "C42H82NO8P", LipidType.PC, 34, 1);
+        Lipid second = registry.intern(new Lipid(1, "PC 34:1", "C42H82NO8P", LipidType.PC, 34, 1));
+        Lipid isomer = registry.intern(2, "PE 37:1", "C42H82NO8P", LipidType.PE, 37, 1);
+
+        assertSame(first, second);
+        assertSame(first.getFormula(), isomer.getFormula());
+        assertEquals(2, registry.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectConflictingDefinition() {
+        LipidRegistry registry = new LipidRegistry();
+        registry.intern(1, "PC 34:1", "C42H82NO8P", LipidType.PC, 34, 1);
+        registry.intern(1, "PC 34:2", "C42H80NO8P", LipidType.PC, 34, 2);
+    }
+
+    @Test
+    public void shouldPackTypeCountsAndRank() {
+        Lipid lipid = new Lipid(1, "PC 34:1", "C42H82NO8P", LipidType.PC, 34, 1);
+        long key = lipid.getKey();
+
+        assertEquals(LipidType.PC, LipidKey.lipidType(key));
+        assertEquals(10, LipidKey.rank(key));
+        assertEquals(34, LipidKey.carbonCount(key));
+        assertEquals(1, LipidKey.doubleBondCount(key));
+        assertEquals(lipid.getSeriesKey(), new Lipid(2, "PC 36:1", "C44H86NO8P", LipidType.PC, 36, 1).getSeriesKey());
+        assertNotEquals(lipid.getSeriesKey(), new Lipid(3, "PE 34:1", "C39H76NO8P", LipidType.PE, 34, 1).getSeriesKey());
+    }
+}
@@ -0,0 +1,76 @@
+package lipid;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MassBinFilterTest {
+
+    private static final Lipid PC_34_1 = new Lipid(1, "PC 34:1", "C42H82NO8P", LipidType.PC, 34, 1);
+
+    @Test
+    public void shouldComputeMonoisotopicMassOfFormula() {
+        assertEquals(759.5778, MolecularFormula.monoisotopicMass("C42H82NO8P"), 1e-4);
+        assertEquals(57.9586, MolecularFormula.monoisotopicMass("NaCl"), 1e-4);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectUnknownElement() {
+        MolecularFormula.monoisotopicMass("C42Xy82");
+    }
+
+    @Test
+    public void shouldPassLibraryMzsUnderEveryAdduct() {
+        for (MassBinFilter filter : List.of(new MassBinFilter(List.of(PC_34_1), 10),
+                new MassBinFilter(LipidLibrary.of(List.of(PC_34_1)), 10))) {
+            assertTrue(filter.mightMatch(760.5851, Ionization.POSITVE));
+            assertTrue(filter.mightMatch(760.5851 * (1 + 9e-6), Ionization.POSITVE));
+            assertTrue(filter.mightMatch(782.5670, Ionization.POSITVE));
+            assertTrue(filter.mightMatch(758.5705, Ionization.NEGATIVE));
+            assertFalse(filter.mightMatch(758.5705, Ionization.POSITVE));
+            assertFalse(filter.mightMatch(500.0, Ionization.POSITVE));
+        }
+    }
+
+    @Test
+    public void shouldDropPeaksWithoutCandidates() {
+        MassBinFilter filter = new MassBinFilter(List.of(PC_34_1), 10);
+        Feature feature = new Feature(760.5851, 100000.0, 5.0,
+                Set.of(new Peak(760.5851, 100000.0), new Peak(782.5670, 80000.0), new Peak(613.2, 5000.0)), Ionization.POSITVE);
+
+        Feature filtered = filter.retainCandidatePeaks(feature);
+
+        assertEquals(Set.of(new Peak(760.5851, 100000.0), new Peak(782.5670, 80000.0)), filtered.getGroupedSignals());
+        assertSame(filtered, filter.retainCandidatePeaks(filtered));
+    }
+
+    @Test
+    public void shouldKeepFalsePositiveRateWithinTarget() {
+        List<Lipid> library = new ArrayList<>();
+        for (int carbons = 20; carbons <= 44; carbons++) {
+            for (int doubleBonds = 0; doubleBonds <= 6; doubleBonds++) {
+                int hydrogens = 2 * carbons + 18 - 2 * doubleBonds;
+                library.add(new Lipid(library.size(), "PC " + carbons + ":" + doubleBonds,
+                        "C" + (carbons + 8) + "H" + hydrogens + "NO8P", LipidType.PC, carbons, doubleBonds));
+            }
+        }
+        MassBinFilter filter = new MassBinFilter(library, 5, 0.01, 1 << 20);
+        assertTrue(filter.getExpectedFalsePositiveRate() <= 0.01);
+
+        Random random = new Random(7);
+        int passed = 0;
+        int queries = 100000;
+        for (int i = 0; i < queries; i++) {
+            passed += filter.mightMatch(100 + random.nextDouble() * 150, Ionization.POSITVE) ? 1 : 0;
+        }
+        assertTrue("false positives: " + passed, passed < queries * 0.02);
+    }
+}
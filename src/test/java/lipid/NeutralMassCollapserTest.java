@@ -0,0 +1,78 @@
+package lipid;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class NeutralMassCollapserTest {
+
+    @Test
+    public void shouldMergeCoelutingAdductsOfTheSameCompound() {
+        Feature mH = new Feature(700.500, 100000.0, 5.0, Collections.emptySet(), Ionization.POSITVE);
+        Feature mNa = new Feature(722.482, 80000.0, 5.02, Collections.emptySet(), Ionization.POSITVE);
+        Feature other = new Feature(800.0, 50000.0, 5.0, Collections.emptySet(), Ionization.POSITVE);
+        Feature lateNa = new Feature(722.482, 80000.0, 9.0, Collections.emptySet(), Ionization.POSITVE);
+
+        List<Feature> collapsed = new NeutralMassCollapser(10, 0.1).collapse(List.of(mH, mNa, other, lateNa));
+
+        assertEquals(3, collapsed.size());
+        Feature merged = collapsed.get(0);
+        assertEquals(700.500, merged.getMz(), 1e-9);
+        assertEquals("[M+H]+", merged.getAdduct());
+        assertTrue(merged.getGroupedSignals().contains(new Peak(722.482, 80000.0)));
+        assertSame(other, collapsed.get(1));
+        assertSame(lateNa, collapsed.get(2));
+    }
+
+    @Test
+    public void shouldNotMergeFeaturesOfDifferentIonization() {
+        Feature positive = new Feature(700.500, 100000.0, 5.0, Collections.emptySet(), Ionization.POSITVE);
+        Feature negative = new Feature(698.4854, 80000.0, 5.0, Collections.emptySet(), Ionization.NEGATIVE);
+
+        assertEquals(2, new NeutralMassCollapser(10, 0.1).collapse(List.of(positive, negative)).size());
+    }
+
+    /**
+     * A links to B under one neutral mass (A as [M+H]+, B as [M+Na]+) and B links to C under another one (B as
+     * [M+NH4]+, C as [M+K]+). No single mass explains the three features, so only the most intense pair is merged.
+     */
+    @Test
+    public void shouldNotChainFeaturesThroughDifferentNeutralMasses() {
+        Feature a = new Feature(700.5, 100000.0, 5.0, Collections.emptySet(), Ionization.POSITVE);
+        Feature b = new Feature(722.481942, 80000.0, 5.01, Collections.emptySet(), Ionization.POSITVE);
+        Feature c = new Feature(743.411277, 50000.0, 5.02, Collections.emptySet(), Ionization.POSITVE);
+
+        List<Feature> collapsed = new NeutralMassCollapser(10, 0.1).collapse(List.of(a, b, c));
+
+        assertEquals(2, collapsed.size());
+        assertEquals(700.5, collapsed.get(0).getMz(), 1e-9);
+        assertEquals("[M+H]+", collapsed.get(0).getAdduct());
+        assertTrue(collapsed.get(0).getGroupedSignals().contains(new Peak(722.481942, 80000.0)));
+        assertFalse(collapsed.get(0).getGroupedSignals().contains(new Peak(743.411277, 50000.0)));
+        assertSame(c, collapsed.get(1));
+    }
+
+    /**
+     * A is [M+NH4]+ with B as [M+Na]+, or [M+H]+ with C as [M+K]+. The more intense hypothesis is kept, and the merged
+     * feature takes the adduct of A in that hypothesis.
+     */
+    @Test
+    public void shouldTakeTheAdductOfTheKeptHypothesis() {
+        Feature a = new Feature(700.5, 100000.0, 5.0, Collections.emptySet(), Ionization.POSITVE);
+        Feature b = new Feature(705.455395, 80000.0, 5.01, Collections.emptySet(), Ionization.POSITVE);
+        Feature c = new Feature(738.455882, 50000.0, 5.02, Collections.emptySet(), Ionization.POSITVE);
+
+        List<Feature> collapsed = new NeutralMassCollapser(10, 0.1).collapse(List.of(a, b, c));
+
+        assertEquals(2, collapsed.size());
+        assertEquals("[M+NH4]+", collapsed.get(0).getAdduct());
+        assertTrue(collapsed.get(0).getGroupedSignals().contains(new Peak(705.455395, 80000.0)));
+        assertSame(c, collapsed.get(1));
+    }
+}
@@ -0,0 +1,60 @@
+package lipid;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PolarityMergerTest {
+
+    private static final Lipid PC_34_1 = new Lipid(1, "PC 34:1", "C42H82NO8P", LipidType.PC, 34, 1);
+    private static final Lipid PE_34_1 = new Lipid(2, "PE 34:1", "C39H76NO8P", LipidType.PE, 34, 1);
+
+    @Test
+    public void shouldPairAnnotationsOfTheSameCompoundInBothPolarities() {
+        // PC 34:1, monoisotopic mass 759.5778
+        Annotation positive = new Annotation(PC_34_1, 760.5851, 100000.0, 5.0, Collections.emptySet(), Ionization.POSITVE, "[M+H]+");
+        Annotation formate = new Annotation(PC_34_1, 804.5760, 80000.0, 5.05, Collections.emptySet(), Ionization.NEGATIVE, "[M+HCOOH-H]−");
+        Annotation lateNegative = new Annotation(PC_34_1, 758.5705, 50000.0, 9.0, Collections.emptySet(), Ionization.NEGATIVE, "[M-H]−");
+        // PE 34:1, monoisotopic mass 717.5309, no detected adduct so [M+H]+ is assumed
+        Annotation onlyPositive = new Annotation(PE_34_1, 718.5382, 30000.0, 6.0, Collections.emptySet(), Ionization.POSITVE, null);
+
+        List<CrossPolarityAnnotation> merged = new PolarityMerger(10, 0.2)
+                .merge(List.of(positive, onlyPositive), List.of(lateNegative, formate));
+
+        assertEquals(3, merged.size());
+        assertSame(onlyPositive, merged.get(0).getPositive());
+        assertFalse(merged.get(0).isMatched());
+        assertEquals(717.5309, merged.get(0).getNeutralMass(), 1e-3);
+
+        CrossPolarityAnnotation pc = merged.stream().filter(CrossPolarityAnnotation::isMatched).findFirst().orElseThrow();
+        assertSame(positive, pc.getPositive());
+        assertSame(formate, pc.getNegative());
+        assertEquals(759.5778, pc.getNeutralMass(), 1e-3);
+        assertEquals(5.025, pc.getRtMin(), 1e-9);
+
+        assertTrue(merged.stream().anyMatch(annotation -> annotation.getNegative() == lateNegative && annotation.getPositive() == null));
+    }
+
+    @Test
+    public void shouldPreferTheSameLipidAmongCandidates() {
+        Lipid isomer = new Lipid(3, "PE 37:1", "C42H82NO8P", LipidType.PE, 37, 1);
+        Annotation positive = new Annotation(PC_34_1, 760.5851, 100000.0, 5.0, Collections.emptySet(), Ionization.POSITVE, "[M+H]+");
+        Annotation negativeIsomer = new Annotation(isomer, 758.5705, 80000.0, 5.0, Collections.emptySet(), Ionization.NEGATIVE, "[M-H]−");
+        Annotation negative = new Annotation(PC_34_1, 758.5705, 80000.0, 5.1, Collections.emptySet(), Ionization.NEGATIVE, "[M-H]−");
+
+        List<CrossPolarityAnnotation> merged = new PolarityMerger(10, 0.2)
+                .merge(List.of(positive), List.of(negativeIsomer, negative));
+
+        assertEquals(2, merged.size());
+        CrossPolarityAnnotation pc = merged.stream().filter(CrossPolarityAnnotation::isMatched).findFirst().orElseThrow();
+        assertSame(negative, pc.getNegative());
+        assertNull(merged.stream().filter(annotation -> !annotation.isMatched()).findFirst().orElseThrow().getPositive());
+    }
+}
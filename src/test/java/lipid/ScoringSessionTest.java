@@ -0,0 +1,91 @@
+package lipid;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ScoringSessionTest {
+
+    private final Lipid lipid1 = new Lipid(1, "TG 54:3", "C57H104O6", LipidType.TG, 54, 3);
+    private final Lipid lipid2 = new Lipid(2, "TG 52:3", "C55H100O6", LipidType.TG, 52, 3);
+    private final Lipid lipid3 = new Lipid(3, "TG 56:3", "C59H108O6", LipidType.TG, 56, 3);
+    private Path snapshot;
+
+    @Before
+    public void setup() throws IOException {
+        snapshot = Files.createTempFile("session", ".bin");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(snapshot);
+    }
+
+    /**
+     * The restored annotations keep their scores and their pairs are not scored again when the session fires.
+     */
+    @Test
+    public void shouldRestoreScoresWithoutFiringThemAgain() throws IOException {
+        Annotation annotation1 = new Annotation(lipid1, 885.79056, 10E6, 10d,
+                Set.of(new Peak(885.79056, 10E6), new Peak(907.7725, 2E6)), Ionization.POSITVE, "[M+H]+");
+        Annotation annotation2 = new Annotation(lipid2, 857.7593, 10E7, 9d, Ionization.POSITVE);
+        try (ScoringSession session = new ScoringSession()) {
+            session.add(List.of(annotation1, annotation2));
+            session.snapshot(snapshot);
+        }
+        assertEquals(1, annotation1.getScore());
+
+        try (ScoringSession restored = ScoringSession.restore(snapshot)) {
+            restored.fire();
+
+            assertEquals(2, restored.size());
+            Annotation restored1 = restored.getAnnotations().get(0);
+            assertEquals(annotation1, restored1);
+            assertTrue(restored1.isRestored());
+            assertEquals("[M+H]+", restored1.getAdduct());
+            assertEquals(annotation1.getGroupedSignals(), restored1.getGroupedSignals());
+            for (Annotation annotation : restored.getAnnotations()) {
+                assertEquals(1, annotation.getScore());
+                assertEquals(1, annotation.getTotalScoresApplied());
+            }
+        }
+    }
+
+    /**
+     * Annotations added after the restore are scored against the restored ones, as if the session never stopped.
+     */
+    @Test
+    public void shouldScoreNewAnnotationsAgainstRestoredOnes() throws IOException {
+        try (ScoringSession session = new ScoringSession()) {
+            session.add(new Annotation(lipid1, 885.79056, 10E6, 10d, Ionization.POSITVE));
+            session.add(new Annotation(lipid2, 857.7593, 10E7, 9d, Ionization.POSITVE));
+            session.snapshot(snapshot);
+        }
+
+        try (ScoringSession restored = ScoringSession.restore(snapshot)) {
+            restored.add(new Annotation(lipid3, 913.822, 10E5, 11d, Ionization.POSITVE));
+            restored.fire();
+
+            for (Annotation annotation : restored.getAnnotations()) {
+                assertEquals(2, annotation.getScore());
+                assertEquals(1.0, annotation.getNormalizedScore(), 0.01);
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldRejectOtherFiles() throws IOException {
+        ScoringSession.restore(new ByteArrayInputStream("LCMSRES1 not a session".getBytes(StandardCharsets.US_ASCII)));
+    }
+}
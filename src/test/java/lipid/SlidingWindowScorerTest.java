@@ -0,0 +1,85 @@
+package lipid;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class SlidingWindowScorerTest {
+
+    private final Lipid lipid1 = new Lipid(1, "TG 54:3", "C57H104O6", LipidType.TG, 54, 3);
+    private final Lipid lipid2 = new Lipid(2, "TG 52:3", "C55H100O6", LipidType.TG, 52, 3);
+    private final Lipid lipid3 = new Lipid(3, "TG 56:3", "C59H108O6", LipidType.TG, 56, 3);
+
+    /**
+     * With a window covering the whole run the scores are the same as firing all the annotations together.
+     */
+    @Test
+    public void shouldScoreLikeTheWholeRunInsideTheWindow() {
+        Annotation annotation1 = new Annotation(lipid1, 885.79056, 10E6, 10d, Ionization.POSITVE);
+        Annotation annotation2 = new Annotation(lipid2, 857.7593, 10E7, 9d, Ionization.POSITVE);
+        Annotation annotation3 = new Annotation(lipid3, 913.822, 10E5, 11d, Ionization.POSITVE);
+        List<Annotation> finalized = new ArrayList<>();
+
+        try (SlidingWindowScorer scorer = new SlidingWindowScorer(5, 100, finalized::add)) {
+            scorer.add(annotation2);
+            scorer.add(annotation1);
+            scorer.add(annotation3);
+            assertEquals(0, finalized.size());
+        }
+
+        assertEquals(3, finalized.size());
+        assertEquals(1.0, annotation1.getNormalizedScore(), 0.01);
+        assertEquals(1.0, annotation2.getNormalizedScore(), 0.01);
+        assertEquals(1.0, annotation3.getNormalizedScore(), 0.01);
+    }
+
+    /**
+     * Annotations left behind by the window are emitted and never paired with later annotations.
+     */
+    @Test
+    public void shouldFinalizeAnnotationsOutsideTheWindow() {
+        Annotation early = new Annotation(lipid2, 857.7593, 10E7, 9d, Ionization.POSITVE);
+        Annotation middle = new Annotation(lipid1, 885.79056, 10E6, 10d, Ionization.POSITVE);
+        Annotation late = new Annotation(lipid3, 913.822, 10E5, 10.8d, Ionization.POSITVE);
+        List<Annotation> finalized = new ArrayList<>();
+
+        try (SlidingWindowScorer scorer = new SlidingWindowScorer(1, 100, finalized::add)) {
+            scorer.add(early);
+            scorer.add(middle);
+            scorer.add(late);
+
+            assertEquals(1, finalized.size());
+            assertSame(early, finalized.get(0));
+            assertEquals(2, scorer.size());
+        }
+
+        assertEquals(1, early.getScore());
+        assertEquals(2, middle.getScore());
+        assertEquals(1, late.getScore());
+    }
+
+    /**
+     * A batch larger than the maximum number of annotations never grows the window beyond it.
+     */
+    @Test
+    public void shouldSplitBatchesLargerThanTheWindow() {
+        Annotation annotation1 = new Annotation(lipid1, 885.79056, 10E6, 10d, Ionization.POSITVE);
+        Annotation annotation2 = new Annotation(lipid2, 857.7593, 10E7, 9d, Ionization.POSITVE);
+        Annotation annotation3 = new Annotation(lipid3, 913.822, 10E5, 11d, Ionization.POSITVE);
+        List<Annotation> finalized = new ArrayList<>();
+
+        try (SlidingWindowScorer scorer = new SlidingWindowScorer(5, 2, finalized::add)) {
+            scorer.add(List.of(annotation3, annotation1, annotation2));
+
+            assertEquals(2, scorer.size());
+            assertEquals(1, finalized.size());
+            assertSame(annotation2, finalized.get(0));
+        }
+
+        assertEquals(3, finalized.size());
+    }
+}
@@ -0,0 +1,136 @@
+package lipid;
+
+import org.drools.ruleunits.api.RuleUnitInstance;
+import org.drools.ruleunits.api.RuleUnitProvider;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SpillingAnnotationStoreTest {
+
+    private Path directory;
+
+    @Before
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("spill");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    /**
+     * Scoring partition by partition, in several rounds and across segments, gives the scores of firing the whole run.
+     */
+    @Test
+    public void shouldScoreLikeTheWholeRun() throws IOException {
+        List<Annotation> spilled = annotations();
+        List<Annotation> expected = annotations();
+        LipidScoreUnit lipidScoreUnit = new LipidScoreUnit();
+        try (RuleUnitInstance<LipidScoreUnit> instance = RuleUnitProvider.get().createRuleUnitInstance(lipidScoreUnit)) {
+            expected.forEach(lipidScoreUnit.getAnnotations()::add);
+            instance.fire();
+        }
+
+        List<Annotation> scored = new ArrayList<>();
+        try (SpillingAnnotationStore store = new SpillingAnnotationStore(directory, 1024, 512)) {
+            spilled.forEach(store);
+            store.score();
+            store.forEach(scored::add);
+            assertTrue(store.getRounds() > 1);
+            assertTrue(store.getBytes() > 512);
+        }
+
+        assertEquals(expected.size(), scored.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i), scored.get(i));
+            assertEquals(expected.get(i).getScore(), scored.get(i).getScore());
+            assertEquals(expected.get(i).getTotalScoresApplied(), scored.get(i).getTotalScoresApplied());
+        }
+    }
+
+    @Test
+    public void shouldReadBackAnnotationsInOrder() throws IOException {
+        Lipid lipid = new Lipid(1, "PC 34:1", "C42H82NO8P", LipidType.PC, 34, 1);
+        Annotation withPeaks = new Annotation(lipid, 760.5851, 1E6, 7.5d,
+                Set.of(new Peak(760.5851, 1E6), new Peak(782.5670, 4E5)), Ionization.POSITVE, "[M+H]+");
+        Annotation withoutAdduct = new Annotation(lipid, 758.5694, 2E5, 7.6d, Ionization.NEGATIVE);
+        List<Annotation> read = new ArrayList<>();
+
+        try (SpillingAnnotationStore store = new SpillingAnnotationStore(directory, 1 << 20, 128)) {
+            store.accept(withPeaks);
+            store.accept(withoutAdduct);
+            store.forEach(read::add);
+            assertEquals(2, store.size());
+        }
+
+        assertEquals(2, read.size());
+        assertEquals(withPeaks, read.get(0));
+        assertEquals(withPeaks.getGroupedSignals(), read.get(0).getGroupedSignals());
+        assertEquals("[M+H]+", read.get(0).getAdduct());
+        assertEquals(withoutAdduct, read.get(1));
+        assertEquals(Ionization.NEGATIVE, read.get(1).getIonization());
+        assertEquals(0, read.get(1).getGroupedSignals().size());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldRejectAnnotationsOnceScored() throws IOException {
+        Lipid lipid = new Lipid(1, "TG 54:3", "C57H104O6", LipidType.TG, 54, 3);
+        try (SpillingAnnotationStore store = new SpillingAnnotationStore(directory, 1 << 20)) {
+            store.accept(new Annotation(lipid, 885.79056, 10E6, 10d, Ionization.POSITVE));
+            store.score();
+            store.accept(new Annotation(lipid, 885.79056, 10E6, 11d, Ionization.POSITVE));
+        }
+    }
+
+    @Test
+    public void shouldDeleteTheFileOnClose() throws IOException {
+        Lipid lipid = new Lipid(1, "TG 54:3", "C57H104O6", LipidType.TG, 54, 3);
+        try (SpillingAnnotationStore store = new SpillingAnnotationStore(directory, 1 << 20)) {
+            store.accept(new Annotation(lipid, 885.79056, 10E6, 10d, Ionization.POSITVE));
+            try (Stream<Path> files = Files.list(directory)) {
+                assertEquals(1, files.count());
+            }
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    /**
+     * Series of several types, carbons and double bonds, some eluting in the expected order and some not
+     */
+    private static List<Annotation> annotations() {
+        List<Annotation> annotations = new ArrayList<>();
+        int id = 0;
+        for (LipidType type : List.of(LipidType.PC, LipidType.PE, LipidType.TG)) {
+            for (int carbons = 30; carbons <= 36; carbons += 2) {
+                for (int doubleBonds = 0; doubleBonds <= 2; doubleBonds++) {
+                    Lipid lipid = new Lipid(++id, type.name() + " " + carbons + ":" + doubleBonds, "C" + carbons + "H60O6",
+                            type, carbons, doubleBonds);
+                    double rt = 5 + carbons * 0.2 - doubleBonds * 0.3 + type.ordinal() * 0.5 + (id % 7 == 0 ? -3 : 0);
+                    annotations.add(new Annotation(lipid, 500 + id, 1E5, rt,
+                            Set.of(new Peak(500 + id, 1E5), new Peak(501 + id, 2E4)), Ionization.POSITVE, "[M+H]+"));
+                }
+            }
+        }
+        return annotations;
+    }
+}
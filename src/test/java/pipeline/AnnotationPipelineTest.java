@@ -0,0 +1,70 @@
+package pipeline;
+
+import lipid.Annotation;
+import lipid.Feature;
+import lipid.Ionization;
+import lipid.Lipid;
+import lipid.LipidType;
+import lipid.Peak;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.function.UnaryOperator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AnnotationPipelineTest {
+
+    /**
+     * Every feature flows through all the stages, keeping its order, even with the smallest buffers.
+     */
+    @Test
+    public void shouldAnnotateAllFeaturesWithBoundedBuffers() throws Exception {
+        Lipid lipid = new Lipid(1, "PC 34:1", "C42H82NO8P", LipidType.PC, 34, 1);
+        List<Feature> features = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            features.add(new Feature(700.5 + i, 1000d, i, Collections.emptySet(), Ionization.POSITVE));
+        }
+        List<Annotation> written = Collections.synchronizedList(new ArrayList<>());
+
+        AnnotationPipeline pipeline = new AnnotationPipeline(1, UnaryOperator.identity(), feature -> "[M+H]+",
+                feature -> List.of(lipid), UnaryOperator.identity(), written::add);
+        List<StageMetrics> metrics = pipeline.run(features);
+
+        assertEquals(200, written.size());
+        for (int i = 0; i < written.size(); i++) {
+            assertEquals(700.5 + i, written.get(i).getMz(), 1e-9);
+            assertEquals("[M+H]+", written.get(i).getAdduct());
+        }
+        assertEquals(6, metrics.size());
+        for (StageMetrics stage : metrics.subList(1, metrics.size())) {
+            assertEquals(stage.getName(), 200, stage.getReceived());
+        }
+        for (StageMetrics stage : metrics) {
+            assertTrue(stage.toString(), stage.getBusyMillis() >= 0);
+        }
+    }
+
+    /**
+     * The detect stage runs the adduct detection of the annotations, so the result is the same as constructing them.
+     */
+    @Test
+    public void shouldDetectAdductBeforeMatchingCandidates() throws Exception {
+        Peak mH = new Peak(700.500, 100000.0);
+        Peak mNa = new Peak(722.482, 80000.0);
+        Lipid lipid = new Lipid(1, "PC 34:1", "C42H82NO8P", LipidType.PC, 34, 1);
+        Feature feature = new Feature(700.49999d, 80000.0, 6.5d, Set.of(mH, mNa), Ionization.POSITVE);
+        List<Annotation> written = new ArrayList<>();
+
+        new AnnotationPipeline(AnnotationPipeline.DEFAULT_BUFFER_SIZE, UnaryOperator.identity(),
+                f -> Annotation.detectAdduct(f.getMz(), f.getGroupedSignals(), f.getIonization()),
+                f -> List.of(lipid), UnaryOperator.identity(), written::add).run(List.of(feature));
+
+        assertEquals(1, written.size());
+        assertEquals("[M+H]+", written.get(0).getAdduct());
+    }
+}
@@ -0,0 +1,101 @@
+package result;
+
+import lipid.Annotation;
+import lipid.Feature;
+import lipid.Ionization;
+import lipid.Lipid;
+import lipid.LipidType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ResultCacheTest {
+
+    private Path directory;
+    private final Lipid lipid = new Lipid(1, "TG 54:3", "C57H104O6", LipidType.TG, 54, 3);
+    private final Feature feature1 = new Feature(885.79056, 10E6, 10d, Collections.emptySet(), Ionization.POSITVE);
+    private final Feature feature2 = new Feature(857.7593, 10E7, 9d, Collections.emptySet(), Ionization.POSITVE);
+
+    @Before
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("cache");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    public void shouldReturnStoredScoresOnlyForTheSameInput() throws IOException {
+        ResultCache cache = new ResultCache(directory, 1 << 20, "rules1");
+        String key = cache.key(List.of(feature1, feature2), List.of(lipid), 10);
+
+        assertEquals("Order of the features does not change the key", key, cache.key(List.of(feature2, feature1), List.of(lipid), 10));
+        assertNotEquals(key, cache.key(List.of(feature1, feature2), List.of(lipid), 5));
+        assertNull(cache.get(key));
+
+        Annotation annotation = feature1.annotate(lipid);
+        annotation.addScore(1);
+        cache.getOrCompute(key, () -> List.of(annotation));
+        ResultReader cached = cache.getOrCompute(key, () -> {
+            throw new AssertionError("Cached run scored again");
+        });
+
+        assertEquals(1, cached.readScores()[0]);
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedEntries() throws IOException {
+        ResultCache unbounded = new ResultCache(directory, Long.MAX_VALUE, "rules1");
+        String key1 = unbounded.key(List.of(feature1), List.of(lipid), 10);
+        String key2 = unbounded.key(List.of(feature2), List.of(lipid), 10);
+        unbounded.put(key1, List.of(feature1.annotate(lipid)));
+        long entryBytes = unbounded.getTotalBytes();
+
+        ResultCache cache = new ResultCache(directory, entryBytes + entryBytes / 2, "rules1");
+        assertNotNull(cache.get(key1));
+        cache.put(key2, List.of(feature2.annotate(lipid)));
+
+        assertNull(cache.get(key1));
+        assertNotNull(cache.get(key2));
+    }
+
+    /**
+     * Entries of other rules never hit, but they are kept for the caches of those rules, as are unrelated files.
+     */
+    @Test
+    public void shouldIgnoreEntriesOfOtherRules() throws IOException {
+        ResultCache cache = new ResultCache(directory, 1 << 20, "rules1");
+        String key = cache.key(List.of(feature1), List.of(lipid), 10);
+        cache.put(key, List.of(feature1.annotate(lipid)));
+        Path unrelated = Files.writeString(directory.resolve("notes.res"), "not a cache entry");
+
+        ResultCache changedRules = new ResultCache(directory, 1, "rules2");
+        changedRules.put(changedRules.key(List.of(feature2), List.of(lipid), 10), List.of(feature2.annotate(lipid)));
+
+        assertNull(changedRules.get(changedRules.key(List.of(feature1), List.of(lipid), 10)));
+        assertTrue(Files.exists(unrelated));
+        assertNotNull(new ResultCache(directory, 1 << 20, "rules1").get(key));
+    }
+}
@@ -0,0 +1,52 @@
+package result;
+
+import lipid.Annotation;
+import lipid.Ionization;
+import lipid.Lipid;
+import lipid.LipidType;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ResultWriterTest {
+
+    @Test
+    public void shouldReadBackAnnotationsSortedByMz() throws Exception {
+        Lipid lipid1 = new Lipid(1, "TG 54:3", "C57H104O6", LipidType.TG, 54, 3);
+        Lipid lipid2 = new Lipid(2, "TG 52:3", "C55H100O6", LipidType.TG, 52, 3);
+        Annotation annotation1 = new Annotation(lipid1, 885.79056, 10E6, 10d, Collections.emptySet(), Ionization.POSITVE, "[M+H]+");
+        Annotation annotation2 = new Annotation(lipid2, 857.7593, 10E7, 9d, Collections.emptySet(), Ionization.POSITVE, null);
+        Annotation annotation3 = new Annotation(lipid1, 857.7593, 10E7, 9d, Collections.emptySet(), Ionization.POSITVE, "[M+Na]+");
+        annotation1.addScore(1);
+        annotation2.addScore(-1);
+        annotation2.addScore(-1);
+
+        Path file = Files.createTempFile("results", ".bin");
+        try {
+            try (ResultWriter writer = new ResultWriter(file)) {
+                writer.accept(annotation1);
+                writer.accept(annotation2);
+                writer.accept(annotation3);
+            }
+
+            ResultReader reader = new ResultReader(file);
+            assertEquals(3, reader.size());
+            assertArrayEquals(new double[]{857.7593, 857.7593, 885.79056}, reader.readMz(), 1e-6);
+            assertArrayEquals(new double[]{9d, 9d, 10d}, reader.readRt(), 1e-4);
+            assertArrayEquals(new int[]{1, 1, 0}, reader.readFeatureIds());
+            assertArrayEquals(new int[]{2, 1, 1}, reader.readCompoundIds());
+            assertArrayEquals(new String[]{null, "[M+Na]+", "[M+H]+"}, reader.readAdducts());
+            assertArrayEquals(new int[]{-2, 0, 1}, reader.readScores());
+            double[] normalized = reader.readNormalizedScores();
+            assertEquals(-1.0, normalized[0], 1e-9);
+            assertEquals(1.0, normalized[2], 1e-9);
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
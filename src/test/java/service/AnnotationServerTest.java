@@ -0,0 +1,130 @@
+package service;
+
+import adduct.AdductCatalogue;
+import lipid.Annotation;
+import lipid.Feature;
+import lipid.Ionization;
+import lipid.Lipid;
+import lipid.LipidType;
+import lipid.Peak;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AnnotationServerTest {
+
+    private static final List<Lipid> LIBRARY = List.of(
+            new Lipid(1, "PC 34:1", "C42H82NO8P", LipidType.PC, 34, 1),
+            new Lipid(2, "PC 36:1", "C44H86NO8P", LipidType.PC, 36, 1));
+
+    private final HttpClient client = HttpClient.newHttpClient();
+    private AnnotationServer server;
+
+    @Before
+    public void startServer() throws IOException {
+        server = new AnnotationServer(0, LIBRARY, 10, 2);
+    }
+
+    @After
+    public void stopServer() {
+        server.close();
+    }
+
+    @Test
+    public void shouldAnnotateJsonBatch() throws Exception {
+        String body = "{\"features\": ["
+                + "{\"mz\": 760.5851, \"intensity\": 100000, \"rtMin\": 5.0, \"ionization\": \"POSITIVE\","
+                + " \"peaks\": [{\"mz\": 760.5851, \"intensity\": 100000}, {\"mz\": 782.5670, \"intensity\": 80000}]},"
+                + "{\"mz\": 788.6164, \"intensity\": 90000, \"rtMin\": 6.0, \"ionization\": \"POSITIVE\","
+                + " \"peaks\": [{\"mz\": 788.6164, \"intensity\": 90000}, {\"mz\": 810.5983, \"intensity\": 70000}]},"
+                + "{\"mz\": 500.0, \"intensity\": 1000, \"rtMin\": 2.0, \"ionization\": \"POSITIVE\", \"peaks\": []}]}";
+
+        HttpResponse<String> response = post(body, "application/json");
+
+        assertEquals(200, response.statusCode());
+        List<?> features = (List<?>) ((Map<?, ?>) Json.parse(response.body())).get("features");
+        assertEquals(3, features.size());
+        Map<?, ?> first = (Map<?, ?>) features.get(0);
+        assertEquals("[M+H]+", first.get("adduct"));
+        Map<?, ?> annotation = (Map<?, ?>) ((List<?>) first.get("annotations")).get(0);
+        assertEquals("PC 34:1", annotation.get("lipid"));
+        assertEquals(1.0, annotation.get("score"));
+        assertEquals(List.of(), ((Map<?, ?>) features.get(2)).get("annotations"));
+    }
+
+    @Test
+    public void shouldAnnotateBinaryBatch() throws Exception {
+        ByteBuffer body = ByteBuffer.allocate(4 + 29 + 32).order(ByteOrder.LITTLE_ENDIAN);
+        body.putInt(1).putDouble(758.5705).putDouble(100000).putDouble(5.0).put((byte) 1).putInt(2)
+                .putDouble(758.5705).putDouble(100000).putDouble(794.5472).putDouble(60000);
+
+        HttpResponse<String> response = client.send(HttpRequest.newBuilder(uri("/annotate"))
+                .header("Content-Type", FeatureBatchCodec.BINARY_CONTENT_TYPE)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body.array())).build(), HttpResponse.BodyHandlers.ofString());
+
+        assertEquals(200, response.statusCode());
+        Map<?, ?> feature = (Map<?, ?>) ((List<?>) ((Map<?, ?>) Json.parse(response.body())).get("features")).get(0);
+        assertEquals("[M-H]−", feature.get("adduct"));
+        assertEquals("PC 34:1", ((Map<?, ?>) ((List<?>) feature.get("annotations")).get(0)).get("lipid"));
+    }
+
+    /**
+     * Features under an adduct added by a catalogue reload pass the prefilter of the next batch.
+     */
+    @Test
+    public void shouldPrefilterWithTheReloadedCatalogue() throws Exception {
+        // PC 34:1 as [M+CH3COO]−, not an adduct of the default catalogue
+        Feature acetate = new Feature(818.5917, 100000, 5.0, Set.of(new Peak(818.5917, 100000)), Ionization.NEGATIVE);
+        assertEquals(List.of(), server.annotate(List.of(acetate)).get(0));
+
+        AdductCatalogue.install(AdductCatalogue.parse(new StringReader(
+                "[M+H]+\t-1.007276\t1\t1\t+\n[M+CH3COO]−\t-59.013851\t1\t1\t-\n"), "acetate"));
+        try {
+            List<Annotation> annotations = server.annotate(List.of(acetate)).get(0);
+
+            assertEquals(1, annotations.size());
+            assertEquals("PC 34:1", annotations.get(0).getLipid().getName());
+        } finally {
+            AdductCatalogue.install(AdductCatalogue.DEFAULT);
+        }
+    }
+
+    @Test
+    public void shouldReportMetricsAndRejectInvalidBatches() throws Exception {
+        assertEquals(400, post("{\"features\": [{\"mz\": \"high\"}]}", "application/json").statusCode());
+        assertEquals(200, post("[]", "application/json").statusCode());
+
+        HttpResponse<String> metrics = client.send(HttpRequest.newBuilder(uri("/metrics")).GET().build(),
+                HttpResponse.BodyHandlers.ofString());
+
+        assertEquals(200, metrics.statusCode());
+        Map<?, ?> counters = (Map<?, ?>) Json.parse(metrics.body());
+        assertEquals(2.0, counters.get("requests"));
+        assertEquals(1.0, counters.get("errors"));
+        assertTrue(((Map<?, ?>) counters.get("latencyMillis")).containsKey("p99"));
+    }
+
+    private HttpResponse<String> post(String body, String contentType) throws IOException, InterruptedException {
+        return client.send(HttpRequest.newBuilder(uri("/annotate")).header("Content-Type", contentType)
+                .POST(HttpRequest.BodyPublishers.ofString(body)).build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://localhost:" + server.getPort() + path);
+    }
+}
@@ -0,0 +1,52 @@
+package service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link ScoringWorker} that dies on every shard containing the compound {@link #POISON}, to test the failures of a
+ * {@link ShardCoordinator}
+ */
+public class PoisonedScoringWorker {
+
+    static final int POISON = 9999;
+    private static final int ANNOTATION_BYTES = 4 + 4 + 1 + 4 + 4 + 8 + 8;
+
+    public static void main(String[] args) throws IOException {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            System.out.println(server.getLocalPort());
+            System.out.flush();
+            System.setOut(System.err);
+            try (Socket socket = server.accept()) {
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                while (true) {
+                    int count;
+                    try {
+                        count = in.readInt();
+                    } catch (EOFException e) {
+                        return;
+                    }
+                    byte[] annotations = new byte[count * ANNOTATION_BYTES];
+                    in.readFully(annotations);
+                    for (int i = 0; i < count; i++) {
+                        if (ByteBuffer.wrap(annotations).getInt(i * ANNOTATION_BYTES + 4) == POISON) {
+                            System.exit(1);
+                        }
+                    }
+                    ByteArrayOutputStream shard = new ByteArrayOutputStream();
+                    new DataOutputStream(shard).writeInt(count);
+                    shard.write(annotations);
+                    ScoringWorker.serve(new ByteArrayInputStream(shard.toByteArray()), socket.getOutputStream());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package service;
+
+import lipid.Annotation;
+import lipid.Ionization;
+import lipid.Lipid;
+import lipid.LipidScoreUnit;
+import lipid.LipidType;
+import org.drools.ruleunits.api.RuleUnitInstance;
+import org.drools.ruleunits.api.RuleUnitProvider;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ShardCoordinatorTest {
+
+    /**
+     * Sharded over worker processes, the scores are the ones of firing the whole cohort in one rule unit.
+     */
+    @Test
+    public void shouldScoreLikeOneRuleUnit() throws IOException {
+        List<Annotation> expected = cohort();
+        List<Annotation> sharded = cohort();
+        fireTogether(expected);
+
+        try (ShardCoordinator coordinator = new ShardCoordinator(2)) {
+            coordinator.score(sharded);
+            assertEquals(0, coordinator.getRetries());
+        }
+
+        assertScores(expected, sharded);
+    }
+
+    /**
+     * The shard of a dead worker is sent again to a new worker process.
+     */
+    @Test
+    public void shouldRetryTheShardOfAFailedWorker() throws IOException {
+        List<Annotation> expected = cohort();
+        List<Annotation> sharded = cohort();
+        fireTogether(expected);
+
+        try (ShardCoordinator coordinator = new ShardCoordinator(2)) {
+            coordinator.killWorker(1);
+            coordinator.score(sharded);
+            assertTrue(coordinator.getRetries() > 0);
+        }
+
+        assertScores(expected, sharded);
+    }
+
+    /**
+     * A shard failing in every attempt fails the call without adding the scores of the shards that succeeded.
+     */
+    @Test
+    public void shouldNotScoreWhenAShardFailsEveryAttempt() throws IOException {
+        List<Annotation> cohort = cohort();
+        // only joined with other annotations by carbons and double bonds, the last pass
+        cohort.add(new Annotation(new Lipid(PoisonedScoringWorker.POISON, "SM 30:0", "C35H71N2O6P", LipidType.SM, 30, 0),
+                700, 1E5, 20, Ionization.POSITVE));
+
+        try (ShardCoordinator coordinator = new ShardCoordinator(2, 60_000, PoisonedScoringWorker.class.getName())) {
+            coordinator.score(cohort);
+            fail("The poisoned shard cannot be scored");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("failed " + ShardCoordinator.MAX_ATTEMPTS + " times"));
+        }
+
+        for (Annotation annotation : cohort) {
+            assertEquals(0, annotation.getScore());
+            assertEquals(0, annotation.getTotalScoresApplied());
+        }
+    }
+
+    private static void fireTogether(List<Annotation> annotations) {
+        LipidScoreUnit lipidScoreUnit = new LipidScoreUnit();
+        try (RuleUnitInstance<LipidScoreUnit> instance = RuleUnitProvider.get().createRuleUnitInstance(lipidScoreUnit)) {
+            annotations.forEach(lipidScoreUnit.getAnnotations()::add);
+            instance.fire();
+        }
+    }
+
+    private static void assertScores(List<Annotation> expected, List<Annotation> actual) {
+        int scored = 0;
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getScore(), actual.get(i).getScore());
+            assertEquals(expected.get(i).getTotalScoresApplied(), actual.get(i).getTotalScoresApplied());
+            scored += expected.get(i).getTotalScoresApplied() > 0 ? 1 : 0;
+        }
+        assertTrue(scored > 0);
+    }
+
+    /**
+     * Series of several types, carbons and double bonds, some eluting in the expected order and some not
+     */
+    private static List<Annotation> cohort() {
+        List<Annotation> annotations = new ArrayList<>();
+        int id = 0;
+        for (LipidType type : List.of(LipidType.PC, LipidType.PE, LipidType.TG)) {
+            for (int carbons = 30; carbons <= 38; carbons += 2) {
+                for (int doubleBonds = 0; doubleBonds <= 3; doubleBonds++) {
+                    Lipid lipid = new Lipid(++id, type + " " + carbons + ":" + doubleBonds, "C" + carbons + "H60O6",
+                            type, carbons, doubleBonds);
+                    double rt = 5 + carbons * 0.2 - doubleBonds * 0.3 + type.ordinal() * 0.5 + (id % 5 == 0 ? -3 : 0);
+                    annotations.add(new Annotation(lipid, 500 + id, 1E5, rt, Ionization.POSITVE));
+                }
+            }
+        }
+        return annotations;
+    }
+}